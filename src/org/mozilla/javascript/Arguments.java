@@ -114,7 +114,7 @@ final class Arguments extends IdScriptableObject
     {
         NativeFunction f = activation.function;
         int definedCount = f.getParamCount();
-        if (index < definedCount) {
+        if (index < definedCount && !f.getParamOrVarInRegister(index)) {
             // Check if argument is not hidden by later argument with the same
             // name as hidden arguments are not shared with activation
             if (index < definedCount - 1) {
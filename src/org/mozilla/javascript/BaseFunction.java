@@ -380,7 +380,10 @@ public class BaseFunction extends IdScriptableObject implements Function
      */
     public Scriptable createObject(Context cx, Scriptable scope)
     {
-        Scriptable newInstance = new NativeObject();
+        NativeObject newInstance = new NativeObject();
+        if (cx.hasFeature(Context.FEATURE_SHAPED_OBJECTS)) {
+            newInstance.initShapedStorage();
+        }
         newInstance.setPrototype(getClassPrototype());
         newInstance.setParentScope(getParentScope());
         return newInstance;
@@ -439,6 +442,10 @@ public class BaseFunction extends IdScriptableObject implements Function
     private void setupDefaultPrototype()
     {
         NativeObject obj = new NativeObject();
+        Context cx = Context.getCurrentContext();
+        if (cx != null && cx.hasFeature(Context.FEATURE_SHAPED_OBJECTS)) {
+            obj.initShapedStorage();
+        }
         final int attr = ScriptableObject.DONTENUM;
         obj.defineProperty("constructor", this, attr);
         // put the prototype property into the object now, then in the
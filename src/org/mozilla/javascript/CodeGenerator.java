@@ -72,7 +72,7 @@ class CodeGenerator extends Icode {
     private int lineNumber;
     private int doubleTableTop;
 
-    private ObjToIntMap strings = new ObjToIntMap(20);
+    private ObjToIntMap strings;
     private int localTop;
     private int[] labelTable;
     private int labelTableTop;
@@ -80,13 +80,40 @@ class CodeGenerator extends Icode {
     // fixupTable[i] = (label_index << 32) | fixup_site
     private long[] fixupTable;
     private int fixupTableTop;
-    private ObjArray literalIds = new ObjArray();
+    private ObjArray literalIds;
 
     private int exceptionTableTop;
 
+    // Source for tiered compilation of functions, or null
+    TieredCompiler.Source tieredSource;
+
     // ECF_ or Expression Context Flags constants: for now only TAIL
     private static final int ECF_TAIL = 1 << 0;
 
+    public CodeGenerator()
+    {
+        strings = new ObjToIntMap(20);
+        literalIds = new ObjArray();
+    }
+
+    /**
+     * Create a generator for a function nested in the one of parent.
+     * Nested functions are generated before their parent adds any string,
+     * literal or label, so they use the tables of the parent, which are
+     * empty again once each function is done.
+     */
+    private CodeGenerator(CodeGenerator parent, FunctionNode fn)
+    {
+        compilerEnv = parent.compilerEnv;
+        tieredSource = parent.tieredSource;
+        scriptOrFn = fn;
+        itsData = new InterpreterData(parent.itsData);
+        strings = parent.strings;
+        literalIds = parent.literalIds;
+        labelTable = parent.labelTable;
+        fixupTable = parent.fixupTable;
+    }
+
     public InterpreterData compile(CompilerEnvirons compilerEnv,
                                    ScriptNode tree,
                                    String encodedSource,
@@ -132,9 +159,14 @@ class CodeGenerator extends Icode {
 
         itsData.itsFunctionType = theFunction.getFunctionType();
         itsData.itsNeedsActivation = theFunction.requiresActivation();
+        itsData.argInRegister = theFunction.getParamAndVarInRegister();
         if (theFunction.getFunctionName() != null) {
             itsData.itsName = theFunction.getName();
         }
+        if (tieredSource != null) {
+            itsData.itsTieredCompiler = TieredCompiler.create(tieredSource,
+                                                              theFunction);
+        }
         if (!theFunction.getIgnoreDynamicScope()) {
             if (compilerEnv.isUseDynamicScope()) {
                 itsData.useDynamicScope = true;
@@ -213,6 +245,10 @@ class CodeGenerator extends Icode {
 
         if (literalIds.size() != 0) {
             itsData.literalIds = literalIds.toArray();
+            literalIds.clear();
+        }
+        if (strings.size() != 0) {
+            strings.clear();
         }
 
         if (Token.printICode) Interpreter.dumpICode(itsData);
@@ -226,12 +262,12 @@ class CodeGenerator extends Icode {
         InterpreterData[] array = new InterpreterData[functionCount];
         for (int i = 0; i != functionCount; i++) {
             FunctionNode fn = scriptOrFn.getFunctionNode(i);
-            CodeGenerator gen = new CodeGenerator();
-            gen.compilerEnv = compilerEnv;
-            gen.scriptOrFn = fn;
-            gen.itsData = new InterpreterData(itsData);
+            CodeGenerator gen = new CodeGenerator(this, fn);
             gen.generateFunctionICode();
             array[i] = gen.itsData;
+            // Keep the tables the nested function may have grown
+            labelTable = gen.labelTable;
+            fixupTable = gen.fixupTable;
         }
         itsData.itsNestedFunctions = array;
     }
@@ -386,9 +422,18 @@ class CodeGenerator extends Icode {
           case Token.IFNE :
             {
                 Node target = ((Jump)node).target;
-                visitExpression(child, 0);
-                addGoto(target, type);
-                stackChange(-1);
+                int fusedOp = getCompareJumpOp(type, child.getType());
+                if (fusedOp != 0) {
+                    Node left = child.getFirstChild();
+                    visitExpression(left, 0);
+                    visitExpression(left.getNext(), 0);
+                    addGoto(target, fusedOp);
+                    stackChange(-2);
+                } else {
+                    visitExpression(child, 0);
+                    addGoto(target, type);
+                    stackChange(-1);
+                }
             }
             break;
 
@@ -673,9 +718,23 @@ class CodeGenerator extends Icode {
 
           case Token.GETPROP:
           case Token.GETPROPNOWARN:
+            if (type == Token.GETPROP && child.getType() == Token.GETVAR) {
+                int varIndex = scriptOrFn.getIndexForNameNode(child);
+                if (varIndex < 128) {
+                    // GETVAR1 + GETPROP
+                    addPropertyOp(Icode_GETVAR1_PROP,
+                                  child.getNext().getString(), varIndex);
+                    stackChange(1);
+                    break;
+                }
+            }
             visitExpression(child, 0);
             child = child.getNext();
-            addStringOp(type, child.getString());
+            if (type == Token.GETPROP) {
+                addPropertyOp(type, child.getString());
+            } else {
+                addStringOp(type, child.getString());
+            }
             break;
 
           case Token.GETELEM:
@@ -739,12 +798,12 @@ class CodeGenerator extends Icode {
                 if (type == Token.SETPROP_OP) {
                     addIcode(Icode_DUP);
                     stackChange(1);
-                    addStringOp(Token.GETPROP, property);
+                    addPropertyOp(Token.GETPROP, property);
                     // Compensate for the following USE_STACK
                     stackChange(-1);
                 }
                 visitExpression(child, 0);
-                addStringOp(Token.SETPROP, property);
+                addPropertyOp(Token.SETPROP, property);
                 stackChange(-1);
             }
             break;
@@ -786,11 +845,16 @@ class CodeGenerator extends Icode {
 
           case Token.SETNAME:
             {
-                String name = child.getString();
-                visitExpression(child, 0);
+                Node nameNode = child;
                 child = child.getNext();
+                if (isOuterVar(nameNode)) {
+                    visitExpression(child, 0);
+                    addOuterVarOp(Icode_SETOUTERVAR, nameNode);
+                    break;
+                }
+                visitExpression(nameNode, 0);
                 visitExpression(child, 0);
-                addStringOp(Token.SETNAME, name);
+                addStringOp(Token.SETNAME, nameNode.getString());
                 stackChange(-1);
             }
             break;
@@ -811,7 +875,7 @@ class CodeGenerator extends Icode {
                 int index = -1;
                 // use typeofname if an activation frame exists
                 // since the vars all exist there instead of in jregs
-                if (itsInFunctionFlag && !itsData.itsNeedsActivation)
+                if (itsInFunctionFlag && hasVarsInRegisters())
                     index = scriptOrFn.getIndexForNameNode(node);
                 if (index == -1) {
                     addStringOp(Icode_TYPEOFNAME, node.getString());
@@ -827,7 +891,11 @@ class CodeGenerator extends Icode {
           case Token.BINDNAME:
           case Token.NAME:
           case Token.STRING:
-            addStringOp(type, node.getString());
+            if (type == Token.NAME && isOuterVar(node)) {
+                addOuterVarOp(Icode_OUTERVAR, node);
+            } else {
+                addStringOp(type, node.getString());
+            }
             stackChange(1);
             break;
 
@@ -867,7 +935,7 @@ class CodeGenerator extends Icode {
 
           case Token.GETVAR:
             {
-                if (itsData.itsNeedsActivation) Kit.codeBug();
+                if (!hasVarsInRegisters()) Kit.codeBug();
                 int index = scriptOrFn.getIndexForNameNode(node);
                 addVarOp(Token.GETVAR, index);
                 stackChange(1);
@@ -876,7 +944,7 @@ class CodeGenerator extends Icode {
 
           case Token.SETVAR:
             {
-                if (itsData.itsNeedsActivation) Kit.codeBug();
+                if (!hasVarsInRegisters()) Kit.codeBug();
                 int index = scriptOrFn.getIndexForNameNode(child);
                 child = child.getNext();
                 visitExpression(child, 0);
@@ -886,7 +954,7 @@ class CodeGenerator extends Icode {
 
           case Token.SETCONSTVAR:
             {
-                if (itsData.itsNeedsActivation) Kit.codeBug();
+                if (!hasVarsInRegisters()) Kit.codeBug();
                 int index = scriptOrFn.getIndexForNameNode(child);
                 child = child.getNext();
                 visitExpression(child, 0);
@@ -1005,9 +1073,12 @@ class CodeGenerator extends Icode {
         int type = left.getType();
         switch (type) {
           case Token.NAME: {
-            String name = left.getString();
             // stack: ... -> ... function thisObj
-            addStringOp(Icode_NAME_AND_THIS, name);
+            if (isOuterVar(left)) {
+                addOuterVarOp(Icode_OUTERVAR_AND_THIS, left);
+            } else {
+                addStringOp(Icode_NAME_AND_THIS, left.getString());
+            }
             stackChange(2);
             break;
           }
@@ -1019,7 +1090,7 @@ class CodeGenerator extends Icode {
             if (type == Token.GETPROP) {
                 String property = id.getString();
                 // stack: ... target -> ... function thisObj
-                addStringOp(Icode_PROP_AND_THIS, property);
+                addPropertyOp(Icode_PROP_AND_THIS, property);
                 stackChange(1);
             } else {
                 visitExpression(id, 0);
@@ -1039,13 +1110,35 @@ class CodeGenerator extends Icode {
     }
 
 
+    private boolean hasVarsInRegisters()
+    {
+        return !itsData.itsNeedsActivation || itsData.argInRegister != null;
+    }
+
+    /**
+     * Check if nameNode refers to a variable of an enclosing function
+     * that can be accessed by depth and index, see
+     * {@link Node#OUTER_VAR_PROP}.
+     */
+    private boolean isOuterVar(Node nameNode)
+    {
+        return !compilerEnv.isUseDynamicScope()
+            && nameNode.getIntProp(Node.OUTER_VAR_PROP, -1) != -1;
+    }
+
+    private void addOuterVarOp(int op, Node nameNode)
+    {
+        addIndexPrefix(nameNode.getExistingIntProp(Node.OUTER_VAR_PROP));
+        addStringOp(op, nameNode.getString());
+    }
+
     private void visitIncDec(Node node, Node child)
     {
         int incrDecrMask = node.getExistingIntProp(Node.INCRDECR_PROP);
         int childType = child.getType();
         switch (childType) {
           case Token.GETVAR : {
-            if (itsData.itsNeedsActivation) Kit.codeBug();
+            if (!hasVarsInRegisters()) Kit.codeBug();
             int i = scriptOrFn.getIndexForNameNode(child);
             addVarOp(Icode_VAR_INC_DEC, i);
             addUint8(incrDecrMask);
@@ -1190,6 +1283,27 @@ class CodeGenerator extends Icode {
         labelTable[label] = iCodeTop;
     }
 
+    /**
+     * Return the icode that fuses the relational operator
+     * <tt>compareType</tt> with the conditional jump <tt>jumpType</tt>,
+     * or 0 if the condition is not a relational operator.
+     */
+    private static int getCompareJumpOp(int jumpType, int compareType)
+    {
+        boolean ifeq = (jumpType == Token.IFEQ);
+        switch (compareType) {
+          case Token.LT:
+            return ifeq ? Icode_IFEQ_LT : Icode_IFNE_LT;
+          case Token.LE:
+            return ifeq ? Icode_IFEQ_LE : Icode_IFNE_LE;
+          case Token.GT:
+            return ifeq ? Icode_IFEQ_GT : Icode_IFNE_GT;
+          case Token.GE:
+            return ifeq ? Icode_IFEQ_GE : Icode_IFNE_GE;
+        }
+        return 0;
+    }
+
     private void addGoto(Node target, int gotoOp)
     {
         int label = getTargetLabel(target);
@@ -1381,6 +1495,53 @@ class CodeGenerator extends Icode {
         }
     }
 
+    /**
+     * Add a property access. When the compiler environment asks for
+     * property caches, the cached variant of the op is used and the
+     * operand is the index of the cache in the function. Sites beyond
+     * the 16-bit range share the last cache, which is still correct as
+     * caches are validated against the receiver.
+     */
+    private void addPropertyOp(int op, String property)
+    {
+        if (!compilerEnv.isGeneratePropertyCaches()) {
+            addStringOp(op, property);
+            return;
+        }
+        addStringOp(cachedPropertyOp(op), property);
+        addPropertyCacheIndex();
+    }
+
+    private void addPropertyOp(int op, String property, int varIndex)
+    {
+        if (!compilerEnv.isGeneratePropertyCaches()) {
+            addStringOp(op, property);
+            addUint8(varIndex);
+            return;
+        }
+        addStringOp(cachedPropertyOp(op), property);
+        addUint8(varIndex);
+        addPropertyCacheIndex();
+    }
+
+    private static int cachedPropertyOp(int op)
+    {
+        switch (op) {
+          case Token.GETPROP:           return Icode_GETPROP_CACHED;
+          case Token.SETPROP:           return Icode_SETPROP_CACHED;
+          case Icode_PROP_AND_THIS:     return Icode_PROP_AND_THIS_CACHED;
+          case Icode_GETVAR1_PROP:      return Icode_GETVAR1_PROP_CACHED;
+        }
+        throw Kit.codeBug();
+    }
+
+    private void addPropertyCacheIndex()
+    {
+        int cacheIndex = Math.min(itsData.itsPropertyCacheCount, 0xFFFF);
+        itsData.itsPropertyCacheCount = cacheIndex + 1;
+        addUint16(cacheIndex);
+    }
+
     private void addIndexOp(int op, int index)
     {
         addIndexPrefix(index);
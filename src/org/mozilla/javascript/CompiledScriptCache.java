@@ -0,0 +1,213 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of compiled scripts and functions kept in memory.
+ * <p>
+ * Set an instance with {@link ContextFactory#setCompiledScriptCache} to let
+ * all Contexts of the factory reuse the result of compiling the same source
+ * with the same settings. Scripts are shared as they are, functions from
+ * {@link Context#compileFunction} get a new function object for each call
+ * that shares the compiled code. Reusing compiled code skips parsing and
+ * the definition of a new class for each compilation.
+ * <p>
+ * The cache is limited by the number of entries and by the sum of the
+ * source lengths of its entries. When either limit is exceeded the least
+ * recently used entries are evicted.
+ */
+public class CompiledScriptCache
+{
+    /**
+     * Key of a compiled source.
+     */
+    static final class Key
+    {
+        private final String source;
+        private final String sourceName;
+        private final int lineno;
+        private final String settings;
+        private final int hashCode;
+
+        Key(String source, String sourceName, int lineno, String settings)
+        {
+            this.source = source;
+            this.sourceName = sourceName;
+            this.lineno = lineno;
+            this.settings = settings;
+            this.hashCode = ((source.hashCode() * 31 + sourceName.hashCode())
+                             * 31 + lineno) * 31 + settings.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hashCode == other.hashCode && lineno == other.lineno
+                   && source.equals(other.source)
+                   && sourceName.equals(other.sourceName)
+                   && settings.equals(other.settings);
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<Key,Object> entries;
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Create a cache with the given limits.
+     *
+     * @param maxEntries the maximum number of compiled sources
+     * @param maxWeight the maximum sum of the lengths of the sources
+     */
+    public CompiledScriptCache(int maxEntries, long maxWeight)
+    {
+        if (maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.entries = new LinkedHashMap<Key,Object>(16, 0.75f, true);
+    }
+
+    public final int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public final long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    /**
+     * Return the number of compiled sources in the cache.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Return the sum of the lengths of the sources in the cache.
+     */
+    public synchronized long getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * Return how many compilations were served from the cache.
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Return how many compilations were not found in the cache.
+     */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Return how many entries were removed to stay within the limits.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Remove all entries. The statistics are kept.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        weight = 0;
+    }
+
+    synchronized Object get(Key key)
+    {
+        Object value = entries.get(key);
+        if (value != null) {
+            ++hitCount;
+        } else {
+            ++missCount;
+        }
+        return value;
+    }
+
+    synchronized void put(Key key, Object value)
+    {
+        long keyWeight = key.source.length();
+        if (keyWeight > maxWeight) {
+            return;
+        }
+        Object old = entries.put(key, value);
+        if (old == null) {
+            weight += keyWeight;
+        }
+        Iterator<Map.Entry<Key,Object>> iter = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            Key eldest = iter.next().getKey();
+            iter.remove();
+            weight -= eldest.source.length();
+            ++evictionCount;
+        }
+    }
+}
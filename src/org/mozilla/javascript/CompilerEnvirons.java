@@ -60,6 +60,7 @@ public class CompilerEnvirons
         strictMode = false;
         warningAsError = false;
         generateObserverCount = false;
+        generatePropertyCaches = false;
         allowSharpComments = false;
     }
 
@@ -87,6 +88,9 @@ public class CompilerEnvirons
         
         // Observer code generation in compiled code :
         generateObserverCount = cx.generateObserverCount;
+
+        generatePropertyCaches
+            = cx.hasFeature(Context.FEATURE_SHAPED_OBJECTS);
     }
 
     public final ErrorReporter getErrorReporter()
@@ -236,6 +240,26 @@ public class CompilerEnvirons
         this.generateObserverCount = generateObserverCount;
     }
 
+    /**
+     * @return true iff property accesses will be compiled to go through
+     * inline caches
+     */
+    public boolean isGeneratePropertyCaches() {
+        return generatePropertyCaches;
+    }
+
+    /**
+     * Turn on or off inline caches at property access sites. The caches
+     * only help with shaped objects, see
+     * {@link Context#FEATURE_SHAPED_OBJECTS}, and are on by default when
+     * that feature is enabled.
+     * @param generatePropertyCaches if true, property accesses will look
+     * up their receiver in an inline cache first.
+     */
+    public void setGeneratePropertyCaches(boolean generatePropertyCaches) {
+        this.generatePropertyCaches = generatePropertyCaches;
+    }
+
     public boolean isRecordingComments() {
         return recordingComments;
     }
@@ -327,6 +351,7 @@ public class CompilerEnvirons
     private boolean strictMode;
     private boolean warningAsError;
     private boolean generateObserverCount;
+    private boolean generatePropertyCaches;
     private boolean recordingComments;
     private boolean recordingLocalJsDocComments;
     private boolean recoverFromErrors;
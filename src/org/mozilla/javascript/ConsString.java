@@ -0,0 +1,135 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * A string built by concatenating two strings, each of which may be a
+ * java.lang.String or another ConsString. The characters are only copied
+ * into a single String when it is first needed, so that building a long
+ * string piece by piece does not copy it on every concatenation.
+ *
+ * <p>Like String, ConsString is a primitive JavaScript string value: code
+ * that checks for string values has to test for CharSequence and use
+ * toString() to get the characters. ScriptRuntime.concat only creates
+ * ConsString values with {@link Context#FEATURE_CONS_STRINGS}.
+ *
+ * <p>Like StringBuilder, ConsString deliberately does not override
+ * equals() and hashCode(): a ConsString can not be equal to a String with
+ * the same characters, as String.equals() only accepts Strings. Compare or
+ * hash the result of toString() instead.
+ */
+public final class ConsString implements CharSequence, Serializable
+{
+    static final long serialVersionUID = 2854436960539960640L;
+
+    // Both are null once the string has been flattened
+    private CharSequence left, right;
+    private String flat;
+    private final int length;
+
+    public ConsString(CharSequence left, CharSequence right)
+    {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    // Serialize the characters rather than the tree
+    private Object writeReplace()
+    {
+        return toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        String s = flat;
+        return (s != null) ? s : flatten();
+    }
+
+    private synchronized String flatten()
+    {
+        if (flat == null) {
+            char[] chars = new char[length];
+            // Walk the tree from the right with an explicit stack as
+            // strings built by repeated appends are deeply nested
+            ArrayList<CharSequence> stack = new ArrayList<CharSequence>();
+            stack.add(left);
+            stack.add(right);
+            int end = length;
+            while (!stack.isEmpty()) {
+                CharSequence s = stack.remove(stack.size() - 1);
+                if (s instanceof ConsString) {
+                    ConsString cons = (ConsString)s;
+                    synchronized (cons) {
+                        if (cons.flat == null) {
+                            stack.add(cons.left);
+                            stack.add(cons.right);
+                            continue;
+                        }
+                        s = cons.flat;
+                    }
+                }
+                String str = s.toString();
+                end -= str.length();
+                str.getChars(0, str.length(), chars, end);
+            }
+            flat = new String(chars);
+            left = right = null;
+        }
+        return flat;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int index)
+    {
+        return toString().charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        return toString().substring(start, end);
+    }
+}
@@ -48,6 +48,7 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Map;
@@ -315,6 +316,62 @@ public class Context
      */
     public static final int FEATURE_ENHANCED_JAVA_ACCESS = 13;
 
+    /**
+     * Enables shaped property storage for plain JavaScript objects.
+     * <p>
+     * Objects created by object literals, <tt>new Object()</tt> and script
+     * constructors keep their properties in a flat value array described by
+     * a property map that is shared with all other objects that got the same
+     * properties added in the same order. This saves memory for many small
+     * objects of the same layout and makes property lookup cheaper. Objects
+     * switch to the regular hash table storage as soon as they need
+     * anything besides plain named data properties, for example when a
+     * property is deleted.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     * @since 1.7 Release 3
+     */
+    public static final int FEATURE_SHAPED_OBJECTS = 14;
+
+    /**
+     * Enables tiered compilation when the optimization level is 0 or more.
+     * <p>
+     * Scripts and functions are first compiled for the interpreter, which
+     * is much cheaper than generating and loading Java classes for code
+     * that runs only a few times. Functions that get called or loop often
+     * enough are then compiled to Java bytecode on a background thread and
+     * later calls run the compiled code. See
+     * {@link #setTieredCompilationThreshold(int)}.
+     * <p>
+     * Compiled code is not used while a debugger is set or the optimization
+     * level of the calling Context is -1. Scripts compiled with a security
+     * domain are always compiled directly.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     * @since 1.7 Release 3
+     */
+    public static final int FEATURE_TIERED_COMPILATION = 15;
+
+    /**
+     * Enables lazy string concatenation.
+     * <p>
+     * Concatenations whose result has 64 or more characters return a
+     * {@link ConsString} that keeps both operands and copies the characters
+     * only once they are needed, so that building a long string piece by
+     * piece takes linear instead of quadratic time.
+     * <p>
+     * With this feature string values seen by Java code, such as the result
+     * of {@link #evaluateString}, property values and the arguments of
+     * functions implemented in Java, can be ConsString instances instead
+     * of {@link String}. Such code has to accept any {@link CharSequence}
+     * as a string and use <tt>toString()</tt> or {@link #toString(Object)}
+     * to get a String.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     * @since 1.7 Release 3
+     */
+    public static final int FEATURE_CONS_STRINGS = 16;
+
 
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
@@ -360,6 +417,8 @@ public class Context
         setLanguageVersion(VERSION_DEFAULT);
         optimizationLevel = codegenClass != null ? 0 : -1;
         maximumInterpreterStackDepth = Integer.MAX_VALUE;
+        tieredCompilationThreshold = DEFAULT_TIERED_COMPILATION_THRESHOLD;
+        maximumRegExpBacktracks = Integer.MAX_VALUE;
     }
 
     /**
@@ -1697,7 +1756,8 @@ public class Context
     public static Object javaToJS(Object value, Scriptable scope)
     {
         if (value instanceof String || value instanceof Number
-            || value instanceof Boolean || value instanceof Scriptable)
+            || value instanceof Boolean || value instanceof Scriptable
+            || value instanceof ConsString)
         {
             return value;
         } else if (value instanceof Character) {
@@ -1937,6 +1997,76 @@ public class Context
         maximumInterpreterStackDepth = max;
     }
 
+    /**
+     * Returns the number of calls after which an interpreted function is
+     * compiled to Java bytecode with tiered compilation.
+     *
+     * @return the current tiered compilation threshold
+     * @see #FEATURE_TIERED_COMPILATION
+     */
+    public final int getTieredCompilationThreshold()
+    {
+        return tieredCompilationThreshold;
+    }
+
+    /**
+     * Sets the number of calls after which an interpreted function is
+     * compiled to Java bytecode with tiered compilation. Loops count as
+     * well: a function is also compiled after 100 times as many backward
+     * jumps. The threshold is taken when a script is compiled.
+     * Defaults to 1000.
+     *
+     * @param threshold the new tiered compilation threshold
+     * @throws IllegalArgumentException if the threshold is not at least 1
+     * @see #FEATURE_TIERED_COMPILATION
+     */
+    public final void setTieredCompilationThreshold(int threshold)
+    {
+        if (sealed) onSealedMutation();
+        if (threshold < 1) {
+            throw new IllegalArgumentException(
+                "Cannot set tieredCompilationThreshold to less than 1");
+        }
+        tieredCompilationThreshold = threshold;
+    }
+
+    /**
+     * Returns the number of times matching a regular expression may
+     * backtrack before the match is abandoned with an EvaluatorException.
+     * Defaults to Integer.MAX_VALUE.
+     *
+     * @return the current maximum number of regular expression backtracks
+     * @see #setMaximumRegExpBacktracks(int)
+     */
+    public final int getMaximumRegExpBacktracks()
+    {
+        return maximumRegExpBacktracks;
+    }
+
+    /**
+     * Sets the number of times matching a regular expression may
+     * backtrack before the match is abandoned with an EvaluatorException,
+     * which scripts can catch as an InternalError. The limit applies to
+     * each call that matches a regular expression, and protects against
+     * patterns whose matching time grows exponentially with the input.
+     * Regular expressions without back references and lookahead usually
+     * do not reach it: when they backtrack too much, they are matched with
+     * an automaton that takes time linear in the input instead.
+     * Defaults to Integer.MAX_VALUE.
+     *
+     * @param max the new maximum number of regular expression backtracks
+     * @throws IllegalArgumentException if max is not at least 1
+     */
+    public final void setMaximumRegExpBacktracks(int max)
+    {
+        if (sealed) onSealedMutation();
+        if (max < 1) {
+            throw new IllegalArgumentException(
+                "Cannot set maximumRegExpBacktracks to less than 1");
+        }
+        maximumRegExpBacktracks = max;
+    }
+
     /**
      * Set the security controller for this context.
      * <p> SecurityController may only be set if it is currently null
@@ -2112,6 +2242,35 @@ public class Context
         return wrapFactory;
     }
 
+    /**
+     * Set the cache for compiled scripts of this Context.
+     * <p>
+     * Scripts and functions compiled by this Context are looked up in the
+     * cache before parsing and stored in it after a compilation. The cache
+     * is not used while a debugger is attached, with
+     * {@link #FEATURE_TIERED_COMPILATION} or when compiling with an
+     * explicit {@link Evaluator}. Scripts loaded from the cache do not
+     * report compiler warnings again.
+     *
+     * @param cache the cache or null to compile every script
+     * @see ScriptCache
+     * @see FileScriptCache
+     */
+    public final void setScriptCache(ScriptCache cache)
+    {
+        if (sealed) onSealedMutation();
+        scriptCache = cache;
+    }
+
+    /**
+     * Return the cache for compiled scripts or null if none is set.
+     * @see #setScriptCache(ScriptCache)
+     */
+    public final ScriptCache getScriptCache()
+    {
+        return scriptCache;
+    }
+
     /**
      * Return the current debugger.
      * @return the debugger, or null if none is attached.
@@ -2182,6 +2341,9 @@ public class Context
      * @see #FEATURE_STRICT_MODE
      * @see #FEATURE_WARNING_AS_ERROR
      * @see #FEATURE_ENHANCED_JAVA_ACCESS
+     * @see #FEATURE_SHAPED_OBJECTS
+     * @see #FEATURE_TIERED_COMPILATION
+     * @see #FEATURE_CONS_STRINGS
      */
     public boolean hasFeature(int featureIndex)
     {
@@ -2361,6 +2523,84 @@ public class Context
                                Evaluator compiler,
                                ErrorReporter compilationErrorReporter)
         throws IOException
+    {
+        CompiledScriptCache cache = factory.getCompiledScriptCache();
+        if (cache == null || compiler != null || debugger != null
+            || securityDomain != null)
+        {
+            return compileSource(scope, sourceReader, sourceString,
+                                 sourceName, lineno, securityDomain,
+                                 returnFunction, compiler,
+                                 compilationErrorReporter);
+        }
+        if (sourceName == null) {
+            sourceName = "unnamed script";
+        }
+        if (sourceReader != null) {
+            sourceString = Kit.readReader(sourceReader);
+            sourceReader = null;
+        }
+        CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        compilerEnv.initFromContext(this);
+        String settings = ScriptCacheSupport.getSettings(compilerEnv);
+        if (isTieredCompilation(null, null)) {
+            settings += 't';
+        } else if (optimizationLevel >= 0 && codegenClass != null) {
+            settings += 'c';
+        }
+        if (returnFunction) {
+            settings += 'f';
+        }
+        CompiledScriptCache.Key key = new CompiledScriptCache.Key(
+            sourceString, sourceName, lineno, settings);
+        Object code = cache.get(key);
+        if (code == null) {
+            Object result = compileSource(scope, null, sourceString,
+                                          sourceName, lineno, null,
+                                          returnFunction, null,
+                                          compilationErrorReporter);
+            if (!returnFunction) {
+                code = result;
+            } else if (result instanceof InterpretedFunction) {
+                code = ((InterpretedFunction)result).idata;
+            } else {
+                code = result.getClass().getConstructors()[0];
+            }
+            cache.put(key, code);
+            return result;
+        }
+        if (!returnFunction) {
+            return code;
+        }
+        if (code instanceof InterpreterData) {
+            return InterpretedFunction.createFunction(
+                this, scope, (InterpreterData)code, null);
+        }
+        try {
+            Object[] initArgs = { scope, this, Integer.valueOf(0) };
+            return ((Constructor<?>)code).newInstance(initArgs);
+        } catch (Exception ex) {
+            throw new RuntimeException
+                ("Unable to instantiate compiled class:"+ex.toString());
+        }
+    }
+
+    private boolean isTieredCompilation(Evaluator compiler,
+                                        Object securityDomain)
+    {
+        return compiler == null && debugger == null
+               && securityDomain == null && optimizationLevel >= 0
+               && codegenClass != null
+               && hasFeature(FEATURE_TIERED_COMPILATION);
+    }
+
+    private Object compileSource(Scriptable scope,
+                                 Reader sourceReader, String sourceString,
+                                 String sourceName, int lineno,
+                                 Object securityDomain, boolean returnFunction,
+                                 Evaluator compiler,
+                                 ErrorReporter compilationErrorReporter)
+        throws IOException
     {
         if(sourceName == null) {
             sourceName = "unnamed script";
@@ -2381,11 +2621,46 @@ public class Context
             compilationErrorReporter = compilerEnv.getErrorReporter();
         }
 
-        if (debugger != null) {
+        boolean tiered = isTieredCompilation(compiler, securityDomain);
+        if (debugger != null || tiered) {
+            if (sourceReader != null) {
+                sourceString = Kit.readReader(sourceReader);
+                sourceReader = null;
+            }
+        }
+
+        ScriptCache cache = null;
+        String cacheKey = null;
+        if (scriptCache != null && compiler == null && debugger == null
+            && !tiered)
+        {
+            cache = scriptCache;
             if (sourceReader != null) {
                 sourceString = Kit.readReader(sourceReader);
                 sourceReader = null;
             }
+            compiler = createCompiler();
+            cacheKey = ScriptCacheSupport.makeKey(this, compilerEnv, compiler,
+                                                  sourceString, sourceName,
+                                                  lineno, returnFunction);
+            byte[] data = cache.get(cacheKey);
+            if (data != null) {
+                Object bytecode = ScriptCacheSupport.decode(data, compiler);
+                if (bytecode != null) {
+                    try {
+                        if (returnFunction) {
+                            return compiler.createFunctionObject(
+                                this, scope, bytecode, securityDomain);
+                        }
+                        return compiler.createScriptObject(bytecode,
+                                                           securityDomain);
+                    } catch (RuntimeException ex) {
+                        // Unusable entry, compile the source again
+                    } catch (LinkageError ex) {
+                        // Class file rejected by the VM
+                    }
+                }
+            }
         }
 
         Parser p = new Parser(compilerEnv, compilationErrorReporter);
@@ -2419,13 +2694,24 @@ public class Context
         ast = null;
         irf = null;
 
-        if (compiler == null) {
+        if (tiered) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.tieredSource = new TieredCompiler.Source(
+                this, sourceString, sourceName);
+            compiler = interpreter;
+        } else if (compiler == null) {
             compiler = createCompiler();
         }
 
         Object bytecode = compiler.compile(compilerEnv,
                                            tree, tree.getEncodedSource(),
                                            returnFunction);
+        if (cache != null) {
+            byte[] data = ScriptCacheSupport.encode(bytecode);
+            if (data != null) {
+                cache.put(cacheKey, data);
+            }
+        }
         if (debugger != null) {
             if (sourceString == null) Kit.codeBug();
             if (bytecode instanceof DebuggableScript) {
@@ -2460,6 +2746,8 @@ public class Context
     private static Class<?> interpreterClass = Kit.classOrNull(
                              "org.mozilla.javascript.Interpreter");
 
+    private static final int DEFAULT_TIERED_COMPILATION_THRESHOLD = 1000;
+
     private Evaluator createCompiler()
     {
         Evaluator result = null;
@@ -2472,17 +2760,54 @@ public class Context
         return result;
     }
 
+    static Evaluator createCodegen()
+    {
+        return (Evaluator)Kit.newInstanceOrNull(codegenClass);
+    }
+
     static Evaluator createInterpreter()
     {
         return (Evaluator)Kit.newInstanceOrNull(interpreterClass);
     }
 
+    /**
+     * Return the source position of the innermost compiled script frame if
+     * it is above the innermost interpreter frame, otherwise null.
+     */
+    private static String getCompiledPositionFromStack(int[] linep)
+    {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (int i = 0; i != stack.length; ++i) {
+            StackTraceElement e = stack[i];
+            if (e.getClassName().equals("org.mozilla.javascript.Interpreter")
+                && e.getMethodName().equals("interpretLoop"))
+            {
+                return null;
+            }
+            String fileName = e.getFileName();
+            if (fileName != null && !fileName.endsWith(".java")
+                && e.getLineNumber() >= 0)
+            {
+                linep[0] = e.getLineNumber();
+                return fileName;
+            }
+        }
+        return null;
+    }
+
     static String getSourcePositionFromStack(int[] linep)
     {
         Context cx = getCurrentContext();
         if (cx == null)
             return null;
         if (cx.lastInterpreterFrame != null) {
+            if (cx.calledTieredCode) {
+                // Interpreted code may have called a function compiled by
+                // tiered compilation that is still running
+                String sourceName = getCompiledPositionFromStack(linep);
+                if (sourceName != null)
+                    return sourceName;
+            }
             Evaluator evaluator = createInterpreter();
             if (evaluator != null)
                 return evaluator.getSourcePositionFromStack(cx, linep);
@@ -2635,7 +2960,10 @@ public class Context
     boolean useDynamicScope;
     private int optimizationLevel;
     private int maximumInterpreterStackDepth;
+    private int tieredCompilationThreshold;
+    private int maximumRegExpBacktracks;
     private WrapFactory wrapFactory;
+    private ScriptCache scriptCache;
     Debugger debugger;
     private Object debuggerData;
     private int enterCount;
@@ -2656,6 +2984,14 @@ public class Context
     // interpreter invocations
     ObjArray previousInterpreterInvocations;
 
+    // Set once interpreted code called a function compiled by tiered
+    // compilation, see getSourcePositionFromStack
+    boolean calledTieredCode;
+
+    // For the interpreter to keep released call frames for reuse
+    Object interpreterFramePool;
+    int interpreterFramePoolSize;
+
     // For instruction counting (interpreter only)
     int instructionCount;
     int instructionThreshold;
@@ -42,6 +42,8 @@ package org.mozilla.javascript;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Factory class that Rhino runtime uses to create new {@link Context}
@@ -150,6 +152,15 @@ public class ContextFactory
     private volatile Object listeners;
     private boolean disabledListening;
     private ClassLoader applicationClassLoader;
+    private volatile CompiledScriptCache compiledScriptCache;
+
+    private final Object classLoaderLock = new Object();
+    private int maxClassesPerLoader;
+    private GeneratedClassLoader sharedLoader;
+    private ClassLoader sharedLoaderParent;
+    private Set<String> sharedLoaderClassNames;
+    private long generatedClassCount;
+    private long generatedClassLoaderCount;
 
     /**
      * Listener of {@link Context} creation and release events.
@@ -311,6 +322,15 @@ public class ContextFactory
 
           case Context.FEATURE_ENHANCED_JAVA_ACCESS:
             return false;
+
+          case Context.FEATURE_SHAPED_OBJECTS:
+            return false;
+
+          case Context.FEATURE_TIERED_COMPILATION:
+            return false;
+
+          case Context.FEATURE_CONS_STRINGS:
+            return false;
         }
         // It is a bug to call the method with unknown featureIndex
         throw new IllegalArgumentException(String.valueOf(featureIndex));
@@ -380,6 +400,147 @@ public class ContextFactory
         });
     }
 
+    /**
+     * Return the maximum number of generated script classes defined by one
+     * class loader.
+     *
+     * @see #setMaxClassesPerLoader(int)
+     */
+    public final int getMaxClassesPerLoader()
+    {
+        synchronized (classLoaderLock) {
+            return maxClassesPerLoader;
+        }
+    }
+
+    /**
+     * Set how many classes generated for scripts and functions share one
+     * class loader.
+     * <p>
+     * With the default of 0 every compiled script gets its own loader from
+     * {@link #createClassLoader(ClassLoader)}, so its class can be unloaded
+     * as soon as the script is no longer used. A positive value lets up to
+     * that many scripts share a loader, which makes class definition
+     * cheaper and reduces the number of loaders and metaspace chunks. The
+     * classes of a full loader are unloaded together once none of them is
+     * used any more.
+     * <p>
+     * Only scripts compiled without a {@link SecurityController} share
+     * loaders. A class whose name is already defined in the current shared
+     * loader gets a loader of its own instead. That happens when a
+     * {@link ScriptCache} returns the same class file more than once, or
+     * returns a class file written by an earlier run, because such classes
+     * keep the name the optimizer gave them when they were compiled.
+     *
+     * @param max the number of classes per loader or 0 for one loader per
+     *        class
+     */
+    public final void setMaxClassesPerLoader(int max)
+    {
+        checkNotSealed();
+        if (max < 0) throw new IllegalArgumentException();
+        synchronized (classLoaderLock) {
+            maxClassesPerLoader = max;
+            sharedLoader = null;
+            sharedLoaderParent = null;
+            sharedLoaderClassNames = null;
+        }
+    }
+
+    /**
+     * Return the number of classes defined by
+     * {@link #defineGeneratedClass(Context, ClassLoader, String, byte[])}.
+     */
+    public final long getGeneratedClassCount()
+    {
+        synchronized (classLoaderLock) {
+            return generatedClassCount;
+        }
+    }
+
+    /**
+     * Return the number of class loaders created by
+     * {@link #defineGeneratedClass(Context, ClassLoader, String, byte[])}.
+     */
+    public final long getGeneratedClassLoaderCount()
+    {
+        synchronized (classLoaderLock) {
+            return generatedClassLoaderCount;
+        }
+    }
+
+    /**
+     * Define and link a class generated for a script or function that is
+     * compiled without a security domain.
+     * <p>
+     * The class is defined by a loader from
+     * {@link SecurityController#createLoader(ClassLoader, Object)}. Without
+     * a SecurityController the loader is shared with other generated
+     * classes according to {@link #setMaxClassesPerLoader(int)}.
+     *
+     * @param cx the current Context
+     * @param parent the parent loader of the generated class loaders
+     * @param name the name of the class
+     * @param data the class file
+     * @return the defined class
+     */
+    public final Class<?> defineGeneratedClass(Context cx, ClassLoader parent,
+                                               String name, byte[] data)
+    {
+        GeneratedClassLoader loader = null;
+        synchronized (classLoaderLock) {
+            if (maxClassesPerLoader > 0
+                && cx.getSecurityController() == null)
+            {
+                if (sharedLoader == null || sharedLoaderParent != parent
+                    || sharedLoaderClassNames.size() >= maxClassesPerLoader)
+                {
+                    sharedLoader = cx.createClassLoader(parent);
+                    sharedLoaderParent = parent;
+                    sharedLoaderClassNames = new HashSet<String>();
+                    ++generatedClassLoaderCount;
+                }
+                // Reserve the name, a class that reuses it gets its own
+                // loader below
+                if (sharedLoaderClassNames.add(name)) {
+                    loader = sharedLoader;
+                }
+            }
+        }
+        Class<?> cl;
+        if (loader != null) {
+            try {
+                cl = loader.defineClass(name, data);
+            } catch (RuntimeException ex) {
+                releaseSharedName(loader, name);
+                throw ex;
+            } catch (Error ex) {
+                releaseSharedName(loader, name);
+                throw ex;
+            }
+        } else {
+            loader = SecurityController.createLoader(parent, null);
+            cl = loader.defineClass(name, data);
+            synchronized (classLoaderLock) {
+                ++generatedClassLoaderCount;
+            }
+        }
+        loader.linkClass(cl);
+        synchronized (classLoaderLock) {
+            ++generatedClassCount;
+        }
+        return cl;
+    }
+
+    private void releaseSharedName(GeneratedClassLoader loader, String name)
+    {
+        synchronized (classLoaderLock) {
+            if (loader == sharedLoader) {
+                sharedLoaderClassNames.remove(name);
+            }
+        }
+    }
+
     /**
      * Get ClassLoader to use when searching for Java classes.
      * Unless it was explicitly initialized with
@@ -412,6 +573,32 @@ public class ContextFactory
         this.applicationClassLoader = loader;
     }
 
+    /**
+     * Return the cache of compiled scripts shared by Contexts of this
+     * factory or null if none is set.
+     *
+     * @see #setCompiledScriptCache(CompiledScriptCache)
+     */
+    public final CompiledScriptCache getCompiledScriptCache()
+    {
+        return compiledScriptCache;
+    }
+
+    /**
+     * Set the cache of compiled scripts shared by Contexts of this factory.
+     * <p>
+     * Sources compiled without a debugger, security domain or explicit
+     * {@link Evaluator} are looked up in the cache first. Compilations
+     * served from the cache do not report warnings again.
+     *
+     * @param cache the cache or null to compile every source
+     */
+    public final void setCompiledScriptCache(CompiledScriptCache cache)
+    {
+        checkNotSealed();
+        compiledScriptCache = cache;
+    }
+
     /**
      * Execute top call to script or function.
      * When the runtime is about to execute a script or function that will
@@ -0,0 +1,150 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link ScriptCache} that keeps one file per compiled script in a
+ * directory, so compiled scripts survive restarts of the application.
+ * <p>
+ * Entries are written to a temporary file first and then renamed, so
+ * several processes can share the directory. I/O errors are not reported:
+ * a failed read is a cache miss and a failed write is ignored.
+ */
+public class FileScriptCache implements ScriptCache
+{
+    private static final String SUFFIX = ".jsc";
+
+    private final File directory;
+
+    /**
+     * Create a cache that stores its entries in the given directory. The
+     * directory is created when the first entry is stored.
+     */
+    public FileScriptCache(File directory)
+    {
+        if (directory == null) throw new IllegalArgumentException();
+        this.directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public byte[] get(String key)
+    {
+        File file = getFile(key);
+        long length = file.length();
+        if (length == 0 || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                return Kit.readStream(in, (int)length);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] data)
+    {
+        File file = getFile(key);
+        File tmp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            tmp = File.createTempFile(key, ".tmp", directory);
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // Some platforms do not replace an existing file
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    return;
+                }
+            }
+            tmp = null;
+        } catch (IOException ex) {
+            // Keep running without the entry
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries of the cache.
+     */
+    public void clear()
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Return the file that holds the entry for the key.
+     */
+    protected File getFile(String key)
+    {
+        return new File(directory, key + SUFFIX);
+    }
+}
@@ -363,16 +363,13 @@ public final class IRFactory extends Parser
         decompiler.addToken(Token.LB);
         List<AstNode> elems = node.getElements();
         Node array = new Node(Token.ARRAYLIT);
-        List<Integer> skipIndexes = null;
+        int skipCount = 0;
         for (int i = 0; i < elems.size(); ++i) {
             AstNode elem = elems.get(i);
             if (elem.getType() != Token.EMPTY) {
                 array.addChildToBack(transform(elem));
             } else {
-                if (skipIndexes == null) {
-                    skipIndexes = new ArrayList<Integer>();
-                }
-                skipIndexes.add(i);
+                skipCount++;
             }
             if (i < elems.size() - 1)
                 decompiler.addToken(Token.COMMA);
@@ -380,10 +377,13 @@ public final class IRFactory extends Parser
         decompiler.addToken(Token.RB);
         array.putIntProp(Node.DESTRUCTURING_ARRAY_LENGTH,
                          node.getDestructuringLength());
-        if (skipIndexes != null) {
-            int[] skips = new int[skipIndexes.size()];
-            for (int i = 0; i < skipIndexes.size(); i++)
-                skips[i] = skipIndexes.get(i);
+        if (skipCount != 0) {
+            int[] skips = new int[skipCount];
+            int j = 0;
+            for (int i = 0; i < elems.size(); i++) {
+                if (elems.get(i).getType() == Token.EMPTY)
+                    skips[j++] = i;
+            }
             array.putProp(Node.SKIP_INDEXES_PROP, skips);
         }
         return array;
@@ -479,6 +479,10 @@ public final class IRFactory extends Parser
         decompiler.addToken(Token.LB);
         Node element = transform(node.getElement());
         decompiler.addToken(Token.RB);
+        if (element.getType() == Token.STRING) {
+            element.setString(
+                ScriptableObject.internPropertyName(element.getString()));
+        }
         return new Node(Token.GETELEM, target, element);
     }
 
@@ -771,7 +775,8 @@ public final class IRFactory extends Parser
         } else if (id instanceof StringLiteral) {
             String s = ((StringLiteral)id).getValue();
             decompiler.addString(s);
-            key = ScriptRuntime.getIndexObject(s);
+            key = ScriptRuntime.getIndexObject(
+                ScriptableObject.internPropertyName(s));
         } else if (id instanceof NumberLiteral) {
             double n = ((NumberLiteral)id).getNumber();
             decompiler.addNumber(n);
@@ -1259,12 +1264,6 @@ public final class IRFactory extends Parser
         fnNode.setFunctionType(functionType);
         fnNode.addChildToBack(statements);
 
-        int functionCount = fnNode.getFunctionCount();
-        if (functionCount != 0) {
-            // Functions containing other functions require activation objects
-            fnNode.setRequiresActivation();
-        }
-
         if (functionType == FunctionNode.FUNCTION_EXPRESSION) {
             Name name = fnNode.getFunctionName();
             if (name != null && name.length() != 0) {
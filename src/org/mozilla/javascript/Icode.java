@@ -173,8 +173,36 @@ abstract class Icode {
 
        Icode_DEBUGGER                   = -64,
 
+    // Relational compare fused with the following IFEQ/IFNE:
+    // Icode_IFEQ_xx jumps when the comparison holds, Icode_IFNE_xx when
+    // it does not
+       Icode_IFEQ_LT                    = -65,
+       Icode_IFEQ_LE                    = -66,
+       Icode_IFEQ_GT                    = -67,
+       Icode_IFEQ_GE                    = -68,
+       Icode_IFNE_LT                    = -69,
+       Icode_IFNE_LE                    = -70,
+       Icode_IFNE_GT                    = -71,
+       Icode_IFNE_GE                    = -72,
+
+    // GETVAR1 fused with the following GETPROP
+       Icode_GETVAR1_PROP               = -73,
+
+    // Access to variables of enclosing functions by depth and index,
+    // see Node.OUTER_VAR_PROP
+       Icode_OUTERVAR                   = -74,
+       Icode_SETOUTERVAR                = -75,
+       Icode_OUTERVAR_AND_THIS          = -76,
+
+    // Property access through an inline cache, see PropertyCache. The
+    // cache index follows the usual operands as uint16
+       Icode_GETPROP_CACHED             = -77,
+       Icode_SETPROP_CACHED             = -78,
+       Icode_PROP_AND_THIS_CACHED       = -79,
+       Icode_GETVAR1_PROP_CACHED        = -80,
+
        // Last icode
-        MIN_ICODE                       = -64;
+        MIN_ICODE                       = -80;
 
     static String bytecodeName(int bytecode)
     {
@@ -255,6 +283,22 @@ abstract class Icode {
           case Icode_GENERATOR:        return "GENERATOR";
           case Icode_GENERATOR_END:    return "GENERATOR_END";
           case Icode_DEBUGGER:         return "DEBUGGER";
+          case Icode_IFEQ_LT:          return "IFEQ_LT";
+          case Icode_IFEQ_LE:          return "IFEQ_LE";
+          case Icode_IFEQ_GT:          return "IFEQ_GT";
+          case Icode_IFEQ_GE:          return "IFEQ_GE";
+          case Icode_IFNE_LT:          return "IFNE_LT";
+          case Icode_IFNE_LE:          return "IFNE_LE";
+          case Icode_IFNE_GT:          return "IFNE_GT";
+          case Icode_IFNE_GE:          return "IFNE_GE";
+          case Icode_GETVAR1_PROP:     return "GETVAR1_PROP";
+          case Icode_OUTERVAR:         return "OUTERVAR";
+          case Icode_SETOUTERVAR:      return "SETOUTERVAR";
+          case Icode_OUTERVAR_AND_THIS: return "OUTERVAR_AND_THIS";
+          case Icode_GETPROP_CACHED:   return "GETPROP_CACHED";
+          case Icode_SETPROP_CACHED:   return "SETPROP_CACHED";
+          case Icode_PROP_AND_THIS_CACHED: return "PROP_AND_THIS_CACHED";
+          case Icode_GETVAR1_PROP_CACHED: return "GETVAR1_PROP_CACHED";
         }
 
         // icode without name
@@ -50,6 +50,7 @@ final class InterpretedFunction extends NativeFunction implements Script
     SecurityController securityController;
     Object securityDomain;
     Scriptable[] functionRegExps;
+    private transient volatile TieredCompiler.CompiledFunction tieredFunction;
 
     private InterpretedFunction(InterpreterData idata,
                                 Object staticSecurityDomain)
@@ -161,9 +162,37 @@ final class InterpretedFunction extends NativeFunction implements Script
         if (!ScriptRuntime.hasTopCall(cx)) {
             return ScriptRuntime.doTopCall(this, cx, scope, thisObj, args);
         }
+        TieredCompiler.CompiledFunction tiered = getTieredFunction(cx);
+        if (tiered != null) {
+            if (tiered.acceptsArguments(args)) {
+                cx.calledTieredCode = true;
+                return tiered.function.call(cx, scope, thisObj, args);
+            }
+            idata.itsTieredCompiler.deoptimize(idata, tiered, args);
+        }
         return Interpreter.interpret(this, cx, scope, thisObj, args);
     }
 
+    /**
+     * Return the compiled version of this function if tiered compilation
+     * has produced one that can be used in the given Context.
+     */
+    TieredCompiler.CompiledFunction getTieredFunction(Context cx)
+    {
+        TieredCompiler tier = idata.itsTieredCompiler;
+        if (tier == null || !tier.isCompiled() || cx.debugger != null
+            || cx.getOptimizationLevel() < 0)
+        {
+            return null;
+        }
+        TieredCompiler.CompiledFunction f = tieredFunction;
+        if (f == null || !tier.isCurrent(f)) {
+            f = tier.createFunction(cx, getParentScope());
+            tieredFunction = f;
+        }
+        return f;
+    }
+
     public Object exec(Context cx, Scriptable scope)
     {
         if (!isScript()) {
@@ -231,5 +260,11 @@ final class InterpretedFunction extends NativeFunction implements Script
     {
         return idata.argIsConst[index];
     }
+
+    @Override
+    protected boolean getParamOrVarInRegister(int index)
+    {
+        return idata.argInRegister != null && idata.argInRegister[index];
+    }
 }
 
@@ -48,6 +48,7 @@ package org.mozilla.javascript;
 
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -62,6 +63,9 @@ public final class Interpreter extends Icode implements Evaluator
     CompilerEnvirons compilerEnv;
     InterpreterData itsData;
 
+    // Source for tiered compilation of functions, or null
+    TieredCompiler.Source tieredSource;
+
     static final int EXCEPTION_TRY_START_SLOT  = 0;
     static final int EXCEPTION_TRY_END_SLOT    = 1;
     static final int EXCEPTION_HANDLER_SLOT    = 2;
@@ -72,6 +76,10 @@ public final class Interpreter extends Icode implements Evaluator
     //            exception local and scope local
     static final int EXCEPTION_SLOT_SIZE       = 6;
 
+    // Limits on released call frames kept per Context for reuse
+    private static final int MAX_POOLED_FRAMES = 64;
+    private static final int MAX_POOLED_FRAME_ARRAY = 256;
+
     /**
      * Class to hold data corresponding to one interpreted call stack frame.
      */
@@ -84,6 +92,9 @@ public final class Interpreter extends Icode implements Evaluator
         int frameIndex;
         // If true indicates read-only frame that is a part of continuation
         boolean frozen;
+        // If true the frame is referenced from a generator or from captured
+        // exception stack info and must not be reused for other calls
+        boolean pinned;
 
         InterpretedFunction fnOrScript;
         InterpreterData idata;
@@ -199,6 +210,8 @@ public final class Interpreter extends Icode implements Evaluator
     }
 
     private static CallFrame captureFrameForGenerator(CallFrame frame) {
+      // the generator frame keeps variables of this frame
+      frame.pinned = true;
       frame.frozen = true;
       CallFrame result = frame.cloneFrozen();
       frame.frozen = false;
@@ -232,6 +245,7 @@ public final class Interpreter extends Icode implements Evaluator
     {
         this.compilerEnv = compilerEnv;
         CodeGenerator cgen = new CodeGenerator();
+        cgen.tieredSource = tieredSource;
         itsData = cgen.compile(compilerEnv, tree, encodedSource, returnFunction);
         return itsData;
     }
@@ -275,6 +289,66 @@ public final class Interpreter extends Icode implements Evaluator
                | ((iCode[pc + 2] & 0xFF) << 8) | (iCode[pc + 3] & 0xFF);
     }
 
+    // The property access helpers are kept out of interpretLoop so the loop
+    // stays below the size HotSpot compiles, see InterpreterSizeTest. For
+    // the _CACHED ops frame.pc points to the cache index, which is skipped
+    // once the access succeeds.
+
+    private static Object getObjectProp(Context cx, CallFrame frame, int op,
+                                        Object obj, String name)
+    {
+        if (op != Icode_GETPROP_CACHED && op != Icode_GETVAR1_PROP_CACHED) {
+            return ScriptRuntime.getObjectProp(obj, name, cx, frame.scope);
+        }
+        Object result = getPropertyCache(frame).getObjectProp(obj, name, cx,
+                                                              frame.scope);
+        frame.pc += 2;
+        return result;
+    }
+
+    private static Object setObjectProp(Context cx, CallFrame frame, int op,
+                                        Object obj, String name, Object value)
+    {
+        if (op != Icode_SETPROP_CACHED) {
+            return ScriptRuntime.setObjectProp(obj, name, value, cx);
+        }
+        Object result = getPropertyCache(frame).setObjectProp(obj, name,
+                                                              value, cx);
+        frame.pc += 2;
+        return result;
+    }
+
+    private static Object getPropFunctionAndThis(Context cx, CallFrame frame,
+                                                 int op, Object obj,
+                                                 String name)
+    {
+        if (op != Icode_PROP_AND_THIS_CACHED) {
+            return ScriptRuntime.getPropFunctionAndThis(obj, name, cx,
+                                                        frame.scope);
+        }
+        Object result = getPropertyCache(frame).getPropFunctionAndThis(obj,
+                            name, cx, frame.scope);
+        frame.pc += 2;
+        return result;
+    }
+
+    private static PropertyCache getPropertyCache(CallFrame frame)
+    {
+        InterpreterData idata = frame.idata;
+        int index = getIndex(idata.itsICode, frame.pc);
+        PropertyCache[] caches = idata.itsPropertyCaches;
+        if (caches == null) {
+            caches = new PropertyCache[idata.itsPropertyCacheCount];
+            idata.itsPropertyCaches = caches;
+        }
+        PropertyCache cache = caches[index];
+        if (cache == null) {
+            cache = new PropertyCache();
+            caches[index] = cache;
+        }
+        return cache;
+    }
+
     private static int getExceptionHandler(CallFrame frame,
                                            boolean onlyFinally)
     {
@@ -352,6 +426,14 @@ public final class Interpreter extends Icode implements Evaluator
               case Token.IFEQ :
               case Token.IFNE :
               case Icode_IFEQ_POP :
+              case Icode_IFEQ_LT :
+              case Icode_IFEQ_LE :
+              case Icode_IFEQ_GT :
+              case Icode_IFEQ_GE :
+              case Icode_IFNE_LT :
+              case Icode_IFNE_LE :
+              case Icode_IFNE_GT :
+              case Icode_IFNE_GE :
               case Icode_LEAVEDQ : {
                 int newPC = pc + getShort(iCode, pc) - 1;
                 out.println(tname + " " + newPC);
@@ -418,6 +500,14 @@ public final class Interpreter extends Icode implements Evaluator
                 pc += 2;
                 break;
               }
+              case Icode_GETPROP_CACHED :
+              case Icode_SETPROP_CACHED :
+              case Icode_PROP_AND_THIS_CACHED : {
+                int cacheIndex = getIndex(iCode, pc);
+                out.println(tname + " " + cacheIndex);
+                pc += 2;
+                break;
+              }
               case Icode_INTNUMBER : {
                 int value = getInt(iCode, pc);
                 out.println(tname + " " + value);
@@ -502,6 +592,18 @@ public final class Interpreter extends Icode implements Evaluator
                 out.println(tname+" "+indexReg);
                 ++pc;
                 break;
+              case Icode_GETVAR1_PROP :
+                indexReg = iCode[pc];
+                out.println(tname + " " + indexReg);
+                ++pc;
+                break;
+              case Icode_GETVAR1_PROP_CACHED : {
+                indexReg = iCode[pc];
+                int cacheIndex = getIndex(iCode, pc + 1);
+                out.println(tname + " " + indexReg + " " + cacheIndex);
+                pc += 3;
+                break;
+              }
             }
             if (old_pc + icodeLength != pc) Kit.codeBug();
         }
@@ -544,6 +646,14 @@ public final class Interpreter extends Icode implements Evaluator
             case Token.IFEQ :
             case Token.IFNE :
             case Icode_IFEQ_POP :
+            case Icode_IFEQ_LT :
+            case Icode_IFEQ_LE :
+            case Icode_IFEQ_GT :
+            case Icode_IFEQ_GE :
+            case Icode_IFNE_LT :
+            case Icode_IFNE_LE :
+            case Icode_IFNE_GT :
+            case Icode_IFNE_GE :
             case Icode_LEAVEDQ :
                 // target pc offset
                 return 1 + 2;
@@ -570,6 +680,12 @@ public final class Interpreter extends Icode implements Evaluator
                 // short number
                 return 1 + 2;
 
+            case Icode_GETPROP_CACHED :
+            case Icode_SETPROP_CACHED :
+            case Icode_PROP_AND_THIS_CACHED :
+                // property cache index
+                return 1 + 2;
+
             case Icode_INTNUMBER :
                 // int number
                 return 1 + 4;
@@ -604,6 +720,15 @@ public final class Interpreter extends Icode implements Evaluator
                 // byte var index
                 return 1 + 1;
 
+            case Icode_GETVAR1_PROP:
+                // byte var index
+                return 1 + 1;
+
+            case Icode_GETVAR1_PROP_CACHED:
+                // byte var index
+                // property cache index
+                return 1 + 1 + 2;
+
             case Icode_LINE :
                 // line number
                 return 1 + 2;
@@ -678,6 +803,7 @@ public final class Interpreter extends Icode implements Evaluator
             while (frame != null) {
                 --linePCIndex;
                 linePC[linePCIndex] = frame.pcSourceLineStart;
+                frame.pinned = true;
                 frame = frame.parentFrame;
             }
         }
@@ -1058,62 +1184,11 @@ switch (op) {
     case Token.GE :
     case Token.LE :
     case Token.GT :
-    case Token.LT : {
+    case Token.LT :
         --stackTop;
-        Object rhs = stack[stackTop + 1];
-        Object lhs = stack[stackTop];
-        boolean valBln;
-      object_compare:
-        {
-          number_compare:
-            {
-                double rDbl, lDbl;
-                if (rhs == DBL_MRK) {
-                    rDbl = sDbl[stackTop + 1];
-                    lDbl = stack_double(frame, stackTop);
-                } else if (lhs == DBL_MRK) {
-                    rDbl = ScriptRuntime.toNumber(rhs);
-                    lDbl = sDbl[stackTop];
-                } else {
-                    break number_compare;
-                }
-                switch (op) {
-                  case Token.GE:
-                    valBln = (lDbl >= rDbl);
-                    break object_compare;
-                  case Token.LE:
-                    valBln = (lDbl <= rDbl);
-                    break object_compare;
-                  case Token.GT:
-                    valBln = (lDbl > rDbl);
-                    break object_compare;
-                  case Token.LT:
-                    valBln = (lDbl < rDbl);
-                    break object_compare;
-                  default:
-                    throw Kit.codeBug();
-                }
-            }
-            switch (op) {
-              case Token.GE:
-                valBln = ScriptRuntime.cmp_LE(rhs, lhs);
-                break;
-              case Token.LE:
-                valBln = ScriptRuntime.cmp_LE(lhs, rhs);
-                break;
-              case Token.GT:
-                valBln = ScriptRuntime.cmp_LT(rhs, lhs);
-                break;
-              case Token.LT:
-                valBln = ScriptRuntime.cmp_LT(lhs, rhs);
-                break;
-              default:
-                throw Kit.codeBug();
-            }
-        }
-        stack[stackTop] = ScriptRuntime.wrapBoolean(valBln);
+        stack[stackTop] = ScriptRuntime.wrapBoolean(
+                              doCompare(frame, op, stack, sDbl, stackTop));
         continue Loop;
-    }
     case Token.IN :
     case Token.INSTANCEOF : {
         Object rhs = stack[stackTop];
@@ -1180,6 +1255,20 @@ switch (op) {
         }
         stack[stackTop--] = null;
         break jumplessRun;
+    case Icode_IFEQ_LT :
+    case Icode_IFEQ_LE :
+    case Icode_IFEQ_GT :
+    case Icode_IFEQ_GE :
+    case Icode_IFNE_LT :
+    case Icode_IFNE_LE :
+    case Icode_IFNE_GT :
+    case Icode_IFNE_GE :
+        stackTop -= 2;
+        if (!doCompareJump(frame, op, stack, sDbl, stackTop + 1)) {
+            frame.pc += 2;
+            continue Loop;
+        }
+        break jumplessRun;
     case Token.GOTO :
         break jumplessRun;
     case Icode_GOSUB :
@@ -1313,7 +1402,11 @@ switch (op) {
     }
     case Token.ADD :
         --stackTop;
-        do_add(stack, sDbl, stackTop, cx);
+        if (stack[stackTop] == DBL_MRK && stack[stackTop + 1] == DBL_MRK) {
+            sDbl[stackTop] += sDbl[stackTop + 1];
+        } else {
+            do_add(stack, sDbl, stackTop, cx);
+        }
         continue Loop;
     case Token.SUB :
     case Token.MUL :
@@ -1379,20 +1472,21 @@ switch (op) {
         stack[stackTop] = ScriptRuntime.getObjectPropNoWarn(lhs, stringReg, cx);
         continue Loop;
     }
-    case Token.GETPROP : {
+    case Token.GETPROP :
+    case Icode_GETPROP_CACHED : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg, cx, frame.scope);
+        stack[stackTop] = getObjectProp(cx, frame, op, lhs, stringReg);
         continue Loop;
     }
-    case Token.SETPROP : {
+    case Token.SETPROP :
+    case Icode_SETPROP_CACHED : {
         Object rhs = stack[stackTop];
         if (rhs == DBL_MRK) rhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         --stackTop;
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
-                                                      cx);
+        stack[stackTop] = setObjectProp(cx, frame, op, lhs, stringReg, rhs);
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -1403,44 +1497,14 @@ switch (op) {
         ++frame.pc;
         continue Loop;
     }
-    case Token.GETELEM : {
+    case Token.GETELEM :
         --stackTop;
-        Object lhs = stack[stackTop];
-        if (lhs == DBL_MRK) {
-            lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        }
-        Object value;
-        Object id = stack[stackTop + 1];
-        if (id != DBL_MRK) {
-            value = ScriptRuntime.getObjectElem(lhs, id, cx, frame.scope);
-        } else {
-            double d = sDbl[stackTop + 1];
-            value = ScriptRuntime.getObjectIndex(lhs, d, cx);
-        }
-        stack[stackTop] = value;
+        doGetElem(cx, frame, stack, sDbl, stackTop);
         continue Loop;
-    }
-    case Token.SETELEM : {
+    case Token.SETELEM :
         stackTop -= 2;
-        Object rhs = stack[stackTop + 2];
-        if (rhs == DBL_MRK) {
-            rhs = ScriptRuntime.wrapNumber(sDbl[stackTop + 2]);
-        }
-        Object lhs = stack[stackTop];
-        if (lhs == DBL_MRK) {
-            lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        }
-        Object value;
-        Object id = stack[stackTop + 1];
-        if (id != DBL_MRK) {
-            value = ScriptRuntime.setObjectElem(lhs, id, rhs, cx);
-        } else {
-            double d = sDbl[stackTop + 1];
-            value = ScriptRuntime.setObjectIndex(lhs, d, rhs, cx);
-        }
-        stack[stackTop] = value;
+        doSetElem(cx, stack, sDbl, stackTop);
         continue Loop;
-    }
     case Icode_ELEM_INC_DEC: {
         Object rhs = stack[stackTop];
         if (rhs == DBL_MRK) rhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
@@ -1494,12 +1558,13 @@ switch (op) {
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
-    case Icode_PROP_AND_THIS: {
+    case Icode_PROP_AND_THIS:
+    case Icode_PROP_AND_THIS_CACHED: {
         Object obj = stack[stackTop];
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
-        stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
-                                                               cx, frame.scope);
+        stack[stackTop] = getPropFunctionAndThis(cx, frame, op, obj,
+                                                 stringReg);
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -1581,14 +1646,16 @@ switch (op) {
             continue Loop;
         }
         Scriptable calleeScope = frame.scope;
-        if (frame.useActivation) {
+        if (frame.useActivation || frame.idata.itsNeedsActivation) {
             calleeScope = ScriptableObject.getTopLevelScope(frame.scope);
         }
         if (fun instanceof InterpretedFunction) {
             InterpretedFunction ifun = (InterpretedFunction)fun;
-            if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+            if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                && ifun.getTieredFunction(cx) == null)
+            {
                 CallFrame callParentFrame = frame;
-                CallFrame calleeFrame = new CallFrame();
+                CallFrame calleeFrame = newCallFrame(cx);
                 if (op == Icode_TAIL_CALL) {
                     // In principle tail call can re-use the current
                     // frame and its stack arrays but it is hard to
@@ -1654,7 +1721,9 @@ switch (op) {
                 Callable applyCallable = ScriptRuntime.getCallable(funThisObj);
                 if (applyCallable instanceof InterpretedFunction) {
                     InterpretedFunction iApplyCallable = (InterpretedFunction)applyCallable;
-                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain) {
+                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain
+                        && iApplyCallable.getTieredFunction(cx) == null)
+                    {
                         frame = initFrameForApplyOrCall(cx, frame, indexReg,
                                 stack, sDbl, stackTop, op, calleeScope, ifun,
                                 iApplyCallable);
@@ -1702,9 +1771,11 @@ switch (op) {
         Object lhs = stack[stackTop];
         if (lhs instanceof InterpretedFunction) {
             InterpretedFunction f = (InterpretedFunction)lhs;
-            if (frame.fnOrScript.securityDomain == f.securityDomain) {
+            if (frame.fnOrScript.securityDomain == f.securityDomain
+                && f.getTieredFunction(cx) == null)
+            {
                 Scriptable newInstance = f.createObject(cx, frame.scope);
-                CallFrame calleeFrame = new CallFrame();
+                CallFrame calleeFrame = newCallFrame(cx);
                 initFrame(cx, frame.scope, newInstance, stack, sDbl,
                           stackTop + 1, indexReg, f, frame,
                           calleeFrame);
@@ -1767,6 +1838,20 @@ switch (op) {
     case Token.NAME :
         stack[++stackTop] = ScriptRuntime.name(cx, frame.scope, stringReg);
         continue Loop;
+    case Icode_OUTERVAR :
+        // stringReg: name, indexReg: depth << 16 | index
+        stack[++stackTop] = accessOuterVar(cx, frame, stackTop, op,
+                                           stringReg, indexReg);
+        continue Loop;
+    case Icode_SETOUTERVAR :
+        stack[stackTop] = accessOuterVar(cx, frame, stackTop, op,
+                                         stringReg, indexReg);
+        continue Loop;
+    case Icode_OUTERVAR_AND_THIS :
+        stack[++stackTop] = accessOuterVar(cx, frame, stackTop, op,
+                                           stringReg, indexReg);
+        stack[++stackTop] = ScriptRuntime.lastStoredScriptable(cx);
+        continue Loop;
     case Icode_NAME_INC_DEC :
         stack[++stackTop] = ScriptRuntime.nameIncrDecr(frame.scope, stringReg,
                                                        cx, iCode[frame.pc]);
@@ -1828,6 +1913,20 @@ switch (op) {
             stack[stackTop] = frame.scope.get(stringReg, frame.scope);
         }
         continue Loop;
+    case Icode_GETVAR1_PROP :
+    case Icode_GETVAR1_PROP_CACHED : {
+        // stringReg : property name
+        indexReg = iCode[frame.pc++];
+        Object lhs;
+        if (!frame.useActivation) {
+            lhs = vars[indexReg];
+            if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(varDbls[indexReg]);
+        } else {
+            lhs = frame.scope.get(frame.idata.argNames[indexReg], frame.scope);
+        }
+        stack[++stackTop] = getObjectProp(cx, frame, op, lhs, stringReg);
+        continue Loop;
+    }
     case Icode_VAR_INC_DEC : {
         // indexReg : varindex
         ++stackTop;
@@ -2187,6 +2286,12 @@ switch (op) {
                     if (offset != 0) {
                         // -1 accounts for pc pointing to jump opcode + 1
                         frame.pc += offset - 1;
+                        if (offset < 0
+                            && frame.idata.itsTieredCompiler != null)
+                        {
+                            frame.idata.itsTieredCompiler.countBackEdge(
+                                frame.idata);
+                        }
                     } else {
                         frame.pc = frame.idata.longJumps.
                                        getExistingInt(frame.pc);
@@ -2202,10 +2307,13 @@ switch (op) {
                 interpreterResult = frame.result;
                 interpreterResultDbl = frame.resultDbl;
                 if (frame.parentFrame != null) {
+                    CallFrame exitedFrame = frame;
                     frame = frame.parentFrame;
                     if (frame.frozen) {
                         frame = frame.cloneFrozen();
                     }
+                    cx.lastInterpreterFrame = frame;
+                    releaseFrame(cx, exitedFrame);
                     setCallResult(
                         frame, interpreterResult, interpreterResultDbl);
                     interpreterResult = null; // Help GC
@@ -2397,7 +2505,7 @@ switch (op) {
         
         // exactly the same as if it's a regular InterpretedFunction
         CallFrame callParentFrame = frame;
-        CallFrame calleeFrame = new CallFrame();
+        CallFrame calleeFrame = newCallFrame(cx);
         if (op == Icode_TAIL_CALL) {
             callParentFrame = frame.parentFrame;
             exitFrame(cx, frame, null);
@@ -2611,7 +2719,7 @@ switch (op) {
             frame.savedStackTop = stackTop;
             frame.savedCallOp = op;
         }
-        CallFrame calleeFrame = new CallFrame();
+        CallFrame calleeFrame = newCallFrame(cx);
         if(BaseFunction.isApply(ifun)) {
             Object[] callArgs = indexReg < 2 ? ScriptRuntime.emptyArgs :
                 ScriptRuntime.getApplyArguments(cx, stack[stackTop + 3]);
@@ -2642,7 +2750,10 @@ switch (op) {
     {
         InterpreterData idata = fnOrScript.idata;
 
-        boolean useActivation = idata.itsNeedsActivation;
+        // Variables are only accessed through the activation if it holds
+        // all of them
+        boolean useActivation = idata.itsNeedsActivation
+                                && idata.argInRegister == null;
         DebugFrame debuggerFrame = null;
         if (cx.debugger != null) {
             debuggerFrame = cx.debugger.getFrame(cx, idata);
@@ -2651,7 +2762,7 @@ switch (op) {
             }
         }
 
-        if (useActivation) {
+        if (useActivation || idata.itsNeedsActivation) {
             // Copy args to new array to pass to enterActivationFunction
             // or debuggerFrame.onEnter
             if (argsDbl != null) {
@@ -2670,6 +2781,9 @@ switch (op) {
             }
 
             if (useActivation) {
+                // A debugger needs the activation to hold all variables
+                scope = new NativeCall(fnOrScript, scope, args, true);
+            } else if (idata.itsNeedsActivation) {
                 scope = ScriptRuntime.createFunctionActivation(
                             fnOrScript, scope, args);
             }
@@ -2729,8 +2843,11 @@ switch (op) {
 
         int varCount = idata.getParamAndVarCount();
         for (int i = 0; i < varCount; i++) {
-            if (idata.getParamOrVarConst(i))
+            if (idata.getParamOrVarConst(i)) {
                 stackAttributes[i] = ScriptableObject.CONST;
+            } else if (stackReuse) {
+                stackAttributes[i] = ScriptableObject.EMPTY;
+            }
         }
         int definedArgs = idata.argCount;
         if (definedArgs > argCount) { definedArgs = argCount; }
@@ -2745,6 +2862,7 @@ switch (op) {
             throw Context.reportRuntimeError("Exceeded maximum stack depth");
         }
         frame.frozen = false;
+        frame.pinned = false;
 
         frame.fnOrScript = fnOrScript;
         frame.idata = idata;
@@ -2788,9 +2906,61 @@ switch (op) {
             }
         }
 
+        if (idata.itsTieredCompiler != null) {
+            idata.itsTieredCompiler.countInvocation(idata, stack,
+                                                    idata.argCount);
+        }
+
         enterFrame(cx, frame, args, false);
     }
 
+    /**
+     * Get a frame for an interpreted call, reusing a frame released by
+     * an earlier call on this Context if any. Reused frames keep their
+     * stack arrays so steady recursion does not allocate.
+     */
+    private static CallFrame newCallFrame(Context cx)
+    {
+        CallFrame frame = (CallFrame)cx.interpreterFramePool;
+        if (frame == null) {
+            return new CallFrame();
+        }
+        cx.interpreterFramePool = frame.parentFrame;
+        --cx.interpreterFramePoolSize;
+        frame.parentFrame = null;
+        return frame;
+    }
+
+    /**
+     * Return the frame of a finished call to the pool of the Context.
+     * Frames that are part of a continuation, a generator or exception
+     * stack info can still be reached and are left to GC.
+     */
+    private static void releaseFrame(Context cx, CallFrame frame)
+    {
+        if (frame.frozen || frame.pinned || frame.stack == null
+            || frame.stack.length > MAX_POOLED_FRAME_ARRAY
+            || cx.interpreterFramePoolSize >= MAX_POOLED_FRAMES)
+        {
+            return;
+        }
+        // Allow to GC everything the call referred to: the caller has
+        // already replaced this frame as cx.lastInterpreterFrame
+        Arrays.fill(frame.stack, null);
+        frame.fnOrScript = null;
+        frame.idata = null;
+        frame.varSource = null;
+        frame.debuggerFrame = null;
+        frame.thisObj = null;
+        frame.scriptRegExps = null;
+        frame.result = null;
+        frame.scope = null;
+        frame.throwable = null;
+        frame.parentFrame = (CallFrame)cx.interpreterFramePool;
+        cx.interpreterFramePool = frame;
+        ++cx.interpreterFramePoolSize;
+    }
+
     private static boolean isFrameEnterExitRequired(CallFrame frame)
     {
         return frame.debuggerFrame != null || frame.idata.itsNeedsActivation;
@@ -2979,6 +3149,112 @@ switch (op) {
         }
     }
 
+    /**
+     * Evaluate the relational operator <tt>op</tt> (one of Token.GE,
+     * Token.LE, Token.GT or Token.LT) for the operands at <tt>i</tt> and
+     * <tt>i + 1</tt>.
+     */
+    private static boolean doCompare(CallFrame frame, int op,
+                                     Object[] stack, double[] sDbl, int i)
+    {
+        Object rhs = stack[i + 1];
+        Object lhs = stack[i];
+        double rDbl, lDbl;
+        if (rhs == UniqueTag.DOUBLE_MARK) {
+            rDbl = sDbl[i + 1];
+            lDbl = stack_double(frame, i);
+        } else if (lhs == UniqueTag.DOUBLE_MARK) {
+            rDbl = ScriptRuntime.toNumber(rhs);
+            lDbl = sDbl[i];
+        } else {
+            switch (op) {
+              case Token.GE:
+                return ScriptRuntime.cmp_LE(rhs, lhs);
+              case Token.LE:
+                return ScriptRuntime.cmp_LE(lhs, rhs);
+              case Token.GT:
+                return ScriptRuntime.cmp_LT(rhs, lhs);
+              case Token.LT:
+                return ScriptRuntime.cmp_LT(lhs, rhs);
+              default:
+                throw Kit.codeBug();
+            }
+        }
+        switch (op) {
+          case Token.GE:
+            return lDbl >= rDbl;
+          case Token.LE:
+            return lDbl <= rDbl;
+          case Token.GT:
+            return lDbl > rDbl;
+          case Token.LT:
+            return lDbl < rDbl;
+          default:
+            throw Kit.codeBug();
+        }
+    }
+
+    /**
+     * Return true if the fused compare-and-branch <tt>op</tt> should jump
+     * for the operands at <tt>i</tt> and <tt>i + 1</tt>. Note that
+     * Icode_IFNE_LT is not Icode_IFEQ_GE as NaN compares false both ways.
+     */
+    private static boolean doCompareJump(CallFrame frame, int op,
+                                         Object[] stack, double[] sDbl, int i)
+    {
+        switch (op) {
+          case Icode_IFEQ_LT:
+            return doCompare(frame, Token.LT, stack, sDbl, i);
+          case Icode_IFEQ_LE:
+            return doCompare(frame, Token.LE, stack, sDbl, i);
+          case Icode_IFEQ_GT:
+            return doCompare(frame, Token.GT, stack, sDbl, i);
+          case Icode_IFEQ_GE:
+            return doCompare(frame, Token.GE, stack, sDbl, i);
+          case Icode_IFNE_LT:
+            return !doCompare(frame, Token.LT, stack, sDbl, i);
+          case Icode_IFNE_LE:
+            return !doCompare(frame, Token.LE, stack, sDbl, i);
+          case Icode_IFNE_GT:
+            return !doCompare(frame, Token.GT, stack, sDbl, i);
+          case Icode_IFNE_GE:
+            return !doCompare(frame, Token.GE, stack, sDbl, i);
+          default:
+            throw Kit.codeBug();
+        }
+    }
+
+    /**
+     * Get, set or get for a call a variable of an enclosing function that
+     * the compiler resolved to a depth and an index.
+     */
+    private static Object accessOuterVar(Context cx, CallFrame frame,
+                                         int stackTop, int op, String name,
+                                         int depthAndIndex)
+    {
+        int depth = depthAndIndex >>> 16;
+        int index = depthAndIndex & 0xFFFF;
+        if (frame.useActivation && !frame.idata.itsNeedsActivation) {
+            // The debugger asked for an activation the compiler did not
+            // count
+            ++depth;
+        }
+        if (op == Icode_OUTERVAR) {
+            return ScriptRuntime.getOuterVar(frame.scope, depth, index, name,
+                                             cx);
+        } else if (op == Icode_SETOUTERVAR) {
+            Object value = frame.stack[stackTop];
+            if (value == UniqueTag.DOUBLE_MARK) {
+                value = ScriptRuntime.wrapNumber(frame.sDbl[stackTop]);
+            }
+            return ScriptRuntime.setOuterVar(value, frame.scope, depth, index,
+                                             name, cx);
+        } else {
+            return ScriptRuntime.getOuterVarFunctionAndThis(frame.scope, depth,
+                                                            index, name, cx);
+        }
+    }
+
     private static boolean stack_boolean(CallFrame frame, int i)
     {
         Object x = frame.stack[i];
@@ -3001,6 +3277,74 @@ switch (op) {
         }
     }
 
+    private static void doGetElem(Context cx, CallFrame frame,
+                                  Object[] stack, double[] sDbl, int stackTop)
+    {
+        Object lhs = stack[stackTop];
+        if (lhs == UniqueTag.DOUBLE_MARK) {
+            lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
+        }
+        Object value;
+        Object id = stack[stackTop + 1];
+        if (id != UniqueTag.DOUBLE_MARK) {
+            value = ScriptRuntime.getObjectElem(lhs, id, cx, frame.scope);
+        } else {
+            double d = sDbl[stackTop + 1];
+            if (lhs != null && lhs.getClass() == NativeArray.class) {
+                // Read number elements without boxing them
+                int index = (int)d;
+                if (index == d) {
+                    double element =
+                        ((NativeArray)lhs).getDenseDouble(index);
+                    if (!NativeArray.isHole(element)) {
+                        stack[stackTop] = UniqueTag.DOUBLE_MARK;
+                        sDbl[stackTop] = element;
+                        return;
+                    }
+                }
+            }
+            value = ScriptRuntime.getObjectIndex(lhs, d, cx);
+        }
+        stack[stackTop] = value;
+    }
+
+    private static void doSetElem(Context cx, Object[] stack, double[] sDbl,
+                                  int stackTop)
+    {
+        Object rhs = stack[stackTop + 2];
+        Object lhs = stack[stackTop];
+        if (lhs == UniqueTag.DOUBLE_MARK) {
+            lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
+        }
+        Object id = stack[stackTop + 1];
+        if (rhs == UniqueTag.DOUBLE_MARK) {
+            double value = sDbl[stackTop + 2];
+            if (id == UniqueTag.DOUBLE_MARK && lhs != null
+                && lhs.getClass() == NativeArray.class)
+            {
+                // Store number elements without boxing them
+                double d = sDbl[stackTop + 1];
+                int index = (int)d;
+                if (index == d
+                    && ((NativeArray)lhs).putDenseDouble(index, value))
+                {
+                    stack[stackTop] = UniqueTag.DOUBLE_MARK;
+                    sDbl[stackTop] = value;
+                    return;
+                }
+            }
+            rhs = ScriptRuntime.wrapNumber(value);
+        }
+        Object value;
+        if (id != UniqueTag.DOUBLE_MARK) {
+            value = ScriptRuntime.setObjectElem(lhs, id, rhs, cx);
+        } else {
+            double d = sDbl[stackTop + 1];
+            value = ScriptRuntime.setObjectIndex(lhs, d, rhs, cx);
+        }
+        stack[stackTop] = value;
+    }
+
     private static void do_add(Object[] stack, double[] sDbl, int stackTop,
                               Context cx)
     {
@@ -3024,14 +3368,11 @@ switch (op) {
         } else {
             if (lhs instanceof Scriptable || rhs instanceof Scriptable) {
                 stack[stackTop] = ScriptRuntime.add(lhs, rhs, cx);
-            } else if (lhs instanceof String) {
-                String lstr = (String)lhs;
-                String rstr = ScriptRuntime.toString(rhs);
-                stack[stackTop] = lstr.concat(rstr);
-            } else if (rhs instanceof String) {
-                String lstr = ScriptRuntime.toString(lhs);
-                String rstr = (String)rhs;
-                stack[stackTop] = lstr.concat(rstr);
+            } else if (lhs instanceof CharSequence
+                       || rhs instanceof CharSequence) {
+                CharSequence lstr = ScriptRuntime.toCharSequence(lhs);
+                CharSequence rstr = ScriptRuntime.toCharSequence(rhs);
+                stack[stackTop] = ScriptRuntime.concat(lstr, rstr);
             } else {
                 double lDbl = (lhs instanceof Number)
                     ? ((Number)lhs).doubleValue() : ScriptRuntime.toNumber(lhs);
@@ -3052,13 +3393,13 @@ switch (op) {
                 rhs = tmp;
             }
             stack[stackTop] = ScriptRuntime.add(lhs, rhs, cx);
-        } else if (lhs instanceof String) {
-            String lstr = (String)lhs;
-            String rstr = ScriptRuntime.toString(d);
+        } else if (lhs instanceof CharSequence) {
+            CharSequence lstr = (CharSequence)lhs;
+            CharSequence rstr = ScriptRuntime.toString(d);
             if (leftRightOrder) {
-                stack[stackTop] = lstr.concat(rstr);
+                stack[stackTop] = ScriptRuntime.concat(lstr, rstr);
             } else {
-                stack[stackTop] = rstr.concat(lstr);
+                stack[stackTop] = ScriptRuntime.concat(rstr, lstr);
             }
         } else {
             double lDbl = (lhs instanceof Number)
@@ -49,7 +49,6 @@ final class InterpreterData implements Serializable, DebuggableScript
     static final long serialVersionUID = 5067677351589230234L;
 
     static final int INITIAL_MAX_ICODE_LENGTH = 1024;
-    static final int INITIAL_STRINGTABLE_SIZE = 64;
     static final int INITIAL_NUMBERTABLE_SIZE = 64;
 
     InterpreterData(int languageVersion,
@@ -75,7 +74,6 @@ final class InterpreterData implements Serializable, DebuggableScript
     private void init()
     {
         itsICode = new byte[INITIAL_MAX_ICODE_LENGTH];
-        itsStringTable = new String[INITIAL_STRINGTABLE_SIZE];
     }
 
     String itsName;
@@ -100,6 +98,8 @@ final class InterpreterData implements Serializable, DebuggableScript
     // see comments in NativeFuncion for definition of argNames and argCount
     String[] argNames;
     boolean[] argIsConst;
+    // null unless the activation only holds the variables of closures
+    boolean[] argInRegister;
     int argCount;
 
     int itsMaxCalleeArgs;
@@ -124,6 +124,20 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     boolean evalScriptFlag; // true if script corresponds to eval() code
 
+    // Number of property access sites with an inline cache. The caches
+    // themselves are created on first use and are not serialized.
+    int itsPropertyCacheCount;
+    transient PropertyCache[] itsPropertyCaches;
+
+    // Tiered compilation: null if the function is always interpreted.
+    // The counters are not synchronized as they only need to be roughly
+    // right.
+    transient TieredCompiler itsTieredCompiler;
+    int itsInvocationCount;
+    int itsBackEdgeCount;
+    // Bit set of the first 32 parameters that were not always numbers
+    int itsNonNumberParams;
+
     public boolean isTopLevel()
     {
         return topLevel;
@@ -89,8 +89,11 @@ public class NativeArray extends IdScriptableObject
             int intLength = (int) lengthArg;
             if (intLength < DEFAULT_INITIAL_CAPACITY)
                 intLength = DEFAULT_INITIAL_CAPACITY;
-            dense = new Object[intLength];
-            Arrays.fill(dense, Scriptable.NOT_FOUND);
+            // Start with number elements, see denseDoubles
+            denseDoubles = new double[intLength];
+            Arrays.fill(denseDoubles, HOLE);
+        } else {
+            startSparse();
         }
         length = lengthArg;
     }
@@ -343,23 +346,223 @@ public class NativeArray extends IdScriptableObject
     @Override
     public Object get(int index, Scriptable start)
     {
-        if (!denseOnly && isGetterOrSetter(null, index, false))
+        double[] doubles = denseDoubles;
+        if (doubles != null) {
+            if (0 <= index && index < doubles.length) {
+                double d = doubles[index];
+                return isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+            }
+            return super.get(index, start);
+        }
+        if (!denseOnly && sparse == null
+            && isGetterOrSetter(null, index, false))
             return super.get(index, start);
         if (dense != null && 0 <= index && index < dense.length)
             return dense[index];
+        if (sparse != null && 0 <= index) {
+            Object value = sparse.getObject(index);
+            if (value == null && !sparse.has(index))
+                return NOT_FOUND;
+            return value;
+        }
         return super.get(index, start);
     }
 
     @Override
     public boolean has(int index, Scriptable start)
     {
-        if (!denseOnly && isGetterOrSetter(null, index, false))
+        double[] doubles = denseDoubles;
+        if (doubles != null) {
+            if (0 <= index && index < doubles.length)
+                return !isHole(doubles[index]);
+            return super.has(index, start);
+        }
+        if (!denseOnly && sparse == null
+            && isGetterOrSetter(null, index, false))
             return super.has(index, start);
         if (dense != null && 0 <= index && index < dense.length)
             return dense[index] != NOT_FOUND;
+        if (sparse != null && 0 <= index)
+            return sparse.has(index);
         return super.has(index, start);
     }
 
+    /**
+     * Return the element at the given index if the array stores it as a
+     * number, or a value for which {@link #isHole(double)} is true
+     * otherwise. Allows callers that work with unboxed numbers, such as
+     * the interpreter, to read elements without allocating.
+     */
+    final double getDenseDouble(int index)
+    {
+        double[] doubles = denseDoubles;
+        if (doubles != null && 0 <= index && index < doubles.length)
+            return doubles[index];
+        return HOLE;
+    }
+
+    /**
+     * Store a number at the given index if the array keeps its elements
+     * as numbers and the index is within the allocated storage. Must only
+     * be called with <code>start == this</code>.
+     *
+     * @return false if the caller must use {@link #put(int, Scriptable,
+     *         Object)} instead
+     */
+    final boolean putDenseDouble(int index, double value)
+    {
+        double[] doubles = denseDoubles;
+        if (doubles != null && 0 <= index && index < doubles.length
+            && !isSealed())
+        {
+            doubles[index] = toElement(value);
+            if (this.length <= index)
+                this.length = (long)index + 1;
+            return true;
+        }
+        return false;
+    }
+
+    static boolean isHole(double d)
+    {
+        return Double.doubleToRawLongBits(d) == HOLE_BITS;
+    }
+
+    private static double toElement(double d)
+    {
+        // Any NaN is stored as the canonical NaN so no stored number can
+        // look like a hole
+        return d == d ? d : Double.NaN;
+    }
+
+    private static boolean isNumberElement(Object value)
+    {
+        // Only the representations ScriptRuntime uses for numbers, so
+        // reading the element back can not lose precision
+        return value instanceof Double || value instanceof Integer;
+    }
+
+    private static boolean isNumberElements(Object[] values, int from)
+    {
+        for (int i = from; i < values.length; i++) {
+            if (!isNumberElement(values[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Switch from number elements to the general representation. Must be
+     * called before storing a value other than a number and before
+     * <code>denseOnly</code> is cleared.
+     */
+    private void convertToObjectElements()
+    {
+        double[] doubles = denseDoubles;
+        if (doubles == null)
+            return;
+        Object[] objects = new Object[doubles.length];
+        for (int i = 0; i != doubles.length; ++i) {
+            double d = doubles[i];
+            objects[i] = isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+        }
+        dense = objects;
+        denseDoubles = null;
+    }
+
+    /**
+     * Leave dense mode because the elements no longer fit into
+     * <code>dense</code>. Elements beyond <code>dense</code> are then kept in
+     * <code>sparse</code> until the array is filled enough to become dense
+     * again.
+     */
+    private void disableDenseOnly()
+    {
+        convertToObjectElements();
+        if (denseOnly) {
+            denseOnly = false;
+            startSparse();
+        }
+    }
+
+    private void startSparse()
+    {
+        sparse = new UintMap();
+        int denseLength = dense != null ? dense.length : 0;
+        sparseCheckSize = Math.max(MIN_SPARSE_CHECK_SIZE, denseLength / 8);
+    }
+
+    private void putSparse(int index, Object value)
+    {
+        sparse.put(index, value);
+        if (this.length <= index)
+            this.length = (long)index + 1;
+        if (sparse.size() >= sparseCheckSize) {
+            if (!tryDenseOnly()) {
+                // Spread the cost of the checks over the following stores
+                sparseCheckSize = sparse.size() * 2;
+            }
+        }
+    }
+
+    /**
+     * Return to dense mode if at least half of the elements up to the
+     * length are present.
+     */
+    private boolean tryDenseOnly()
+    {
+        long len = length;
+        if (len > MAX_PRE_GROW_SIZE)
+            return false;
+        int denseLength = dense != null ? dense.length : 0;
+        int presentCount = sparse.size();
+        int end = (int)Math.min(len, denseLength);
+        for (int i = 0; i != end; ++i) {
+            if (dense[i] != NOT_FOUND)
+                ++presentCount;
+        }
+        if (presentCount < len / 2)
+            return false;
+        int capacity = Math.max((int)len, DEFAULT_INITIAL_CAPACITY);
+        Object[] newDense;
+        if (capacity <= denseLength) {
+            newDense = dense;
+        } else {
+            newDense = new Object[capacity];
+            if (denseLength != 0)
+                System.arraycopy(dense, 0, newDense, 0, denseLength);
+            Arrays.fill(newDense, denseLength, capacity, NOT_FOUND);
+        }
+        // Truncating the array deletes the elements beyond its length, so
+        // all keys are below capacity
+        int[] keys = sparse.getKeys();
+        for (int i = 0; i != keys.length; ++i) {
+            newDense[keys[i]] = sparse.getObject(keys[i]);
+        }
+        dense = newDense;
+        sparse = null;
+        denseOnly = true;
+        return true;
+    }
+
+    /**
+     * Copy elements of a dense array, boxing numbers if necessary.
+     */
+    private void copyDenseTo(int srcPos, Object[] dest, int destPos,
+                             int count)
+    {
+        double[] doubles = denseDoubles;
+        if (doubles == null) {
+            System.arraycopy(dense, srcPos, dest, destPos, count);
+        } else {
+            for (int i = 0; i != count; ++i) {
+                double d = doubles[srcPos + i];
+                dest[destPos + i] = isHole(d) ? NOT_FOUND
+                                              : ScriptRuntime.wrapNumber(d);
+            }
+        }
+    }
+
     // if id is an array index (ECMA 15.4.0), return the number,
     // otherwise return -1L
     private static long toArrayIndex(String id)
@@ -387,24 +590,37 @@ public class NativeArray extends IdScriptableObject
             long index = toArrayIndex(id);
             if (index >= length) {
                 length = index + 1;
-                denseOnly = false;
+                disableDenseOnly();
             }
         }
     }
 
+    private int denseCapacity()
+    {
+        return denseDoubles != null ? denseDoubles.length : dense.length;
+    }
+
     private boolean ensureCapacity(int capacity)
     {
-        if (capacity > dense.length) {
+        int oldCapacity = denseCapacity();
+        if (capacity > oldCapacity) {
             if (capacity > MAX_PRE_GROW_SIZE) {
-                denseOnly = false;
+                disableDenseOnly();
                 return false;
             }
-            capacity = Math.max(capacity, (int)(dense.length * GROW_FACTOR));
-            Object[] newDense = new Object[capacity];
-            System.arraycopy(dense, 0, newDense, 0, dense.length);
-            Arrays.fill(newDense, dense.length, newDense.length,
-                        Scriptable.NOT_FOUND);
-            dense = newDense;
+            capacity = Math.max(capacity, (int)(oldCapacity * GROW_FACTOR));
+            if (denseDoubles != null) {
+                double[] newDoubles = new double[capacity];
+                System.arraycopy(denseDoubles, 0, newDoubles, 0, oldCapacity);
+                Arrays.fill(newDoubles, oldCapacity, capacity, HOLE);
+                denseDoubles = newDoubles;
+            } else {
+                Object[] newDense = new Object[capacity];
+                System.arraycopy(dense, 0, newDense, 0, oldCapacity);
+                Arrays.fill(newDense, oldCapacity, capacity,
+                            Scriptable.NOT_FOUND);
+                dense = newDense;
+            }
         }
         return true;
     }
@@ -412,8 +628,26 @@ public class NativeArray extends IdScriptableObject
     @Override
     public void put(int index, Scriptable start, Object value)
     {
+        if (denseDoubles != null && start == this) {
+            if (!isNumberElement(value)) {
+                convertToObjectElements();
+            } else if (!isSealed() && 0 <= index) {
+                if (index < denseDoubles.length
+                    || (index < denseDoubles.length * GROW_FACTOR &&
+                        ensureCapacity(index+1)))
+                {
+                    denseDoubles[index] =
+                        toElement(((Number)value).doubleValue());
+                    if (this.length <= index)
+                        this.length = (long)index + 1;
+                    return;
+                }
+            }
+            convertToObjectElements();
+        }
         if (start == this && !isSealed() && dense != null && 0 <= index &&
-            (denseOnly || !isGetterOrSetter(null, index, true)))
+            (denseOnly || sparse != null ||
+             !isGetterOrSetter(null, index, true)))
         {
             if (index < dense.length) {
                 dense[index] = value;
@@ -427,9 +661,13 @@ public class NativeArray extends IdScriptableObject
                 this.length = (long)index + 1;
                 return;
             } else {
-                denseOnly = false;
+                disableDenseOnly();
             }
         }
+        if (start == this && sparse != null && !isSealed() && 0 <= index) {
+            putSparse(index, value);
+            return;
+        }
         super.put(index, start, value);
         if (start == this) {
             // only set the array length if given an array index (ECMA 15.4.0)
@@ -443,10 +681,19 @@ public class NativeArray extends IdScriptableObject
     @Override
     public void delete(int index)
     {
+        if (denseDoubles != null && 0 <= index
+            && index < denseDoubles.length && !isSealed())
+        {
+            denseDoubles[index] = HOLE;
+            return;
+        }
         if (dense != null && 0 <= index && index < dense.length &&
-            !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
+            !isSealed() && (denseOnly || sparse != null ||
+                            !isGetterOrSetter(null, index, true)))
         {
             dense[index] = NOT_FOUND;
+        } else if (sparse != null && 0 <= index && !isSealed()) {
+            sparse.remove(index);
         } else {
             super.delete(index);
         }
@@ -456,8 +703,11 @@ public class NativeArray extends IdScriptableObject
     public Object[] getIds()
     {
         Object[] superIds = super.getIds();
-        if (dense == null) { return superIds; }
-        int N = dense.length;
+        if (sparse != null && !sparse.isEmpty()) {
+            superIds = addSparseIds(superIds);
+        }
+        if (dense == null && denseDoubles == null) { return superIds; }
+        int N = denseCapacity();
         long currentLength = length;
         if (N > currentLength) {
             N = (int)currentLength;
@@ -469,7 +719,9 @@ public class NativeArray extends IdScriptableObject
         int presentCount = 0;
         for (int i = 0; i != N; ++i) {
             // Replace existing elements by their indexes
-            if (dense[i] != NOT_FOUND) {
+            if (denseDoubles != null ? !isHole(denseDoubles[i])
+                                     : dense[i] != NOT_FOUND)
+            {
                 ids[presentCount] = Integer.valueOf(i);
                 ++presentCount;
             }
@@ -484,6 +736,18 @@ public class NativeArray extends IdScriptableObject
         return ids;
     }
 
+    private Object[] addSparseIds(Object[] superIds)
+    {
+        int[] keys = sparse.getKeys();
+        Arrays.sort(keys);
+        Object[] ids = new Object[keys.length + superIds.length];
+        for (int i = 0; i != keys.length; ++i) {
+            ids[i] = Integer.valueOf(keys[i]);
+        }
+        System.arraycopy(superIds, 0, ids, keys.length, superIds.length);
+        return ids;
+    }
+
     @Override
     public Object[] getAllIds()
     {
@@ -543,15 +807,28 @@ public class NativeArray extends IdScriptableObject
     /**
      * Change the value of the internal flag that determines whether all
      * storage is handed by a dense backing array rather than an associative
-     * store.
+     * store. Disabling it moves all elements that are not in the dense
+     * backing array into the associative store, so elements may have
+     * getters and setters; the array then never returns to dense mode.
      * @param denseOnly new value for denseOnly flag
      * @throws IllegalArgumentException if an attempt is made to enable
-     *   denseOnly after it was disabled; NativeArray code is not written
-     *   to handle switching back to a dense representation
+     *   denseOnly after it was disabled; the array returns to a dense
+     *   representation by itself when that is possible
      */
     void setDenseOnly(boolean denseOnly) {
         if (denseOnly && !this.denseOnly)
             throw new IllegalArgumentException();
+        if (!denseOnly) {
+            convertToObjectElements();
+            UintMap elements = sparse;
+            if (elements != null) {
+                sparse = null;
+                int[] keys = elements.getKeys();
+                for (int i = 0; i != keys.length; ++i) {
+                    super.put(keys[i], this, elements.getObject(keys[i]));
+                }
+            }
+        }
         this.denseOnly = denseOnly;
     }
 
@@ -571,7 +848,13 @@ public class NativeArray extends IdScriptableObject
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
-                Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                if (denseDoubles != null) {
+                    Arrays.fill(denseDoubles, (int) longVal,
+                                denseDoubles.length, HOLE);
+                } else {
+                    Arrays.fill(dense, (int) longVal, dense.length,
+                                NOT_FOUND);
+                }
                 length = longVal;
                 return;
             } else if (longVal < MAX_PRE_GROW_SIZE &&
@@ -581,7 +864,7 @@ public class NativeArray extends IdScriptableObject
                 length = longVal;
                 return;
             } else {
-                denseOnly = false;
+                disableDenseOnly();
             }
         }
         if (longVal < length) {
@@ -611,6 +894,18 @@ public class NativeArray extends IdScriptableObject
             }
         }
         length = longVal;
+        if (sparse != null && sparse.isEmpty()) {
+            int denseLength = dense != null ? dense.length : 0;
+            if (longVal <= Math.max(denseLength, DEFAULT_INITIAL_CAPACITY)) {
+                // All elements fit into dense storage again
+                if (dense == null) {
+                    dense = new Object[DEFAULT_INITIAL_CAPACITY];
+                    Arrays.fill(dense, NOT_FOUND);
+                }
+                sparse = null;
+                denseOnly = true;
+            }
+        }
     }
 
     /* Support for generic Array-ish objects.  Most of the Array
@@ -789,6 +1084,19 @@ public class NativeArray extends IdScriptableObject
                            : ScriptRuntime.toString(args[0]);
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseDoubles != null) {
+                double[] doubles = na.denseDoubles;
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    if (i != 0) {
+                        sb.append(separator);
+                    }
+                    if (i < doubles.length && !isHole(doubles[i])) {
+                        sb.append(ScriptRuntime.toString(doubles[i]));
+                    }
+                }
+                return sb.toString();
+            }
             if (na.denseOnly) {
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < length; i++) {
@@ -843,6 +1151,15 @@ public class NativeArray extends IdScriptableObject
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseDoubles != null) {
+                double[] doubles = na.denseDoubles;
+                for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
+                    double temp = doubles[i];
+                    doubles[i] = doubles[j];
+                    doubles[j] = temp;
+                }
+                return thisObj;
+            }
             if (na.denseOnly) {
                 for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
                     Object temp = na.dense[i];
@@ -891,6 +1208,7 @@ public class NativeArray extends IdScriptableObject
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly) {
                 int ilength = (int) length;
+                na.convertToObjectElements();
                 heapsort(cx, scope, na.dense, ilength, compare, cmpBuf);
                 return thisObj;
             }
@@ -1083,6 +1401,17 @@ public class NativeArray extends IdScriptableObject
             if (na.denseOnly &&
                 na.ensureCapacity((int) na.length + args.length))
             {
+                if (na.denseDoubles != null) {
+                    if (!isNumberElements(args, 0)) {
+                        na.convertToObjectElements();
+                    } else {
+                        for (int i = 0; i < args.length; i++) {
+                            na.denseDoubles[(int)na.length++] = toElement(
+                                ((Number)args[i]).doubleValue());
+                        }
+                        return ScriptRuntime.wrapNumber(na.length);
+                    }
+                }
                 for (int i = 0; i < args.length; i++) {
                     na.dense[(int)na.length++] = args[i];
                 }
@@ -1119,6 +1448,11 @@ public class NativeArray extends IdScriptableObject
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
+                if (na.denseDoubles != null) {
+                    double d = na.denseDoubles[(int)na.length];
+                    na.denseDoubles[(int)na.length] = HOLE;
+                    return isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+                }
                 result = na.dense[(int)na.length];
                 na.dense[(int)na.length] = NOT_FOUND;
                 return result;
@@ -1150,6 +1484,13 @@ public class NativeArray extends IdScriptableObject
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
+                if (na.denseDoubles != null) {
+                    double[] doubles = na.denseDoubles;
+                    double d = doubles[0];
+                    System.arraycopy(doubles, 1, doubles, 0, (int)na.length);
+                    doubles[(int)na.length] = HOLE;
+                    return isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+                }
                 Object result = na.dense[0];
                 System.arraycopy(na.dense, 1, na.dense, 0, (int)na.length);
                 na.dense[(int)na.length] = NOT_FOUND;
@@ -1192,6 +1533,21 @@ public class NativeArray extends IdScriptableObject
             if (na.denseOnly &&
                 na.ensureCapacity((int)na.length + args.length))
             {
+                if (na.denseDoubles != null) {
+                    if (!isNumberElements(args, 0)) {
+                        na.convertToObjectElements();
+                    } else {
+                        double[] doubles = na.denseDoubles;
+                        System.arraycopy(doubles, 0, doubles, args.length,
+                                         (int) na.length);
+                        for (int i = 0; i < args.length; i++) {
+                            doubles[i] =
+                                toElement(((Number)args[i]).doubleValue());
+                        }
+                        na.length += args.length;
+                        return ScriptRuntime.wrapNumber(na.length);
+                    }
+                }
                 System.arraycopy(na.dense, 0, na.dense, args.length,
                                  (int) na.length);
                 for (int i = 0; i < args.length; i++) {
@@ -1233,6 +1589,9 @@ public class NativeArray extends IdScriptableObject
         if (thisObj instanceof NativeArray) {
             na = (NativeArray) thisObj;
             denseMode = na.denseOnly;
+            if (denseMode && !isNumberElements(args, 2)) {
+                na.convertToObjectElements();
+            }
         }
 
         /* create an empty Array to return. */
@@ -1286,7 +1645,7 @@ public class NativeArray extends IdScriptableObject
             	if (denseMode) {
                     int intLen = (int) (end - begin);
                     Object[] copy = new Object[intLen];
-                    System.arraycopy(na.dense, (int) begin, copy, 0, intLen);
+                    na.copyDenseTo((int) begin, copy, 0, intLen);
                     result = cx.newArray(scope, copy);
             	} else {
             		Scriptable resultArray = ScriptRuntime.newObject(cx, scope,
@@ -1312,6 +1671,21 @@ public class NativeArray extends IdScriptableObject
         if (denseMode && length + delta < Integer.MAX_VALUE &&
             na.ensureCapacity((int) (length + delta)))
         {
+            if (na.denseDoubles != null) {
+                double[] doubles = na.denseDoubles;
+                System.arraycopy(doubles, (int) end, doubles,
+                                 (int) (begin + argc), (int) (length - end));
+                for (int i = 0; i < argc; i++) {
+                    doubles[(int) begin + i] =
+                        toElement(((Number)args[i + 2]).doubleValue());
+                }
+                if (delta < 0) {
+                    Arrays.fill(doubles, (int) (length + delta), (int) length,
+                                HOLE);
+                }
+                na.length = length + delta;
+                return result;
+            }
             System.arraycopy(na.dense, (int) end, na.dense,
                              (int) (begin + argc), (int) (length - end));
             if (argc > 0) {
@@ -1377,15 +1751,15 @@ public class NativeArray extends IdScriptableObject
                     }
                 }
                 if (canUseDense && denseResult.ensureCapacity(length)) {
-                    System.arraycopy(denseThis.dense, 0, denseResult.dense,
-                                     0, (int) denseThis.length);
+                    denseResult.convertToObjectElements();
+                    denseThis.copyDenseTo(0, denseResult.dense,
+                                          0, (int) denseThis.length);
                     int cursor = (int) denseThis.length;
                     for (int i = 0; i < args.length && canUseDense; i++) {
                         if (args[i] instanceof NativeArray) {
                             NativeArray arg = (NativeArray) args[i];
-                            System.arraycopy(arg.dense, 0,
-                                    denseResult.dense, cursor,
-                                    (int)arg.length);
+                            arg.copyDenseTo(0, denseResult.dense, cursor,
+                                            (int)arg.length);
                             cursor += (int)arg.length;
                         } else {
                             denseResult.dense[cursor++] = args[i];
@@ -1541,6 +1915,29 @@ public class NativeArray extends IdScriptableObject
         }
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
+            if (na.denseDoubles != null) {
+                // Only a number can be strictly equal to a number element,
+                // and holes are never found
+                if (!(compareTo instanceof Number)) {
+                    return NEGATIVE_ONE;
+                }
+                double[] doubles = na.denseDoubles;
+                double d = ((Number)compareTo).doubleValue();
+                if (isLast) {
+                  for (int i=(int)start; i >= 0; i--) {
+                      if (doubles[i] == d) {
+                          return Long.valueOf(i);
+                      }
+                  }
+                } else {
+                  for (int i=(int)start; i < length; i++) {
+                      if (doubles[i] == d) {
+                          return Long.valueOf(i);
+                      }
+                  }
+                }
+                return NEGATIVE_ONE;
+            }
             if (na.denseOnly) {
                 if (isLast) {
                   for (int i=(int)start; i >= 0; i--) {
@@ -1798,11 +2195,42 @@ public class NativeArray extends IdScriptableObject
      */
     private Object[] dense;
 
+    /**
+     * Storage used instead of <code>dense</code> while all elements are
+     * numbers, so they are kept unboxed. Holes are marked with
+     * {@link #HOLE}. Only used while <code>denseOnly</code> is true; the
+     * array switches to <code>dense</code> on the first store of any other
+     * value and never switches back.
+     */
+    private double[] denseDoubles;
+
+    /**
+     * NaN bit pattern that marks a missing element in
+     * <code>denseDoubles</code>. Stored NaN values are always canonical,
+     * see {@link #toElement(double)}.
+     */
+    private static final long HOLE_BITS = 0x7ff8deadbeef0000L;
+    private static final double HOLE = Double.longBitsToDouble(HOLE_BITS);
+
     /**
      * True if all numeric properties are stored in <code>dense</code>.
      */
     private boolean denseOnly;
 
+    /**
+     * Elements at indexes beyond <code>dense</code> while the array is not in
+     * dense mode because its elements did not fit. Null in dense mode and
+     * after elements were moved to the associative store, see
+     * {@link #setDenseOnly(boolean)}.
+     */
+    private UintMap sparse;
+
+    /**
+     * Size of <code>sparse</code> at which to check again whether the array
+     * can return to dense mode.
+     */
+    private int sparseCheckSize;
+
     /**
      * The maximum size of <code>dense</code> that will be allocated initially.
      */
@@ -1818,4 +2246,10 @@ public class NativeArray extends IdScriptableObject
      */
     private static final double GROW_FACTOR = 1.5;
     private static final int MAX_PRE_GROW_SIZE = (int)(Integer.MAX_VALUE / GROW_FACTOR);
+
+    /**
+     * The smallest size of <code>sparse</code> at which to check whether the
+     * array can return to dense mode.
+     */
+    private static final int MIN_SPARSE_CHECK_SIZE = 16;
 }
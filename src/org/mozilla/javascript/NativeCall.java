@@ -62,6 +62,16 @@ public final class NativeCall extends IdScriptableObject
     NativeCall() { }
 
     NativeCall(NativeFunction function, Scriptable scope, Object[] args)
+    {
+        this(function, scope, args, false);
+    }
+
+    /**
+     * Create the activation object. Unless defineAllVars is true,
+     * variables the function keeps in registers are not defined.
+     */
+    NativeCall(NativeFunction function, Scriptable scope, Object[] args,
+               boolean defineAllVars)
     {
         this.function = function;
 
@@ -75,6 +85,9 @@ public final class NativeCall extends IdScriptableObject
         int paramCount = function.getParamCount();
         if (paramAndVarCount != 0) {
             for (int i = 0; i < paramCount; ++i) {
+                if (!defineAllVars && function.getParamOrVarInRegister(i)) {
+                    continue;
+                }
                 String name = function.getParamOrVarName(i);
                 Object val = i < args.length ? args[i]
                                              : Undefined.instance;
@@ -90,6 +103,9 @@ public final class NativeCall extends IdScriptableObject
 
         if (paramAndVarCount != 0) {
             for (int i = paramCount; i < paramAndVarCount; ++i) {
+                if (!defineAllVars && function.getParamOrVarInRegister(i)) {
+                    continue;
+                }
                 String name = function.getParamOrVarName(i);
                 if (!super.has(name, this)) {
                     if (function.getParamOrVarConst(i))
@@ -146,6 +162,29 @@ public final class NativeCall extends IdScriptableObject
         throw new IllegalArgumentException(String.valueOf(id));
     }
 
+    /**
+     * Return the slot holding the parameter or variable with the given
+     * index and name, or null if the activation does not define it.
+     * Slots are looked up on first use and then cached by index.
+     */
+    Slot getVarSlot(int index, String name)
+    {
+        Slot[] slots = varSlots;
+        if (slots == null) {
+            slots = new Slot[function.getParamAndVarCount()];
+            varSlots = slots;
+        }
+        if (index >= slots.length) {
+            return null;
+        }
+        Slot slot = slots[index];
+        if (slot == null || slot.wasDeleted) {
+            slot = getDataSlot(name);
+            slots[index] = slot;
+        }
+        return slot;
+    }
+
     private static final int
         Id_constructor   = 1,
         MAX_PROTOTYPE_ID = 1;
@@ -154,5 +193,9 @@ public final class NativeCall extends IdScriptableObject
     Object[] originalArgs;
 
     transient NativeCall parentActivationCall;
+
+    // Slots of the variables nested functions access by index, see
+    // ScriptRuntime.getOuterVar
+    private transient Slot[] varSlots;
 }
 
@@ -168,5 +168,15 @@ public abstract class NativeFunction extends BaseFunction
         // from earlier Rhino versions. See Bugzilla #396117.
         return false;
     }
+
+    /**
+     * Get whether the parameter or variable is kept in a register instead
+     * of the activation object. Only variables that no nested function
+     * uses are kept in registers when the function needs activation.
+     */
+    protected boolean getParamOrVarInRegister(int index)
+    {
+        return false;
+    }
 }
 
@@ -224,8 +224,8 @@ final class NativeJSON extends IdScriptableObject
             space = Math.min(((Number) space).doubleValue(), 100.0);
             gap = repeat(' ', ((Number) space).intValue());
         }
-        else if (space instanceof String) {
-            gap = (String) space;
+        else if (space instanceof CharSequence) {
+            gap = space.toString();
         }
 
         StringifyState state = new StringifyState(cx, scope,
@@ -275,8 +275,8 @@ final class NativeJSON extends IdScriptableObject
             }
         }
 
-        if (value instanceof String) {
-            return quote((String) value);
+        if (value instanceof CharSequence) {
+            return quote(value.toString());
         }
 
         if (value instanceof Number) {
@@ -149,7 +149,11 @@ public class NativeObject extends IdScriptableObject
             if (args.length == 0 || args[0] == null
                 || args[0] == Undefined.instance)
             {
-                return new NativeObject();
+                NativeObject result = new NativeObject();
+                if (cx.hasFeature(Context.FEATURE_SHAPED_OBJECTS)) {
+                    result.initShapedStorage();
+                }
+                return result;
             }
             return ScriptRuntime.toObject(cx, scope, args[0]);
           }
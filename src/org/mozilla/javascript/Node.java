@@ -97,7 +97,10 @@ public class Node implements Iterable<Node>
         JSDOC_PROP           = 24,
         EXPRESSION_CLOSURE_PROP = 25, // JS 1.8 expression closure pseudo-return 
         DESTRUCTURING_SHORTHAND = 26, // JS 1.8 destructuring shorthand
-        LAST_PROP            = 26;
+        NUMBER_PARAMS_PROP   = 27, // bit set of parameters seen as numbers
+        OUTER_VAR_PROP       = 28, // depth << 16 | index of a variable of
+                                   // an enclosing function
+        LAST_PROP            = 28;
 
     // values of ISNUMBER_PROP to specify
     // which of the children are Number types
@@ -448,6 +451,13 @@ public class Node implements Iterable<Node>
                                            return "destructuring_array_length";
                 case DESTRUCTURING_NAMES:  return "destructuring_names";
                 case DESTRUCTURING_PARAMS: return "destructuring_params";
+                case JSDOC_PROP:           return "jsdoc";
+                case EXPRESSION_CLOSURE_PROP:
+                                           return "expression_closure";
+                case DESTRUCTURING_SHORTHAND:
+                                           return "destructuring_shorthand";
+                case NUMBER_PARAMS_PROP:   return "number_params";
+                case OUTER_VAR_PROP:       return "outer_var";
 
                 default: Kit.codeBug();
             }
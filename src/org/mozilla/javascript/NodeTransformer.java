@@ -46,9 +46,13 @@ import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.Jump;
 import org.mozilla.javascript.ast.Scope;
 import org.mozilla.javascript.ast.ScriptNode;
+import org.mozilla.javascript.ast.Symbol;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class transforms a tree to a lower-level representation for codegen.
@@ -86,6 +90,16 @@ public class NodeTransformer
                                   ((FunctionNode)tree).requiresActivation();
         tree.flattenSymbolTable(!createScopeObjects);
 
+        closureNames = null;
+        if (tree.getType() == Token.FUNCTION
+            && ((FunctionNode)tree).isActivationForClosuresOnly())
+        {
+            markRegisterVariables((FunctionNode)tree);
+        }
+        if (tree.getType() == Token.FUNCTION && tree.getFunctionCount() != 0) {
+            resolveOuterVariables((FunctionNode)tree);
+        }
+
         //uncomment to print tree before transformation
         if (Token.printTrees) System.out.println(tree.toStringTree(tree));
         transformCompilationUnit_r(tree, tree, tree, createScopeObjects);
@@ -337,8 +351,11 @@ public class NodeTransformer
               }
 
               case Token.TYPEOFNAME: {
-                Scope defining = scope.getDefiningScope(node.getString());
-                if (defining != null) {
+                String name = node.getString();
+                Scope defining = scope.getDefiningScope(name);
+                if (defining != null
+                    && isRegisterVariable(tree, defining, name))
+                {
                     node.setScope(defining);
                 }
               }
@@ -379,7 +396,7 @@ public class NodeTransformer
               case Token.DELPROP:
               {
                 // Turn name to var for faster access if possible
-                if (createScopeObjects) {
+                if (createScopeObjects && closureNames == null) {
                     break;
                 }
                 Node nameSource;
@@ -399,7 +416,9 @@ public class NodeTransformer
                 }
                 String name = nameSource.getString();
                 Scope defining = scope.getDefiningScope(name);
-                if (defining != null) {
+                if (defining != null
+                    && isRegisterVariable(tree, defining, name))
+                {
                     nameSource.setScope(defining);
                     if (type == Token.NAME) {
                         node.setType(Token.GETVAR);
@@ -545,6 +564,213 @@ public class NodeTransformer
         return result;
     }
 
+    /**
+     * Find the variables of a function whose activation is only required
+     * by its nested functions that can still be kept in registers.  These
+     * are the ones no nested function refers to by name.
+     */
+    private void markRegisterVariables(FunctionNode fn)
+    {
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i != fn.getFunctionCount(); ++i) {
+            FunctionNode nested = fn.getFunctionNode(i);
+            if (nested.getFunctionType() != FunctionNode.FUNCTION_EXPRESSION) {
+                // Function declarations are stored in the activation
+                names.add(nested.getName());
+            }
+        }
+        if (!collectClosureNames(fn, names)) {
+            return;
+        }
+        int count = fn.getParamAndVarCount();
+        boolean[] inRegister = new boolean[count];
+        boolean any = false;
+        for (int i = 0; i != count; ++i) {
+            if (!names.contains(fn.getParamOrVarName(i))) {
+                inRegister[i] = true;
+                any = true;
+            }
+        }
+        if (any) {
+            fn.setParamAndVarInRegister(inRegister);
+            closureNames = names;
+        }
+    }
+
+    /**
+     * Add to names the names used by the functions nested in fn that they
+     * do not declare themselves. Return false if a nested function calls
+     * eval, which can use any name.
+     */
+    private static boolean collectClosureNames(ScriptNode fn, Set<String> names)
+    {
+        for (int i = 0; i != fn.getFunctionCount(); ++i) {
+            FunctionNode nested = fn.getFunctionNode(i);
+            Set<String> used = new HashSet<String>();
+            if (!collectNames(nested, used)
+                || !collectClosureNames(nested, used))
+            {
+                return false;
+            }
+            Map<String,Symbol> declared = nested.getSymbolTable();
+            for (String name : used) {
+                if (declared == null || !declared.containsKey(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean collectNames(Node node, Set<String> names)
+    {
+        for (Node n = node.getFirstChild(); n != null; n = n.getNext()) {
+            switch (n.getType()) {
+              case Token.NAME:
+              case Token.BINDNAME:
+              case Token.TYPEOFNAME:
+                names.add(n.getString());
+                break;
+              case Token.CALL:
+                if (n.getIntProp(Node.SPECIALCALL_PROP, Node.NON_SPECIALCALL)
+                    == Node.SPECIALCALL_EVAL)
+                {
+                    return false;
+                }
+                break;
+            }
+            if (!collectNames(n, names)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mark the names the functions nested in fn use for the variables of
+     * fn with {@link Node#OUTER_VAR_PROP}, which lets the code generators
+     * access them directly in the activation of fn instead of searching
+     * the scope chain. This must run before the nested functions are
+     * transformed as their block scopes still hold their let variables.
+     * Names are not resolved through functions that can bind names at
+     * runtime or that bind the same name in a catch clause.
+     */
+    private static void resolveOuterVariables(FunctionNode fn)
+    {
+        Set<String> catchNames = new HashSet<String>();
+        if (hasStaticNames(fn, catchNames)) {
+            resolveOuterNames(fn, fn, fn, fn, new ArrayList<Scope>(), 0,
+                              catchNames);
+        }
+    }
+
+    /**
+     * Resolve the names used in node, a part of the body of fn. Scope is
+     * the innermost scope of node in fn, and outer lists the scopes
+     * enclosing fn up to the defining function, innermost first. Depth
+     * is the number of activations the scope chain of fn has before the
+     * one of the defining function.
+     */
+    private static void resolveOuterNames(FunctionNode defining,
+                                          ScriptNode fn, Node node,
+                                          Scope scope, List<Scope> outer,
+                                          int depth, Set<String> catchNames)
+    {
+        for (Node n = node.getFirstChild(); n != null; n = n.getNext()) {
+            int type = n.getType();
+            if (fn != defining
+                && (type == Token.NAME || type == Token.BINDNAME))
+            {
+                String name = n.getString();
+                if (!catchNames.contains(name) && !"arguments".equals(name)
+                    && scope.getDefiningScope(name) == null
+                    && getDefiningScope(outer, name) == defining)
+                {
+                    Symbol symbol = defining.getSymbol(name);
+                    int index = symbol.getIndex();
+                    if (symbol.getDeclType() != Token.CONST
+                        && index >= 0 && index <= 0xFFFF && depth <= 0x7FFF)
+                    {
+                        n.putIntProp(Node.OUTER_VAR_PROP,
+                                     (depth << 16) | index);
+                    }
+                }
+            } else if (type == Token.FUNCTION) {
+                int i = n.getExistingIntProp(Node.FUNCTION_PROP);
+                FunctionNode nested = fn.getFunctionNode(i);
+                Set<String> nestedCatchNames = new HashSet<String>(catchNames);
+                if (hasStaticNames(nested, nestedCatchNames)) {
+                    List<Scope> nestedOuter = new ArrayList<Scope>();
+                    nestedOuter.add(scope);
+                    nestedOuter.addAll(outer);
+                    // All functions enclosing nested up to the defining
+                    // one have activations as they contain functions
+                    int nestedDepth = depth
+                        + (nested.requiresActivation() ? 1 : 0);
+                    resolveOuterNames(defining, nested, nested, nested,
+                                      nestedOuter, nestedDepth,
+                                      nestedCatchNames);
+                }
+            }
+            resolveOuterNames(defining, fn, n,
+                              n instanceof Scope ? (Scope)n : scope,
+                              outer, depth, catchNames);
+        }
+    }
+
+    private static Scope getDefiningScope(List<Scope> scopes, String name)
+    {
+        for (Scope scope : scopes) {
+            Scope defining = scope.getDefiningScope(name);
+            if (defining != null) {
+                return defining;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return false if the body of fn calls eval or uses with statements or
+     * E4X filters, all of which may bind names at runtime. Add the names
+     * bound by its catch clauses to catchNames.
+     */
+    private static boolean hasStaticNames(Node node, Set<String> catchNames)
+    {
+        for (Node n = node.getFirstChild(); n != null; n = n.getNext()) {
+            switch (n.getType()) {
+              case Token.CALL:
+                if (n.getIntProp(Node.SPECIALCALL_PROP, Node.NON_SPECIALCALL)
+                    == Node.SPECIALCALL_EVAL)
+                {
+                    return false;
+                }
+                break;
+              case Token.ENTERWITH:
+                // Catch clauses enter the scope kept in a local
+                if (n.getFirstChild().getType() != Token.LOCAL_LOAD) {
+                    return false;
+                }
+                break;
+              case Token.DOTQUERY:
+                return false;
+              case Token.CATCH_SCOPE:
+                catchNames.add(n.getFirstChild().getString());
+                break;
+            }
+            if (!hasStaticNames(n, catchNames)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isRegisterVariable(ScriptNode tree, Scope defining,
+                                       String name)
+    {
+        return closureNames == null
+            || (defining == tree && !closureNames.contains(name));
+    }
+
     private static Node addBeforeCurrent(Node parent, Node previous,
                                          Node current, Node toAdd)
     {
@@ -577,4 +803,7 @@ public class NodeTransformer
     private ObjArray loops;
     private ObjArray loopEnds;
     private boolean hasFinally;
+    // Names nested functions use in a function whose activation only
+    // holds those, or null
+    private Set<String> closureNames;
 }
@@ -0,0 +1,278 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+/**
+ * Inline cache for a single property access site.
+ * <p>
+ * The cache remembers up to {@link #MAX_ENTRIES} receiver property maps
+ * together with the offset of the accessed property, either in the
+ * receiver itself or in its direct prototype. A hit needs only a few
+ * reference comparisons and an array read, so it never hashes the property
+ * name or walks the prototype chain. The cache only applies to objects in
+ * shaped mode, see {@link Context#FEATURE_SHAPED_OBJECTS}; all other
+ * receivers take the generic path in {@link ScriptRuntime}.
+ * <p>
+ * Entries are immutable and the entry array is replaced on every update,
+ * so a cache can be shared by threads without locking. Entries only refer
+ * to property maps, never to objects, so the cache does not keep any
+ * script objects alive.
+ * <p>
+ * The class is public so classes generated by the optimizer can hold one
+ * cache per property access site; it is not intended for embeddings.
+ */
+public final class PropertyCache
+{
+    static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] EMPTY_ENTRIES = new Entry[0];
+
+    private static final class Entry
+    {
+        final PropertyMap map;
+        // map of the direct prototype that holds the property or null if
+        // the property belongs to the receiver
+        final PropertyMap holderMap;
+        final int offset;
+
+        Entry(PropertyMap map, PropertyMap holderMap, int offset)
+        {
+            this.map = map;
+            this.holderMap = holderMap;
+            this.offset = offset;
+        }
+    }
+
+    private volatile Entry[] entries = EMPTY_ENTRIES;
+    private volatile boolean megamorphic;
+
+    public PropertyCache()
+    {
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#getObjectProp(Object, String, Context, Scriptable)}.
+     */
+    public Object getObjectProp(Object obj, String name, Context cx,
+                                Scriptable scope)
+    {
+        Object value = getValue(obj);
+        if (value == Scriptable.NOT_FOUND) {
+            value = ScriptRuntime.getObjectProp(obj, name, cx, scope);
+            updateForGet(obj, name);
+        }
+        return value;
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#setObjectProp(Object, String, Object, Context)}.
+     */
+    public Object setObjectProp(Object obj, String name, Object value,
+                                Context cx)
+    {
+        if (!setValue(obj, value)) {
+            value = ScriptRuntime.setObjectProp(obj, name, value, cx);
+            updateForSet(obj, name);
+        }
+        return value;
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#getPropFunctionAndThis(Object, String, Context,
+     * Scriptable)}. On a hit the receiver is stored the same way as the
+     * generic path does, so callers still use
+     * {@link ScriptRuntime#lastStoredScriptable(Context)} to fetch it.
+     */
+    public Callable getPropFunctionAndThis(Object obj, String name,
+                                           Context cx, Scriptable scope)
+    {
+        Object value = getValue(obj);
+        if (value instanceof Callable) {
+            if (cx.scratchScriptable != null)
+                throw new IllegalStateException();
+            cx.scratchScriptable = (Scriptable)obj;
+            return (Callable)value;
+        }
+        Callable f = ScriptRuntime.getPropFunctionAndThis(obj, name, cx,
+                                                          scope);
+        updateForGet(obj, name);
+        return f;
+    }
+
+    /**
+     * Return the cached value of the property for the given receiver or
+     * {@link Scriptable#NOT_FOUND} if the cache does not apply.
+     */
+    Object getValue(Object obj)
+    {
+        if (obj instanceof ScriptableObject) {
+            ScriptableObject so = (ScriptableObject)obj;
+            PropertyMap map = so.getPropertyMap();
+            if (map != null) {
+                Entry[] array = entries;
+                for (int i = 0; i != array.length; ++i) {
+                    Entry e = array[i];
+                    if (e.map != map) {
+                        continue;
+                    }
+                    if (e.holderMap != null) {
+                        Scriptable proto = so.getPrototype();
+                        if (!(proto instanceof ScriptableObject)) {
+                            break;
+                        }
+                        so = (ScriptableObject)proto;
+                        if (so.getPropertyMap() != e.holderMap) {
+                            break;
+                        }
+                    }
+                    Object[] values = so.getPropertyValues();
+                    if (values != null) {
+                        return values[e.offset];
+                    }
+                    break;
+                }
+            }
+        }
+        return Scriptable.NOT_FOUND;
+    }
+
+    /**
+     * Assign the property of the given receiver if the cache applies.
+     *
+     * @return true if the value was stored, false if the generic path must
+     *         be used
+     */
+    boolean setValue(Object obj, Object value)
+    {
+        if (obj instanceof ScriptableObject) {
+            ScriptableObject so = (ScriptableObject)obj;
+            PropertyMap map = so.getPropertyMap();
+            if (map != null) {
+                Entry[] array = entries;
+                for (int i = 0; i != array.length; ++i) {
+                    Entry e = array[i];
+                    if (e.map == map && e.holderMap == null) {
+                        return so.setShapedValue(map, e.offset, value);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record where the property was found after a cache miss for a read.
+     */
+    void updateForGet(Object obj, String name)
+    {
+        if (megamorphic || !(obj instanceof ScriptableObject)) {
+            return;
+        }
+        ScriptableObject so = (ScriptableObject)obj;
+        PropertyMap map = so.getPropertyMap();
+        if (map == null || !map.isShared()) {
+            // An unshared map belongs to a single receiver, caching it would
+            // only make the site megamorphic sooner
+            return;
+        }
+        int offset = map.find(name);
+        if (offset >= 0) {
+            addEntry(new Entry(map, null, offset));
+            return;
+        }
+        Scriptable proto = so.getPrototype();
+        if (proto instanceof ScriptableObject) {
+            PropertyMap holderMap = ((ScriptableObject)proto).getPropertyMap();
+            if (holderMap != null) {
+                offset = holderMap.find(name);
+                if (offset >= 0) {
+                    addEntry(new Entry(map, holderMap, offset));
+                }
+            }
+        }
+    }
+
+    /**
+     * Record where the property was stored after a cache miss for a write.
+     * Only assignments to existing writable own properties are cached.
+     */
+    void updateForSet(Object obj, String name)
+    {
+        if (megamorphic || !(obj instanceof ScriptableObject)) {
+            return;
+        }
+        PropertyMap map = ((ScriptableObject)obj).getPropertyMap();
+        if (map == null || !map.isShared()) {
+            return;
+        }
+        int offset = map.find(name);
+        if (offset >= 0
+            && (map.getAttributes(offset) & ScriptableObject.READONLY) == 0)
+        {
+            addEntry(new Entry(map, null, offset));
+        }
+    }
+
+    private void addEntry(Entry entry)
+    {
+        Entry[] array = entries;
+        int n = array.length;
+        for (int i = 0; i != n; ++i) {
+            if (array[i].map == entry.map) {
+                // Stale holder map, replace the entry
+                Entry[] tmp = array.clone();
+                tmp[i] = entry;
+                entries = tmp;
+                return;
+            }
+        }
+        if (n == MAX_ENTRIES) {
+            // Too many shapes at this site, stop caching
+            megamorphic = true;
+            entries = EMPTY_ENTRIES;
+            return;
+        }
+        Entry[] tmp = new Entry[n + 1];
+        System.arraycopy(array, 0, tmp, 0, n);
+        tmp[n] = entry;
+        entries = tmp;
+    }
+}
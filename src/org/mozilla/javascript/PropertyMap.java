@@ -0,0 +1,289 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Immutable description of the layout of a shaped {@link ScriptableObject}.
+ * <p>
+ * A property map records the names and attributes of the properties of an
+ * object in insertion order, and the offset of each property value in the
+ * object's flat value array. Objects that got the same properties added in
+ * the same order with the same attributes share one map, so the layout is
+ * stored once instead of once per object. Maps form a transition tree rooted
+ * at {@link #EMPTY}: adding a property to an object replaces its map with the
+ * child map for that property.
+ * <p>
+ * Objects whose layout is unlikely to be repeated by other objects, because
+ * they deleted a property, changed attributes or came from a map with too
+ * many transitions, get unshared maps outside of the transition tree. Such a
+ * map still keeps names, attributes and values in parallel arrays, which is
+ * much more compact than a slot per property. Deleted properties leave a hole
+ * with a null name so the offsets of the remaining values stay valid.
+ * <p>
+ * Only plain data properties with string names are described by maps.
+ * Objects that need anything else (getters and setters, index properties or
+ * too many properties) switch to the slot hash table of ScriptableObject and
+ * never return to shaped mode.
+ */
+final class PropertyMap
+{
+    /**
+     * Maximum number of properties an object may have while in shaped mode,
+     * including holes left by deleted properties.
+     */
+    static final int MAX_PROPERTIES = 32;
+
+    /**
+     * Maximum number of distinct transitions from a single map. Objects that
+     * would need more get unshared maps so a script that creates objects
+     * with many different layouts can not grow the transition tree without
+     * bounds.
+     */
+    static final int MAX_TRANSITIONS = 64;
+
+    static final PropertyMap EMPTY = new PropertyMap();
+
+    private final String[] names;
+    private final int[] attributes;
+    private final int size;
+    private final boolean shared;
+
+    // enumerable property names in insertion order, created on first use
+    private volatile Object[] enumerableIds;
+
+    // transitions to child maps, guarded by synchronized (this)
+    private ArrayList<WeakReference<PropertyMap>> transitions;
+
+    private PropertyMap()
+    {
+        names = new String[0];
+        attributes = new int[0];
+        size = 0;
+        shared = true;
+    }
+
+    private PropertyMap(PropertyMap parent, String name, int attrs,
+                        boolean shared)
+    {
+        int n = parent.size;
+        this.size = n + 1;
+        this.shared = shared;
+        names = new String[n + 1];
+        System.arraycopy(parent.names, 0, names, 0, n);
+        names[n] = name;
+        attributes = new int[n + 1];
+        System.arraycopy(parent.attributes, 0, attributes, 0, n);
+        attributes[n] = attrs;
+    }
+
+    private PropertyMap(String[] names, int[] attributes)
+    {
+        this.names = names;
+        this.attributes = attributes;
+        this.size = names.length;
+        this.shared = false;
+    }
+
+    /**
+     * Return the number of properties described by this map, including
+     * holes left by deleted properties.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Return true if the map is part of the transition tree and so may be
+     * used by many objects, false if it belongs to a single object.
+     */
+    boolean isShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Return the name of the property at the given offset or null if the
+     * property was deleted.
+     */
+    String getName(int offset)
+    {
+        return names[offset];
+    }
+
+    int getAttributes(int offset)
+    {
+        return attributes[offset];
+    }
+
+    /**
+     * Return the names of the enumerable properties in insertion order. The
+     * array is shared by all objects with this map and must not be
+     * modified.
+     */
+    Object[] getEnumerableIds()
+    {
+        Object[] ids = enumerableIds;
+        if (ids == null) {
+            int count = 0;
+            for (int i = 0; i != size; ++i) {
+                if (names[i] != null
+                    && (attributes[i] & ScriptableObject.DONTENUM) == 0)
+                {
+                    ++count;
+                }
+            }
+            ids = count == 0 ? ScriptRuntime.emptyArgs : new Object[count];
+            count = 0;
+            for (int i = 0; i != size; ++i) {
+                if (names[i] != null
+                    && (attributes[i] & ScriptableObject.DONTENUM) == 0)
+                {
+                    ids[count++] = names[i];
+                }
+            }
+            enumerableIds = ids;
+        }
+        return ids;
+    }
+
+    /**
+     * Find the offset of the given property.
+     *
+     * @return the offset or -1 if the map does not contain the property
+     */
+    int find(String name)
+    {
+        String[] names = this.names;
+        int n = size;
+        // Property names coming from compiled code are usually the very
+        // same String objects, so try identity first.
+        for (int i = n; i-- != 0;) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        int hash = name.hashCode();
+        for (int i = n; i-- != 0;) {
+            String s = names[i];
+            if (s != null && s.hashCode() == hash && s.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the map that results from adding a property with the given
+     * name and attributes to objects with this map. The name must not be
+     * present in the map already.
+     *
+     * @return the child map or null if the object should switch to the slot
+     *         hash table instead
+     */
+    PropertyMap addProperty(String name, int attrs)
+    {
+        if (size >= MAX_PROPERTIES) {
+            return null;
+        }
+        if (!shared) {
+            return new PropertyMap(this, name, attrs, false);
+        }
+        synchronized (this) {
+            ArrayList<WeakReference<PropertyMap>> list = transitions;
+            int count = list == null ? 0 : list.size();
+            int free = -1;
+            for (int i = 0; i != count; ++i) {
+                PropertyMap child = list.get(i).get();
+                if (child == null) {
+                    if (free < 0) free = i;
+                    continue;
+                }
+                String childName = child.names[size];
+                if ((childName == name || childName.equals(name))
+                    && child.attributes[size] == attrs)
+                {
+                    return child;
+                }
+            }
+            if (free < 0 && count == MAX_TRANSITIONS) {
+                return new PropertyMap(this, name, attrs, false);
+            }
+            PropertyMap child = new PropertyMap(this, name, attrs, true);
+            WeakReference<PropertyMap> ref
+                = new WeakReference<PropertyMap>(child);
+            if (free >= 0) {
+                list.set(free, ref);
+            } else {
+                if (list == null) {
+                    list = new ArrayList<WeakReference<PropertyMap>>(2);
+                    transitions = list;
+                }
+                list.add(ref);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Return an unshared map without the property at the given offset. The
+     * offset becomes a hole so the other properties keep their offsets.
+     */
+    PropertyMap removeProperty(int offset)
+    {
+        String[] newNames = names.clone();
+        int[] newAttributes = attributes.clone();
+        newNames[offset] = null;
+        newAttributes[offset] = 0;
+        return new PropertyMap(newNames, newAttributes);
+    }
+
+    /**
+     * Return an unshared map where the property at the given offset has the
+     * given attributes.
+     */
+    PropertyMap changeAttributes(int offset, int attrs)
+    {
+        int[] newAttributes = attributes.clone();
+        newAttributes[offset] = attrs;
+        return new PropertyMap(names, newAttributes);
+    }
+}
@@ -0,0 +1,208 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeSet;
+
+/**
+ * Keys and entry format of {@link ScriptCache}.
+ */
+final class ScriptCacheSupport
+{
+    // Change FORMAT_VERSION with the layout of keys or entries
+    private static final int FORMAT_VERSION = 2;
+    private static final int CLASS_FILE = 1;
+    private static final int INTERPRETER_DATA = 2;
+
+    private ScriptCacheSupport()
+    {
+    }
+
+    /**
+     * Return the key for the result of compiling the source with the given
+     * compiler and settings.
+     */
+    static String makeKey(Context cx, CompilerEnvirons env,
+                          Evaluator compiler, String source,
+                          String sourceName, int lineno,
+                          boolean returnFunction)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(FORMAT_VERSION).append('\n');
+        sb.append(cx.getImplementationVersion()).append('\n');
+        sb.append(compiler.getClass().getName()).append('\n');
+        sb.append(sourceName).append('\n');
+        sb.append(lineno).append(returnFunction ? 'f' : 's');
+        appendSettings(sb, env);
+        sb.append('\n');
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+        try {
+            md.update(sb.toString().getBytes("UTF-8"));
+            md.update(source.getBytes("UTF-8"));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        byte[] digest = md.digest();
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i != digest.length; ++i) {
+            int b = digest[i] & 0xFF;
+            hex[2 * i] = Character.forDigit(b >>> 4, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Return the compiler settings that affect the generated code.
+     */
+    static String getSettings(CompilerEnvirons env)
+    {
+        StringBuilder sb = new StringBuilder();
+        appendSettings(sb, env);
+        return sb.toString();
+    }
+
+    private static void appendSettings(StringBuilder sb, CompilerEnvirons env)
+    {
+        sb.append(env.getLanguageVersion()).append(',');
+        sb.append(env.getOptimizationLevel()).append(',');
+        appendFlag(sb, env.isGenerateDebugInfo());
+        appendFlag(sb, env.isUseDynamicScope());
+        appendFlag(sb, env.isReservedKeywordAsIdentifier());
+        appendFlag(sb, env.isAllowMemberExprAsFunctionName());
+        appendFlag(sb, env.isXmlAvailable());
+        appendFlag(sb, env.isGeneratingSource());
+        appendFlag(sb, env.isStrictMode());
+        appendFlag(sb, env.reportWarningAsError());
+        appendFlag(sb, env.isGenerateObserverCount());
+        appendFlag(sb, env.getAllowSharpComments());
+        appendFlag(sb, env.isGeneratePropertyCaches());
+        if (env.getActivationNames() != null) {
+            sb.append(new TreeSet<String>(env.getActivationNames()));
+        }
+    }
+
+    private static void appendFlag(StringBuilder sb, boolean flag)
+    {
+        sb.append(flag ? '1' : '0');
+    }
+
+    /**
+     * Return the cache entry for the result of {@link Evaluator#compile}
+     * or null if it can not be stored.
+     */
+    static byte[] encode(Object bytecode)
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (bytecode instanceof InterpreterData) {
+                out.writeByte(INTERPRETER_DATA);
+                ObjectOutputStream oout = new ObjectOutputStream(out);
+                oout.writeObject(bytecode);
+                oout.close();
+            } else if (bytecode instanceof Object[]) {
+                // Class name and class file from Codegen
+                Object[] nameBytesPair = (Object[])bytecode;
+                byte[] classBytes = (byte[])nameBytesPair[1];
+                out.writeByte(CLASS_FILE);
+                out.writeUTF((String)nameBytesPair[0]);
+                out.writeInt(classBytes.length);
+                out.write(classBytes);
+                out.close();
+            } else {
+                return null;
+            }
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the compiler output stored in the entry if the compiler can
+     * use it, otherwise null.
+     */
+    static Object decode(byte[] data, Evaluator compiler)
+    {
+        try {
+            DataInputStream in
+                = new DataInputStream(new ByteArrayInputStream(data));
+            int tag = in.readByte();
+            if (compiler instanceof Interpreter) {
+                if (tag != INTERPRETER_DATA) {
+                    return null;
+                }
+                ObjectInputStream oin = new ObjectInputStream(in);
+                InterpreterData idata = (InterpreterData)oin.readObject();
+                ((Interpreter)compiler).itsData = idata;
+                return idata;
+            }
+            if (tag != CLASS_FILE) {
+                return null;
+            }
+            String className = in.readUTF();
+            byte[] classBytes = new byte[in.readInt()];
+            in.readFully(classBytes);
+            return new Object[] { className, classBytes };
+        } catch (IOException ex) {
+            return null;
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (ClassCastException ex) {
+            return null;
+        } catch (NegativeArraySizeException ex) {
+            return null;
+        }
+    }
+}
@@ -270,7 +270,14 @@ public class ScriptRuntime {
 
     public static Number wrapNumber(double x)
     {
-        if (x != x) {
+        int i = (int)x;
+        if (i == x) {
+            if (MIN_CACHED_NUMBER <= i && i <= MAX_CACHED_NUMBER
+                && (i != 0 || 1 / x > 0))
+            {
+                return numberCache[i - MIN_CACHED_NUMBER];
+            }
+        } else if (x != x) {
             return ScriptRuntime.NaNobj;
         }
         return new Double(x);
@@ -288,8 +295,8 @@ public class ScriptRuntime {
                 return ((Boolean) val).booleanValue();
             if (val == null || val == Undefined.instance)
                 return false;
-            if (val instanceof String)
-                return ((String) val).length() != 0;
+            if (val instanceof CharSequence)
+                return ((CharSequence) val).length() != 0;
             if (val instanceof Number) {
                 double d = ((Number) val).doubleValue();
                 return (d == d && d != 0.0);
@@ -329,8 +336,8 @@ public class ScriptRuntime {
                 return +0.0;
             if (val == Undefined.instance)
                 return NaN;
-            if (val instanceof String)
-                return toNumber((String) val);
+            if (val instanceof CharSequence)
+                return toNumber(val.toString());
             if (val instanceof Boolean)
                 return ((Boolean) val).booleanValue() ? 1 : +0.0;
             if (val instanceof Scriptable) {
@@ -361,6 +368,22 @@ public class ScriptRuntime {
 
     public static final Double NaNobj = new Double(NaN);
 
+    /**
+     * Range of integral numbers for which {@link #wrapNumber(double)}
+     * returns shared instances. Loop counters, array indexes and the
+     * results of bit operations are mostly small integers, so storing them
+     * as property values or passing them as arguments does not allocate.
+     */
+    private static final int MIN_CACHED_NUMBER = -128;
+    private static final int MAX_CACHED_NUMBER = 1023;
+    private static final Double[] numberCache =
+        new Double[MAX_CACHED_NUMBER - MIN_CACHED_NUMBER + 1];
+    static {
+        for (int i = 0; i != numberCache.length; ++i) {
+            numberCache[i] = new Double(i + MIN_CACHED_NUMBER);
+        }
+    }
+
     /*
      * Helper function for toNumber, parseInt, and TokenStream.getToken.
      */
@@ -714,8 +737,8 @@ public class ScriptRuntime {
             if (val == Undefined.instance) {
                 return "undefined";
             }
-            if (val instanceof String) {
-                return (String)val;
+            if (val instanceof CharSequence) {
+                return val.toString();
             }
             if (val instanceof Number) {
                 // XXX should we just teach NativeNumber.stringValue()
@@ -783,8 +806,8 @@ public class ScriptRuntime {
         if (value == Undefined.instance) {
             return "undefined";
         }
-        if (value instanceof String) {
-            String escaped = escapeString((String)value);
+        if (value instanceof CharSequence) {
+            String escaped = escapeString(value.toString());
             StringBuffer sb = new StringBuffer(escaped.length() + 2);
             sb.append('\"');
             sb.append(escaped);
@@ -950,7 +973,7 @@ public class ScriptRuntime {
         if (val == Undefined.instance) {
             throw typeError0("msg.undef.to.object");
         }
-        String className = val instanceof String ? "String" :
+        String className = val instanceof CharSequence ? "String" :
                            val instanceof Number ? "Number" :
                            val instanceof Boolean ? "Boolean" :
                            null;
@@ -1917,6 +1940,10 @@ public class ScriptRuntime {
         Scriptable obj;
         Object[] ids;
         int index;
+        // Layout of obj when ids were read if obj is shaped. While obj still
+        // has this map, none of the ids was deleted. The ids array is then
+        // shared with the map.
+        transient PropertyMap map;
         ObjToIntMap used;
         Object currentId;
         int enumType; /* one of ENUM_INIT_KEYS, ENUM_INIT_VALUES, 
@@ -2031,8 +2058,12 @@ public class ScriptRuntime {
             }
             if (id instanceof String) {
                 String strId = (String)id;
-                if (!x.obj.has(strId, x.obj))
-                    continue;   // must have been deleted
+                if (x.map == null
+                    || ((ScriptableObject)x.obj).getPropertyMap() != x.map)
+                {
+                    if (!x.obj.has(strId, x.obj))
+                        continue;   // must have been deleted
+                }
                 x.currentId = strId;
             } else {
                 int intId = ((Number)id).intValue();
@@ -2086,13 +2117,21 @@ public class ScriptRuntime {
     private static void enumChangeObject(IdEnumeration x)
     {
         Object[] ids = null;
+        PropertyMap map = null;
         while (x.obj != null) {
-            ids = x.obj.getIds();
+            if (x.obj instanceof ScriptableObject) {
+                map = ((ScriptableObject)x.obj).getPropertyMap();
+            }
+            // Shaped objects enumerate the ids cached by their map, so
+            // repeated loops over objects of one layout do not copy them
+            ids = map != null ? map.getEnumerableIds() : x.obj.getIds();
             if (ids.length != 0) {
                 break;
             }
+            map = null;
             x.obj = x.obj.getPrototype();
         }
+        x.map = map;
         if (x.obj != null && x.ids != null) {
             Object[] previous = x.ids;
             int L = previous.length;
@@ -2138,6 +2177,90 @@ public class ScriptRuntime {
         return (Callable)nameOrFunction(cx, scope, parent, name, true);
     }
 
+    /**
+     * Returns the value of a variable of an enclosing function that the
+     * compiler resolved to a depth, the number of activation objects to
+     * skip on the scope chain, and the index of the variable in the
+     * parameters and variables of the function. Falls back to the name
+     * lookup if the scope chain does not have the expected shape.
+     */
+    public static Object getOuterVar(Scriptable scope, int depth, int index,
+                                     String name, Context cx)
+    {
+        NativeCall call = outerActivation(scope, depth);
+        if (call != null) {
+            ScriptableObject.Slot slot = call.getVarSlot(index, name);
+            if (slot != null) {
+                return slot.value;
+            }
+        }
+        return name(cx, scope, name);
+    }
+
+    /**
+     * Assigns a variable of an enclosing function, see
+     * {@link #getOuterVar(Scriptable, int, int, String, Context)}.
+     */
+    public static Object setOuterVar(Object value, Scriptable scope,
+                                     int depth, int index, String name,
+                                     Context cx)
+    {
+        NativeCall call = outerActivation(scope, depth);
+        if (call != null && !call.isSealed()) {
+            ScriptableObject.Slot slot = call.getVarSlot(index, name);
+            if (slot != null
+                && (slot.getAttributes() & ScriptableObject.READONLY) == 0)
+            {
+                slot.value = value;
+                return value;
+            }
+        }
+        return setName(bind(cx, scope, name), value, cx, scope, name);
+    }
+
+    /**
+     * Prepare for calling a variable of an enclosing function, see
+     * {@link #getOuterVar(Scriptable, int, int, String, Context)} and
+     * {@link #getNameFunctionAndThis(String, Context, Scriptable)}.
+     * The caller must call ScriptRuntime.lastStoredScriptable() immediately
+     * after calling this method.
+     */
+    public static Callable getOuterVarFunctionAndThis(Scriptable scope,
+                                                      int depth, int index,
+                                                      String name,
+                                                      Context cx)
+    {
+        NativeCall call = outerActivation(scope, depth);
+        if (call != null) {
+            ScriptableObject.Slot slot = call.getVarSlot(index, name);
+            if (slot != null) {
+                Object result = slot.value;
+                if (!(result instanceof Callable)) {
+                    throw notFunctionError(result, name);
+                }
+                // ECMA 262 requires that this for nested funtions
+                // should be top scope
+                storeScriptable(cx, ScriptableObject.getTopLevelScope(call));
+                return (Callable)result;
+            }
+        }
+        return getNameFunctionAndThis(name, cx, scope);
+    }
+
+    private static NativeCall outerActivation(Scriptable scope, int depth)
+    {
+        while (scope != null) {
+            if (scope instanceof NativeCall) {
+                if (depth == 0) {
+                    return (NativeCall)scope;
+                }
+                --depth;
+            }
+            scope = scope.getParentScope();
+        }
+        return null;
+    }
+
     /**
      * Prepare for calling obj[id](...): return function corresponding to
      * obj[id] and make obj properly converted to Scriptable available
@@ -2449,7 +2572,7 @@ public class ScriptRuntime {
         if (args.length < 1)
             return Undefined.instance;
         Object x = args[0];
-        if (!(x instanceof String)) {
+        if (!(x instanceof CharSequence)) {
             if (cx.hasFeature(Context.FEATURE_STRICT_MODE) ||
                 cx.hasFeature(Context.FEATURE_STRICT_EVAL))
             {
@@ -2482,7 +2605,7 @@ public class ScriptRuntime {
 
         // Compile with explicit interpreter instance to force interpreter
         // mode.
-        Script script = cx.compileString((String)x, evaluator,
+        Script script = cx.compileString(x.toString(), evaluator,
                                          reporter, sourceName, 1, null);
         evaluator.setEvalScriptFlag(script);
         Callable c = (Callable)script;
@@ -2502,7 +2625,7 @@ public class ScriptRuntime {
         	return ((ScriptableObject) value).getTypeOf();
         if (value instanceof Scriptable)
             return (value instanceof Callable) ? "function" : "object";
-        if (value instanceof String)
+        if (value instanceof CharSequence)
             return "string";
         if (value instanceof Number)
             return "number";
@@ -2557,23 +2680,78 @@ public class ScriptRuntime {
             val1 = ((Scriptable) val1).getDefaultValue(null);
         if (val2 instanceof Scriptable)
             val2 = ((Scriptable) val2).getDefaultValue(null);
-        if (!(val1 instanceof String) && !(val2 instanceof String))
+        if (!(val1 instanceof CharSequence) && !(val2 instanceof CharSequence))
             if ((val1 instanceof Number) && (val2 instanceof Number))
                 return wrapNumber(((Number)val1).doubleValue() +
                                   ((Number)val2).doubleValue());
             else
                 return wrapNumber(toNumber(val1) + toNumber(val2));
-        return toString(val1).concat(toString(val2));
+        return concat(toCharSequence(val1), toCharSequence(val2));
     }
 
+    /**
+     * Kept for classes compiled before {@link #add(CharSequence, Object)}
+     * was added.
+     */
     public static String add(String val1, Object val2) {
         return val1.concat(toString(val2));
     }
 
+    /**
+     * Kept for classes compiled before {@link #add(Object, CharSequence)}
+     * was added.
+     */
     public static String add(Object val1, String val2) {
         return toString(val1).concat(val2);
     }
 
+    public static CharSequence add(CharSequence val1, Object val2) {
+        return concat(val1, toCharSequence(val2));
+    }
+
+    public static CharSequence add(Object val1, CharSequence val2) {
+        return concat(toCharSequence(val1), val2);
+    }
+
+    /**
+     * Concatenate two strings. With {@link Context#FEATURE_CONS_STRINGS}
+     * results of at least CONS_STRING_MIN_LENGTH characters are built as
+     * {@link ConsString} so that appending to a long string does not copy
+     * it.
+     */
+    public static CharSequence concat(CharSequence s1, CharSequence s2) {
+        int length1 = s1.length();
+        int length2 = s2.length();
+        if (length2 == 0) {
+            return s1;
+        } else if (length1 == 0) {
+            return s2;
+        } else if (length1 + length2 < CONS_STRING_MIN_LENGTH
+                   && s1 instanceof String && s2 instanceof String) {
+            return ((String)s1).concat((String)s2);
+        }
+        // The feature is only looked up for long results, which are
+        // expensive to copy anyway
+        Context cx = Context.getCurrentContext();
+        if (cx != null && cx.hasFeature(Context.FEATURE_CONS_STRINGS)) {
+            return new ConsString(s1, s2);
+        }
+        return s1.toString().concat(s2.toString());
+    }
+
+    private static final int CONS_STRING_MIN_LENGTH = 64;
+
+    /**
+     * Convert the value to a string value without flattening
+     * {@link ConsString} values.
+     */
+    public static CharSequence toCharSequence(Object val) {
+        if (val instanceof CharSequence) {
+            return (CharSequence)val;
+        }
+        return toString(val);
+    }
+
     /**
      * @deprecated The method is only present for compatibility.
      */
@@ -2754,8 +2932,8 @@ public class ScriptRuntime {
             return false;
         } else if (x instanceof Number) {
             return eqNumber(((Number)x).doubleValue(), y);
-        } else if (x instanceof String) {
-            return eqString((String)x, y);
+        } else if (x instanceof CharSequence) {
+            return eqString((CharSequence)x, y);
         } else if (x instanceof Boolean) {
             boolean b = ((Boolean)x).booleanValue();
             if (y instanceof Boolean) {
@@ -2807,8 +2985,8 @@ public class ScriptRuntime {
                 return eqNumber(d, x);
             } else if (y instanceof Number) {
                 return eqNumber(((Number)y).doubleValue(), x);
-            } else if (y instanceof String) {
-                return eqString((String)y, x);
+            } else if (y instanceof CharSequence) {
+                return eqString((CharSequence)y, x);
             }
             // covers the case when y == Undefined.instance as well
             return false;
@@ -2819,7 +2997,7 @@ public class ScriptRuntime {
     }
     
     private static boolean isPrimitive(Object obj) {
-        return (obj instanceof Number) || (obj instanceof String) ||
+        return (obj instanceof Number) || (obj instanceof CharSequence) ||
                (obj instanceof Boolean);
     }
 
@@ -2830,7 +3008,7 @@ public class ScriptRuntime {
                 return false;
             } else if (y instanceof Number) {
                 return x == ((Number)y).doubleValue();
-            } else if (y instanceof String) {
+            } else if (y instanceof CharSequence) {
                 return x == toNumber(y);
             } else if (y instanceof Boolean) {
                 return x == (((Boolean)y).booleanValue() ? 1.0 : +0.0);
@@ -2850,20 +3028,22 @@ public class ScriptRuntime {
         }
     }
 
-    private static boolean eqString(String x, Object y)
+    private static boolean eqString(CharSequence x, Object y)
     {
         for (;;) {
             if (y == null || y == Undefined.instance) {
                 return false;
-            } else if (y instanceof String) {
-                return x.equals(y);
+            } else if (y instanceof CharSequence) {
+                CharSequence c = (CharSequence)y;
+                return x.length() == c.length() &&
+                       x.toString().equals(c.toString());
             } else if (y instanceof Number) {
                 return toNumber(x) == ((Number)y).doubleValue();
             } else if (y instanceof Boolean) {
                 return toNumber(x) == (((Boolean)y).booleanValue() ? 1.0 : 0.0);
             } else if (y instanceof Scriptable) {
                 if (y instanceof ScriptableObject) {
-                    Object test = ((ScriptableObject)y).equivalentValues(x);
+                    Object test = ((ScriptableObject)y).equivalentValues(x.toString());
                     if (test != Scriptable.NOT_FOUND) {
                         return ((Boolean)test).booleanValue();
                     }
@@ -2892,9 +3072,9 @@ public class ScriptRuntime {
             if (y instanceof Number) {
                 return ((Number)x).doubleValue() == ((Number)y).doubleValue();
             }
-        } else if (x instanceof String) {
-            if (y instanceof String) {
-                return x.equals(y);
+        } else if (x instanceof CharSequence) {
+            if (y instanceof CharSequence) {
+                return x.toString().equals(y.toString());
             }
         } else if (x instanceof Boolean) {
             if (y instanceof Boolean) {
@@ -2982,8 +3162,8 @@ public class ScriptRuntime {
                 val1 = ((Scriptable) val1).getDefaultValue(NumberClass);
             if (val2 instanceof Scriptable)
                 val2 = ((Scriptable) val2).getDefaultValue(NumberClass);
-            if (val1 instanceof String && val2 instanceof String) {
-                return ((String)val1).compareTo((String)val2) < 0;
+            if (val1 instanceof CharSequence && val2 instanceof CharSequence) {
+                return val1.toString().compareTo(val2.toString()) < 0;
             }
             d1 = toNumber(val1);
             d2 = toNumber(val2);
@@ -3002,8 +3182,8 @@ public class ScriptRuntime {
                 val1 = ((Scriptable) val1).getDefaultValue(NumberClass);
             if (val2 instanceof Scriptable)
                 val2 = ((Scriptable) val2).getDefaultValue(NumberClass);
-            if (val1 instanceof String && val2 instanceof String) {
-                return ((String)val1).compareTo((String)val2) <= 0;
+            if (val1 instanceof CharSequence && val2 instanceof CharSequence) {
+                return val1.toString().compareTo(val2.toString()) <= 0;
             }
             d1 = toNumber(val1);
             d2 = toNumber(val2);
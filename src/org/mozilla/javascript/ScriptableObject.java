@@ -135,9 +135,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         REMOVED.wasDeleted = true;
     }
 
-    private transient Slot[] slots;
+    // Volatile so readers that do not synchronize always see a fully
+    // initialized table after it was replaced by an insert
+    private transient volatile Slot[] slots;
     // If count >= 0, it gives number of keys or if count < 0,
-    // it indicates sealed object where ~count gives number of keys
+    // it indicates sealed object where ~count gives number of keys.
+    // The slot table of a sealed object never changes, so lookups on it
+    // neither lock nor write to the object, see getSlot.
     private int count;
 
     // gateways into the definition-order linked list of slots
@@ -147,6 +151,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     // cache; may be removed for smaller memory footprint
     private transient Slot lastAccess = REMOVED;
 
+    // Shared layout and flat value storage used while the object is in
+    // shaped mode, see Context.FEATURE_SHAPED_OBJECTS. Both are null once
+    // the object uses the slot hash table.
+    private transient volatile PropertyMap propertyMap;
+    private transient Object[] propertyValues;
+
     private volatile Map<Object,Object> associatedValues;
 
     private static final int SLOT_QUERY = 1;
@@ -158,7 +168,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     private boolean isExtensible = true;
 
-    private static class Slot implements Serializable
+    static class Slot implements Serializable
     {
         private static final long serialVersionUID = -6090581677123995491L;
         String name; // This can change due to caching
@@ -190,7 +200,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             return attributes;
         }
 
-        final synchronized void setAttributes(int value)
+        final void setAttributes(int value)
         {
             checkValidAttributes(value);
             attributes = (short)value;
@@ -288,6 +298,10 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public boolean has(String name, Scriptable start)
     {
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            return map.find(name) >= 0;
+        }
         return null != getSlot(name, 0, SLOT_QUERY);
     }
 
@@ -381,6 +395,8 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     public void delete(String name)
     {
         checkNotSealed(name, 0);
+        if (propertyMap != null && deleteShapedProperty(name))
+            return;
         accessSlot(name, 0, SLOT_REMOVE);
     }
 
@@ -505,6 +521,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public int getAttributes(String name)
     {
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            int offset = map.find(name);
+            if (offset >= 0) {
+                return map.getAttributes(offset);
+            }
+        }
         return findAttributeSlot(name, 0, SLOT_QUERY).getAttributes();
     }
 
@@ -550,6 +573,8 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     public void setAttributes(String name, int attributes)
     {
         checkNotSealed(name, 0);
+        if (propertyMap != null && setShapedAttributes(name, attributes))
+            return;
         findAttributeSlot(name, 0, SLOT_MODIFY).setAttributes(attributes);
     }
 
@@ -1269,6 +1294,27 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         return null;
     }
 
+    /**
+     * Return the canonical instance of a property name.
+     * <p>
+     * The compiler uses canonical names for identifiers and for string
+     * literals used as property names, so a lookup that finds a property
+     * stored under a canonical name succeeds with a reference comparison
+     * instead of {@link String#equals(Object)}. String constants in Java
+     * code are already canonical; embeddings that build property names at
+     * runtime can use this method before defining or looking up host
+     * properties.
+     *
+     * @param name the property name
+     * @return a string equal to <code>name</code> that is shared by all
+     *         canonical names with the same characters
+     * @since 1.7R3
+     */
+    public static String internPropertyName(String name)
+    {
+        return name.intern();
+    }
+
     /**
      * Define a JavaScript property.
      *
@@ -1283,6 +1329,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                                int attributes)
     {
         checkNotSealed(propertyName, 0);
+        PropertyMap map = propertyMap;
+        if (map != null && isExtensible() && map.find(propertyName) < 0) {
+            checkValidAttributes(attributes);
+            if (addShapedProperty(propertyName, value, attributes))
+                return;
+        }
         put(propertyName, this, value);
         setAttributes(propertyName, attributes);
     }
@@ -1790,11 +1842,16 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      * It is an error to add properties to or delete properties from 
      * a sealed object. It is possible to change the value of an 
      * existing property. Once an object is sealed it may not be unsealed.
+     * <p>
+     * Since the set of properties of a sealed object is fixed, property
+     * lookups on it neither synchronize nor write to the object. This makes
+     * a sealed top-level scope cheap to share between threads.
      *
      * @since 1.4R3
      */
     public synchronized void sealObject() {
         if (count >= 0) {
+            convertToSlotTable();
             // Make sure all LazilyLoadedCtors are initialized before sealing.
             Slot slot = firstAdded;
             while (slot != null) {
@@ -1808,6 +1865,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 }
                 slot = slot.orderedNext;
             }
+            lastAccess = REMOVED;
             count = ~count;
         }
     }
@@ -2229,6 +2287,16 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     private Object getImpl(String name, int index, Scriptable start)
     {
+        if (name != null) {
+            PropertyMap map = propertyMap;
+            if (map != null) {
+                Object[] values = propertyValues;
+                if (values != null) {
+                    int offset = map.find(name);
+                    return offset >= 0 ? values[offset] : Scriptable.NOT_FOUND;
+                }
+            }
+        }
         Slot slot = getSlot(name, index, SLOT_QUERY);
         if (slot == null) {
             return Scriptable.NOT_FOUND;
@@ -2284,6 +2352,30 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private boolean putImpl(String name, int index, Scriptable start,
                             Object value, int constFlag)
     {
+        if (name != null && constFlag == EMPTY) {
+            PropertyMap map;
+            while ((map = propertyMap) != null) {
+                int offset = map.find(name);
+                if (offset >= 0) {
+                    if ((map.getAttributes(offset) & READONLY) != 0)
+                        return true;
+                    if (this != start)
+                        return false;
+                    if (setShapedValue(map, offset, value))
+                        return true;
+                    // The map changed, look the property up again
+                    continue;
+                }
+                if (this != start)
+                    return false;
+                if (!isExtensible())
+                    return true;
+                if (addShapedProperty(name, value, EMPTY))
+                    return true;
+                // The object switched to the slot hash table
+                break;
+            }
+        }
         Slot slot;
         if (this != start) {
             slot = getSlot(name, index, SLOT_QUERY);
@@ -2360,6 +2452,17 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         }
     }
 
+    /**
+     * Return the slot of the data property with the given name or null if
+     * there is no such property. The slot stays valid until its
+     * <tt>wasDeleted</tt> flag is set.
+     */
+    final Slot getDataSlot(String name)
+    {
+        Slot slot = getSlot(name, 0, SLOT_QUERY);
+        return (slot instanceof GetterSlot) ? null : slot;
+    }
+
     private Slot findAttributeSlot(String name, int index, int accessType)
     {
         Slot slot = getSlot(name, index, accessType);
@@ -2378,6 +2481,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     private Slot getSlot(String name, int index, int accessType)
     {
+        if (count < 0) {
+            // Sealed objects are typically scopes shared by many threads.
+            // Do not use the last access cache there, as updating it from
+            // all readers makes them contend for the same cache line.
+            return accessSlot(name, index, accessType);
+        }
+
         Slot slot;
 
         // Query last access cache and check that it was not deleted.
@@ -2418,6 +2528,11 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     private Slot accessSlot(String name, int index, int accessType)
     {
+        if (propertyMap != null) {
+            // Everything besides plain data properties with string names
+            // requires slots
+            convertToSlotTable();
+        }
         int indexOrHash = (name != null ? name.hashCode() : index);
 
         if (accessType == SLOT_QUERY ||
@@ -2445,8 +2560,11 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                             if (name.equals(sname)) {
                                 // This will avoid calling String.equals when
                                 // slot is accessed with same string object
-                                // next time.
-                                slot.name = name;
+                                // next time. Skipped for sealed objects for
+                                // the same reason as the cache in getSlot.
+                                if (count >= 0) {
+                                    slot.name = name;
+                                }
                                 break;
                             }
                         }
@@ -2617,6 +2735,177 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         }
     }
 
+    /**
+     * Make a newly created object keep its properties in shaped mode: the
+     * property layout is described by a {@link PropertyMap} shared with
+     * other objects of the same layout, and the values are stored in a flat
+     * array.
+     * <p>
+     * Only objects whose ids are exactly the properties in the map, such as
+     * plain {@link NativeObject} instances, may use shaped mode: for-in
+     * loops take the ids of shaped objects from the map instead of calling
+     * {@link #getIds()}.
+     */
+    final void initShapedStorage()
+    {
+        if (count == 0 && slots == null) {
+            propertyValues = ScriptRuntime.emptyArgs;
+            propertyMap = PropertyMap.EMPTY;
+        }
+    }
+
+    /**
+     * Return the property map of a shaped object or null if the object
+     * uses the slot hash table.
+     */
+    final PropertyMap getPropertyMap()
+    {
+        return propertyMap;
+    }
+
+    /**
+     * Return the value array of a shaped object. Must be called after
+     * {@link #getPropertyMap()} so the array covers all properties of the
+     * map; the result is null if the object switched to the slot hash table
+     * in between.
+     */
+    final Object[] getPropertyValues()
+    {
+        return propertyValues;
+    }
+
+    /**
+     * Store the value of a property of a shaped object. The store is done
+     * under the lock so that it can not be lost when another thread copies
+     * the values to add a property or to switch to the slot hash table.
+     *
+     * @return false if the object no longer has the given map
+     */
+    final synchronized boolean setShapedValue(PropertyMap map, int offset,
+                                              Object value)
+    {
+        if (propertyMap != map)
+            return false;
+        propertyValues[offset] = value;
+        return true;
+    }
+
+    /**
+     * Append a property to a shaped object.
+     *
+     * @return false if the object is not shaped or had to switch to the
+     *         slot hash table to store the property
+     */
+    private synchronized boolean addShapedProperty(String name, Object value,
+                                                   int attributes)
+    {
+        PropertyMap map = propertyMap;
+        if (map == null)
+            return false;
+        PropertyMap newMap = null;
+        if (map.find(name) < 0) {
+            newMap = map.addProperty(name, attributes);
+        }
+        if (newMap == null) {
+            convertToSlotTable();
+            return false;
+        }
+        Object[] values = propertyValues;
+        int offset = map.size();
+        if (offset == values.length) {
+            Object[] tmp = new Object[offset == 0 ? 4 : offset * 2];
+            System.arraycopy(values, 0, tmp, 0, offset);
+            values = tmp;
+        }
+        values[offset] = value;
+        // Publish the values before the map so unsynchronized readers
+        // that see the new map never see a too short array
+        propertyValues = values;
+        propertyMap = newMap;
+        ++count;
+        return true;
+    }
+
+    /**
+     * Remove a property from a shaped object.
+     *
+     * @return false if the object is not shaped
+     */
+    private synchronized boolean deleteShapedProperty(String name)
+    {
+        PropertyMap map = propertyMap;
+        if (map == null)
+            return false;
+        int offset = map.find(name);
+        if (offset >= 0 && (map.getAttributes(offset) & PERMANENT) == 0) {
+            // Same as for removed slots, the value is cleared in place
+            propertyValues[offset] = null;
+            propertyMap = map.removeProperty(offset);
+            --count;
+        }
+        return true;
+    }
+
+    /**
+     * Change the attributes of a property of a shaped object.
+     *
+     * @return false if the object is not shaped or the property is not
+     *         found or the attributes can not be described by a map
+     */
+    private synchronized boolean setShapedAttributes(String name,
+                                                     int attributes)
+    {
+        PropertyMap map = propertyMap;
+        if (map == null || (attributes & UNINITIALIZED_CONST) != 0)
+            return false;
+        int offset = map.find(name);
+        if (offset < 0)
+            return false;
+        if (map.getAttributes(offset) != attributes) {
+            checkValidAttributes(attributes);
+            propertyMap = map.changeAttributes(offset, attributes);
+        }
+        return true;
+    }
+
+    /**
+     * Move the properties of a shaped object to the slot hash table. The
+     * object never returns to shaped mode afterwards.
+     */
+    private synchronized void convertToSlotTable()
+    {
+        PropertyMap map = propertyMap;
+        if (map == null)
+            return;
+        Object[] values = propertyValues;
+        int n = map.size();
+        if (n != 0) {
+            int tableSize = 5;
+            while (4 * n > 3 * tableSize) {
+                tableSize = tableSize * 2 + 1;
+            }
+            Slot[] table = new Slot[tableSize];
+            for (int i = 0; i != n; ++i) {
+                String name = map.getName(i);
+                if (name == null)
+                    continue;
+                Slot slot = new Slot(name, name.hashCode(),
+                                     map.getAttributes(i));
+                slot.value = values[i];
+                if (lastAdded != null)
+                    lastAdded.orderedNext = slot;
+                if (firstAdded == null)
+                    firstAdded = slot;
+                lastAdded = slot;
+                addKnownAbsentSlot(table, slot,
+                                   getSlotIndex(tableSize, slot.indexOrHash));
+            }
+            slots = table;
+        }
+        propertyMap = null;
+        propertyValues = null;
+    }
+
     private static int getSlotIndex(int tableSize, int indexOrHash)
     {
         return (indexOrHash & 0x7fffffff) % tableSize;
@@ -2664,6 +2953,27 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     }
 
     Object[] getIds(boolean getAll) {
+        PropertyMap map = propertyMap;
+        if (map != null) {
+            if (!getAll) {
+                Object[] ids = map.getEnumerableIds();
+                return ids.length == 0 ? ids : ids.clone();
+            }
+            int n = map.size();
+            Object[] a = new Object[n];
+            int c = 0;
+            for (int i = 0; i != n; ++i) {
+                String name = map.getName(i);
+                if (name != null) {
+                    a[c++] = name;
+                }
+            }
+            if (c == n)
+                return a;
+            Object[] result = new Object[c];
+            System.arraycopy(a, 0, result, 0, c);
+            return result;
+        }
         Slot[] s = slots;
         Object[] a = ScriptRuntime.emptyArgs;
         if (s == null)
@@ -2708,6 +3018,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private synchronized void writeObject(ObjectOutputStream out)
         throws IOException
     {
+        convertToSlotTable();
         out.defaultWriteObject();
         int objectsCount = count;
         if (objectsCount < 0) {
@@ -0,0 +1,433 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is Rhino code, released
+ * May 6, 1999.
+ *
+ * The Initial Developer of the Original Code is
+ * Netscape Communications Corporation.
+ * Portions created by the Initial Developer are Copyright (C) 1997-1999
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * the GNU General Public License Version 2 or later (the "GPL"), in which
+ * case the provisions of the GPL are applicable instead of those above. If
+ * you wish to allow use of your version of this file only under the terms of
+ * the GPL and not to allow others to use your version of this file under the
+ * MPL, indicate your decision by deleting the provisions above and replacing
+ * them with the notice and other provisions required by the GPL. If you do
+ * not delete the provisions above, a recipient may use your version of this
+ * file under either the MPL or the GPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+import java.lang.reflect.Constructor;
+import java.util.LinkedList;
+
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.FunctionNode;
+import org.mozilla.javascript.ast.ScriptNode;
+
+/**
+ * Compiles hot interpreted functions to JVM bytecode.
+ * <p>
+ * With {@link Context#FEATURE_TIERED_COMPILATION} scripts are compiled for
+ * the interpreter first. Each eligible function gets an instance of this
+ * class that counts its invocations and loop back edges. Once the counts
+ * reach the threshold of the Context that compiled the script, the source
+ * of the function is compiled again with the optimizer on a background
+ * thread. Later calls of the function then go to the compiled code while
+ * the interpreted function object stays the one seen by scripts.
+ * <p>
+ * Only functions that do not need an activation object and are not named
+ * function expressions are eligible. Their free variables are looked up in
+ * the parent scope by name, so the function can be compiled on its own and
+ * behaves the same in either tier.
+ * <p>
+ * While a function is interpreted its parameters are checked for values
+ * other than numbers. Parameters that were always numbers are compiled as
+ * double variables, and calls check that assumption before they enter the
+ * compiled code. Calls that fail the check run in the interpreter, and
+ * after {@link #DEOPTIMIZE_LIMIT} of them the compiled code is dropped and
+ * the function is compiled again with the parameter types seen so far.
+ */
+final class TieredCompiler
+{
+    // Back edges needed for compilation per invocation of the threshold
+    private static final int BACK_EDGE_FACTOR = 100;
+
+    // Calls with unexpected argument types before compiled code is dropped
+    static final int DEOPTIMIZE_LIMIT = 10;
+
+    private static final int INTERPRETED = 0;
+    private static final int QUEUED = 1;
+    private static final int COMPILED = 2;
+    private static final int FAILED = 3;
+
+    /**
+     * Data shared by all functions of one compiled script.
+     */
+    static final class Source
+    {
+        final ContextFactory factory;
+        final CompilerEnvirons compilerEnv;
+        final String text;
+        final String sourceName;
+        final int invocationThreshold;
+        final int backEdgeThreshold;
+
+        Source(Context cx, String text, String sourceName)
+        {
+            this.factory = cx.getFactory();
+            this.compilerEnv = new CompilerEnvirons();
+            compilerEnv.initFromContext(cx);
+            compilerEnv.setErrorReporter(SILENT_REPORTER);
+            this.text = text;
+            this.sourceName = sourceName;
+            int threshold = cx.getTieredCompilationThreshold();
+            this.invocationThreshold = threshold;
+            this.backEdgeThreshold
+                = (threshold <= Integer.MAX_VALUE / BACK_EDGE_FACTOR)
+                  ? threshold * BACK_EDGE_FACTOR : Integer.MAX_VALUE;
+        }
+    }
+
+    // Recompiling source that compiled for the interpreter should not
+    // report anything, and any error just keeps the function interpreted
+    private static final ErrorReporter SILENT_REPORTER = new ErrorReporter() {
+        public void warning(String message, String sourceName, int line,
+                            String lineSource, int lineOffset)
+        {
+        }
+
+        public void error(String message, String sourceName, int line,
+                          String lineSource, int lineOffset)
+        {
+            throw runtimeError(message, sourceName, line, lineSource,
+                               lineOffset);
+        }
+
+        public EvaluatorException runtimeError(String message,
+                                               String sourceName, int line,
+                                               String lineSource,
+                                               int lineOffset)
+        {
+            return new EvaluatorException(message, sourceName, line,
+                                          lineSource, lineOffset);
+        }
+    };
+
+    /**
+     * The compiled function for one closure together with the parameters
+     * the compiled code expects to be numbers.
+     */
+    static final class CompiledFunction
+    {
+        final Function function;
+        final int numberParams;
+        final int generation;
+
+        CompiledFunction(Function function, int numberParams,
+                         int generation)
+        {
+            this.function = function;
+            this.numberParams = numberParams;
+            this.generation = generation;
+        }
+
+        /**
+         * Return true if the compiled code can be called with the
+         * arguments.
+         */
+        boolean acceptsArguments(Object[] args)
+        {
+            int mask = numberParams;
+            for (int i = 0; mask != 0; ++i, mask >>>= 1) {
+                if ((mask & 1) != 0
+                    && (i >= args.length || !isNumber(args[i])))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final LinkedList<TieredCompiler> queue
+        = new LinkedList<TieredCompiler>();
+    private static Thread worker;
+
+    private final Source source;
+    private final int start;
+    private final int end;
+    private final int lineno;
+    private final boolean anonymous;
+
+    private volatile int state;
+    private volatile int generation;
+    private int numberParams;
+    private int deoptimizeCount;
+    private Object bytecode;
+    private Constructor<?> constructor;
+
+    private TieredCompiler(Source source, int start, int end, int lineno,
+                           boolean anonymous)
+    {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.lineno = lineno;
+        this.anonymous = anonymous;
+    }
+
+    /**
+     * Return the compiler for the function or null if it always has to be
+     * interpreted.
+     */
+    static TieredCompiler create(Source source, FunctionNode fn)
+    {
+        if (fn.requiresActivation() || fn.isGenerator()) {
+            return null;
+        }
+        boolean anonymous = fn.getFunctionName() == null
+                            || fn.getName().length() == 0;
+        if (fn.getFunctionType() == FunctionNode.FUNCTION_EXPRESSION
+            && !anonymous)
+        {
+            // Its name refers to the function object itself
+            return null;
+        }
+        int start = fn.getAbsolutePosition();
+        int end = start + fn.getLength();
+        if (start < 0 || end > source.text.length()
+            || !source.text.startsWith("function", start))
+        {
+            // Getters and setters in object literals
+            return null;
+        }
+        return new TieredCompiler(source, start, end, fn.getLineno(),
+                                  anonymous);
+    }
+
+    /**
+     * Count a call of the interpreted function and record the types of the
+     * first argCount values in args, which hold its parameters.
+     */
+    void countInvocation(InterpreterData idata, Object[] args, int argCount)
+    {
+        if (state == INTERPRETED) {
+            recordArguments(idata, args, argCount);
+        }
+        if (++idata.itsInvocationCount == source.invocationThreshold) {
+            schedule(idata);
+        }
+    }
+
+    void countBackEdge(InterpreterData idata)
+    {
+        if (++idata.itsBackEdgeCount == source.backEdgeThreshold) {
+            schedule(idata);
+        }
+    }
+
+    private static void recordArguments(InterpreterData idata,
+                                        Object[] args, int argCount)
+    {
+        int paramCount = Math.min(idata.argCount, 32);
+        int nonNumbers = idata.itsNonNumberParams;
+        for (int i = 0; i != paramCount; ++i) {
+            if (i >= argCount || !isNumber(args[i])) {
+                nonNumbers |= 1 << i;
+            }
+        }
+        idata.itsNonNumberParams = nonNumbers;
+    }
+
+    private static boolean isNumber(Object value)
+    {
+        return value == UniqueTag.DOUBLE_MARK || value instanceof Double
+               || value instanceof Integer;
+    }
+
+    boolean isCompiled()
+    {
+        return state == COMPILED;
+    }
+
+    /**
+     * Return true if the compiled function was created from the current
+     * compiled code.
+     */
+    boolean isCurrent(CompiledFunction f)
+    {
+        return f.generation == generation;
+    }
+
+    /**
+     * Called when a call with the given arguments could not use the
+     * compiled function. Drop the compiled code if that happens too often.
+     */
+    synchronized void deoptimize(InterpreterData idata, CompiledFunction f,
+                                 Object[] args)
+    {
+        recordArguments(idata, args, args.length);
+        if (state != COMPILED || f.generation != generation
+            || ++deoptimizeCount < DEOPTIMIZE_LIMIT)
+        {
+            return;
+        }
+        // Compile again once the function is hot with the new types
+        ++generation;
+        deoptimizeCount = 0;
+        bytecode = null;
+        constructor = null;
+        idata.itsInvocationCount = 0;
+        idata.itsBackEdgeCount = 0;
+        state = INTERPRETED;
+    }
+
+    /**
+     * Create the compiled function for an interpreted function with the
+     * given parent scope. The class is defined on the first call and
+     * shared by later ones. Return null if compiled code is not available.
+     */
+    synchronized CompiledFunction createFunction(Context cx,
+                                                 Scriptable scope)
+    {
+        if (state != COMPILED) {
+            return null;
+        }
+        try {
+            Function f;
+            if (constructor == null) {
+                Evaluator codegen = Context.createCodegen();
+                f = codegen.createFunctionObject(cx, scope, bytecode, null);
+                constructor = f.getClass().getConstructors()[0];
+                bytecode = null;
+            } else {
+                Object[] initArgs = { scope, cx, Integer.valueOf(0) };
+                f = (Function)constructor.newInstance(initArgs);
+            }
+            return new CompiledFunction(f, numberParams, generation);
+        } catch (Exception ex) {
+            state = FAILED;
+            bytecode = null;
+            constructor = null;
+            return null;
+        }
+    }
+
+    private void schedule(InterpreterData idata)
+    {
+        synchronized (this) {
+            if (state != INTERPRETED) {
+                return;
+            }
+            int paramCount = Math.min(idata.argCount, 32);
+            int params = (paramCount == 32) ? -1 : (1 << paramCount) - 1;
+            numberParams = params & ~idata.itsNonNumberParams;
+            state = QUEUED;
+        }
+        synchronized (queue) {
+            queue.addLast(this);
+            if (worker != null) {
+                queue.notify();
+                return;
+            }
+            try {
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        processQueue();
+                    }
+                }, "Rhino tiered compiler");
+                t.setDaemon(true);
+                t.start();
+                worker = t;
+            } catch (SecurityException ex) {
+                queue.clear();
+                state = FAILED;
+            }
+        }
+    }
+
+    private static void processQueue()
+    {
+        for (;;) {
+            TieredCompiler task;
+            synchronized (queue) {
+                while (queue.isEmpty()) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException ex) {
+                        worker = null;
+                        return;
+                    }
+                }
+                task = queue.removeFirst();
+            }
+            task.compileInBackground();
+        }
+    }
+
+    private void compileInBackground()
+    {
+        Object result = null;
+        try {
+            result = source.factory.call(new ContextAction() {
+                public Object run(Context cx) {
+                    return compile();
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Keep the function interpreted
+        } catch (StackOverflowError ex) {
+            // Source nesting too deep for the optimizer
+        }
+        synchronized (this) {
+            bytecode = result;
+            state = (result != null) ? COMPILED : FAILED;
+        }
+    }
+
+    private Object compile()
+    {
+        CompilerEnvirons compilerEnv = source.compilerEnv;
+        Parser p = new Parser(compilerEnv, compilerEnv.getErrorReporter());
+        // Named functions are parsed as statements so their name is not
+        // bound to the compiled function object
+        p.calledByCompileFunction = anonymous;
+        AstRoot ast = p.parse(source.text.substring(start, end),
+                              source.sourceName, lineno);
+        IRFactory irf = new IRFactory(compilerEnv,
+                                      compilerEnv.getErrorReporter());
+        ScriptNode tree = irf.transformTree(ast);
+        if (tree.getFunctionCount() != 1
+            || tree.getFunctionNode(0).requiresActivation())
+        {
+            return null;
+        }
+        if (numberParams != 0) {
+            tree.getFunctionNode(0).putIntProp(Node.NUMBER_PARAMS_PROP,
+                                               numberParams);
+        }
+        Evaluator codegen = Context.createCodegen();
+        return codegen.compile(compilerEnv, tree, tree.getEncodedSource(),
+                               true);
+    }
+}
@@ -432,7 +432,10 @@ class TokenStream
                         }
                     }
                 }
-                this.string = (String)allStrings.intern(str);
+                // Identifiers are usually property or variable names, use
+                // the canonical instance so runtime lookups compare them by
+                // reference
+                this.string = ScriptableObject.internPropertyName(str);
                 return Token.NAME;
             }
 
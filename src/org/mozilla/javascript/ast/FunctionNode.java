@@ -115,6 +115,8 @@ public class FunctionNode extends ScriptNode {
     // codegen variables
     private int functionType;
     private boolean needsActivation;
+    private boolean activationForClosuresOnly;
+    private boolean[] paramAndVarInRegister;
     private boolean ignoreDynamicScope;
     private boolean isGenerator;
     private List<Node> generatorResumePoints;
@@ -312,6 +314,29 @@ public class FunctionNode extends ScriptNode {
 
     public void setRequiresActivation() {
         needsActivation = true;
+        activationForClosuresOnly = false;
+    }
+
+    /**
+     * Return true if this function requires an activation object only
+     * because it contains nested functions.  Then only the variables the
+     * nested functions use must be stored in the activation object.
+     */
+    public boolean isActivationForClosuresOnly() {
+        return activationForClosuresOnly;
+    }
+
+    /**
+     * Returns for each parameter and variable whether it is kept in a
+     * register although the function requires activation, or null if
+     * all of them are stored in the activation object.
+     */
+    public boolean[] getParamAndVarInRegister() {
+        return paramAndVarInRegister;
+    }
+
+    public void setParamAndVarInRegister(boolean[] inRegister) {
+        paramAndVarInRegister = inRegister;
     }
 
     public boolean getIgnoreDynamicScope() {
@@ -353,8 +378,12 @@ public class FunctionNode extends ScriptNode {
     @Override
     public int addFunction(FunctionNode fnNode) {
         int result = super.addFunction(fnNode);
-        if (getFunctionCount() > 0) {
+        if (getFunctionCount() > 0 && !needsActivation) {
+            // Functions containing other functions require activation
+            // objects. Unless something else needs one, it only has to
+            // hold the variables the nested functions use.
             needsActivation = true;
+            activationForClosuresOnly = true;
         }
         return result;
     }
@@ -151,11 +151,16 @@ public class Codegen implements Evaluator
         // The generated classes in this case refer only to Rhino classes
         // which must be accessible through this class loader
         ClassLoader rhinoLoader = getClass().getClassLoader();
-        GeneratedClassLoader loader;
-        loader = SecurityController.createLoader(rhinoLoader,
-                                                 staticSecurityDomain);
+        Context cx = Context.getCurrentContext();
         Exception e;
         try {
+            if (staticSecurityDomain == null && cx != null) {
+                return cx.getFactory().defineGeneratedClass(
+                    cx, rhinoLoader, className, classBytes);
+            }
+            GeneratedClassLoader loader;
+            loader = SecurityController.createLoader(rhinoLoader,
+                                                     staticSecurityDomain);
             Class<?> cl = loader.defineClass(className, classBytes);
             loader.linkClass(cl);
             return cl;
@@ -227,8 +232,12 @@ public class Codegen implements Evaluator
                 int functionCount = tree.getFunctionCount();
                 for (int i = 0; i != functionCount; ++i) {
                     OptFunctionNode ofn = OptFunctionNode.get(tree, i);
+                    // Functions with parameter types from the interpreter
+                    // are only called through the generic call
                     if (ofn.fnode.getFunctionType()
-                        == FunctionNode.FUNCTION_STATEMENT)
+                        == FunctionNode.FUNCTION_STATEMENT
+                        && ofn.fnode.getIntProp(Node.NUMBER_PARAMS_PROP, 0)
+                           == 0)
                     {
                         String name = ofn.fnode.getName();
                         if (name.length() != 0) {
@@ -807,12 +816,28 @@ public class Codegen implements Evaluator
         final int Do_getParamOrVarName    = 3;
         final int Do_getEncodedSource     = 4;
         final int Do_getParamOrVarConst   = 5;
-        final int SWITCH_COUNT            = 6;
+        final int Do_getParamOrVarInRegister = 6;
+        final int SWITCH_COUNT            = 7;
+
+        boolean hasVarsInRegisters = false;
+        for (int i = 0; i != scriptOrFnNodes.length; ++i) {
+            ScriptNode n = scriptOrFnNodes[i];
+            if (n.getType() == Token.FUNCTION
+                && ((FunctionNode)n).getParamAndVarInRegister() != null)
+            {
+                hasVarsInRegisters = true;
+            }
+        }
 
         for (int methodIndex = 0; methodIndex != SWITCH_COUNT; ++methodIndex) {
             if (methodIndex == Do_getEncodedSource && encodedSource == null) {
                 continue;
             }
+            if (methodIndex == Do_getParamOrVarInRegister
+                && !hasVarsInRegisters)
+            {
+                continue;
+            }
 
             // Generate:
             //   prologue;
@@ -846,6 +871,11 @@ public class Codegen implements Evaluator
                 cfw.startMethod("getParamOrVarConst", "(I)Z",
                                 ClassFileWriter.ACC_PUBLIC);
                 break;
+              case Do_getParamOrVarInRegister:
+                methodLocals = 1 + 1 + 1; // this + paramOrVarIndex
+                cfw.startMethod("getParamOrVarInRegister", "(I)Z",
+                                ClassFileWriter.ACC_PUBLIC);
+                break;
               case Do_getEncodedSource:
                 methodLocals = 1; // Only this
                 cfw.startMethod("getEncodedSource", "()Ljava/lang/String;",
@@ -946,11 +976,23 @@ public class Codegen implements Evaluator
                     break;
 
                     case Do_getParamOrVarConst:
+                    case Do_getParamOrVarInRegister:
                         // Push name of parameter using another switch
                         // over paramAndVarCount
                         paramAndVarCount = n.getParamAndVarCount();
-                        boolean [] constness = n.getParamAndVarConst();
-                        if (paramAndVarCount == 0) {
+                        boolean [] flags;
+                        if (methodIndex == Do_getParamOrVarConst) {
+                            flags = n.getParamAndVarConst();
+                        } else if (n.getType() == Token.FUNCTION) {
+                            flags = ((FunctionNode)n)
+                                            .getParamAndVarInRegister();
+                        } else {
+                            flags = null;
+                        }
+                        if (flags == null) {
+                            cfw.add(ByteCode.ICONST_0);
+                            cfw.add(ByteCode.IRETURN);
+                        } else if (paramAndVarCount == 0) {
                             // The runtime should never call the method in this
                             // case but to make bytecode verifier happy return null
                             // as throwing execption takes more code
@@ -959,7 +1001,7 @@ public class Codegen implements Evaluator
                         } else if (paramAndVarCount == 1) {
                             // As above do not check for valid index but always
                             // return the name of the first param
-                            cfw.addPush(constness[0]);
+                            cfw.addPush(flags[0]);
                             cfw.add(ByteCode.IRETURN);
                         } else {
                             // Do switch over getParamOrVarName
@@ -976,7 +1018,7 @@ public class Codegen implements Evaluator
                                     cfw.markTableSwitchCase(paramSwitchStart, j - 1,
                                                             0);
                                 }
-                                cfw.addPush(constness[j]);
+                                cfw.addPush(flags[j]);
                                 cfw.add(ByteCode.IRETURN);
                             }
                         }
@@ -1066,12 +1108,28 @@ public class Codegen implements Evaluator
     private void emitConstantDudeInitializers(ClassFileWriter cfw)
     {
         int N = itsConstantListSize;
-        if (N == 0)
+        if (N == 0 && itsPropertyCacheCount == 0)
             return;
 
         cfw.startMethod("<clinit>", "()V",
             (short)(ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL));
 
+        if (itsPropertyCacheCount != 0) {
+            cfw.addField(PROPERTY_CACHES_FIELD_NAME,
+                         PROPERTY_CACHES_FIELD_SIGNATURE,
+                         (short)(ClassFileWriter.ACC_STATIC
+                                 | ClassFileWriter.ACC_PRIVATE
+                                 | ClassFileWriter.ACC_FINAL));
+            cfw.addPush(itsPropertyCacheCount);
+            cfw.addInvoke(ByteCode.INVOKESTATIC,
+                          "org/mozilla/javascript/optimizer/OptRuntime",
+                          "newPropertyCaches",
+                          "(I)"+PROPERTY_CACHES_FIELD_SIGNATURE);
+            cfw.add(ByteCode.PUTSTATIC, mainClassName,
+                    PROPERTY_CACHES_FIELD_NAME,
+                    PROPERTY_CACHES_FIELD_SIGNATURE);
+        }
+
         double[] array = itsConstantList;
         for (int i = 0; i != N; ++i) {
             double num = array[i];
@@ -1208,6 +1266,20 @@ public class Codegen implements Evaluator
         }
     }
 
+    /**
+     * Push the inline cache for a new property access site. The caches of
+     * all sites are kept in one static array created by the class
+     * initializer, see {@link OptRuntime#newPropertyCaches(int)}.
+     */
+    void pushPropertyCache(ClassFileWriter cfw)
+    {
+        cfw.add(ByteCode.GETSTATIC, mainClassName,
+                PROPERTY_CACHES_FIELD_NAME, PROPERTY_CACHES_FIELD_SIGNATURE);
+        cfw.addPush(itsPropertyCacheCount);
+        cfw.add(ByteCode.AALOAD);
+        ++itsPropertyCacheCount;
+    }
+
     private static void addDoubleWrap(ClassFileWriter cfw)
     {
         cfw.addInvoke(ByteCode.INVOKESTATIC,
@@ -1319,6 +1391,10 @@ public class Codegen implements Evaluator
     static final String DIRECT_CALL_PARENT_FIELD = "_dcp";
     private static final String ID_FIELD_NAME = "_id";
 
+    private static final String PROPERTY_CACHES_FIELD_NAME = "_pc";
+    private static final String PROPERTY_CACHES_FIELD_SIGNATURE
+        = "[Lorg/mozilla/javascript/PropertyCache;";
+
     private static final String REGEXP_INIT_METHOD_NAME = "_reInit";
     private static final String REGEXP_INIT_METHOD_SIGNATURE
         =  "(Lorg/mozilla/javascript/RegExpProxy;"
@@ -1352,6 +1428,7 @@ public class Codegen implements Evaluator
 
     private double[] itsConstantList;
     private int itsConstantListSize;
+    private int itsPropertyCacheCount;
 }
 
 
@@ -1503,7 +1580,8 @@ class BodyCodegen
         varRegisters = null;
         if (scriptOrFn.getType() == Token.FUNCTION) {
             fnCurrent = OptFunctionNode.get(scriptOrFn);
-            hasVarsInRegs = !fnCurrent.fnode.requiresActivation();
+            hasVarsInRegs = !fnCurrent.fnode.requiresActivation()
+                || fnCurrent.fnode.getParamAndVarInRegister() != null;
             if (hasVarsInRegs) {
                 int n = fnCurrent.fnode.getParamAndVarCount();
                 if (n != 0) {
@@ -1645,7 +1723,14 @@ class BodyCodegen
             saveCurrentCodeOffset();
 
         if (hasVarsInRegs) {
-            // No need to create activation. Pad arguments if need be.
+            boolean[] inRegister = fnCurrent.fnode.getParamAndVarInRegister();
+            if (inRegister != null) {
+                // The activation holds the variables nested functions
+                // use. Create it before padding the arguments.
+                generateActivationCreation();
+            }
+
+            // Pad arguments if need be.
             int parmCount = scriptOrFn.getParamCount();
             if (parmCount > 0 && !inDirectCallFunction) {
                 // Set up args array
@@ -1672,14 +1757,25 @@ class BodyCodegen
             // before the next call and are used in the function
             short firstUndefVar = -1;
             for (int i = 0; i != varCount; ++i) {
+                if (inRegister != null && !inRegister[i]) {
+                    continue;
+                }
                 short reg = -1;
                 if (i < paramCount) {
                     if (!inDirectCallFunction) {
-                        reg = getNewWordLocal();
+                        boolean isNumber = fnCurrent.isNumberVar(i);
+                        reg = isNumber ? getNewWordPairLocal(false)
+                                       : getNewWordLocal();
                         cfw.addALoad(argsLocal);
                         cfw.addPush(i);
                         cfw.add(ByteCode.AALOAD);
-                        cfw.addAStore(reg);
+                        if (isNumber) {
+                            // The caller checked that it is a number
+                            addObjectToDouble();
+                            cfw.addDStore(reg);
+                        } else {
+                            cfw.addAStore(reg);
+                        }
                     }
                 } else if (fnCurrent.isNumberVar(i)) {
                     reg = getNewWordPairLocal(constDeclarations[i]);
@@ -1716,8 +1812,10 @@ class BodyCodegen
                 }
             }
 
-            // Skip creating activation object.
-            return;
+            if (inRegister == null) {
+                // Skip creating activation object.
+                return;
+            }
         }
 
         // skip creating activation object for the body of a generator. The
@@ -1730,15 +1828,9 @@ class BodyCodegen
         String debugVariableName;
         if (fnCurrent != null) {
             debugVariableName = "activation";
-            cfw.addALoad(funObjLocal);
-            cfw.addALoad(variableObjectLocal);
-            cfw.addALoad(argsLocal);
-            addScriptRuntimeInvoke("createFunctionActivation",
-                                   "(Lorg/mozilla/javascript/NativeFunction;"
-                                   +"Lorg/mozilla/javascript/Scriptable;"
-                                   +"[Ljava/lang/Object;"
-                                   +")Lorg/mozilla/javascript/Scriptable;");
-            cfw.addAStore(variableObjectLocal);
+            if (!hasVarsInRegs) {
+                generateActivationCreation();
+            }
             cfw.addALoad(contextLocal);
             cfw.addALoad(variableObjectLocal);
             addScriptRuntimeInvoke("enterActivationFunction",
@@ -1801,6 +1893,19 @@ class BodyCodegen
         }
     }
 
+    private void generateActivationCreation()
+    {
+        cfw.addALoad(funObjLocal);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addALoad(argsLocal);
+        addScriptRuntimeInvoke("createFunctionActivation",
+                               "(Lorg/mozilla/javascript/NativeFunction;"
+                               +"Lorg/mozilla/javascript/Scriptable;"
+                               +"[Ljava/lang/Object;"
+                               +")Lorg/mozilla/javascript/Scriptable;");
+        cfw.addAStore(variableObjectLocal);
+    }
+
     private void generateGetGeneratorResumptionPoint()
     {
         cfw.addALoad(generatorStateLocal);
@@ -1865,14 +1970,13 @@ class BodyCodegen
 
                         // start generating a dispatch table
                         int startSwitch = cfw.addTableSwitch(0,
-                                            ret.jsrPoints.size() - 1);
+                                            ret.jsrPointsTop - 1);
                         int c = 0;
                         cfw.markTableSwitchDefault(startSwitch);
-                        for (int i = 0; i < ret.jsrPoints.size(); i++) {
+                        for (int i = 0; i < ret.jsrPointsTop; i++) {
                             // generate gotos back to the JSR location
                             cfw.markTableSwitchCase(startSwitch, c);
-                            cfw.add(ByteCode.GOTO,
-                                    ret.jsrPoints.get(i).intValue());
+                            cfw.add(ByteCode.GOTO, ret.jsrPoints[i]);
                             c++;
                         }
                     }
@@ -1884,7 +1988,7 @@ class BodyCodegen
             cfw.markLabel(epilogueLabel);
         }
 
-        if (hasVarsInRegs) {
+        if (hasVarsInRegs && enterAreaStartLabel == -1) {
             cfw.add(ByteCode.ARETURN);
             return;
         } else if (isGenerator) {
@@ -1941,7 +2045,7 @@ class BodyCodegen
 
     private void generateActivationExit()
     {
-        if (fnCurrent == null || hasVarsInRegs) throw Kit.codeBug();
+        if (fnCurrent == null || enterAreaStartLabel == -1) throw Kit.codeBug();
         cfw.addALoad(contextLocal);
         addScriptRuntimeInvoke("exitActivationFunction",
                                "(Lorg/mozilla/javascript/Context;)V");
@@ -2274,6 +2378,16 @@ class BodyCodegen
                 break;
 
               case Token.NAME:
+                if (isOuterVar(node)) {
+                    addOuterVarInvoke("getOuterVar", node,
+                        "(Lorg/mozilla/javascript/Scriptable;"
+                        +"I"
+                        +"I"
+                        +"Ljava/lang/String;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +")Ljava/lang/Object;");
+                    break;
+                }
                 {
                     cfw.addALoad(contextLocal);
                     cfw.addALoad(variableObjectLocal);
@@ -2522,14 +2636,14 @@ class BodyCodegen
                       default:
                         if (child.getType() == Token.STRING) {
                             addScriptRuntimeInvoke("add",
-                                "(Ljava/lang/String;"
+                                "(Ljava/lang/CharSequence;"
                                 +"Ljava/lang/Object;"
-                                +")Ljava/lang/String;");
+                                +")Ljava/lang/CharSequence;");
                         } else if (child.getNext().getType() == Token.STRING) {
                             addScriptRuntimeInvoke("add",
                                 "(Ljava/lang/Object;"
-                                +"Ljava/lang/String;"
-                                +")Ljava/lang/String;");
+                                +"Ljava/lang/CharSequence;"
+                                +")Ljava/lang/CharSequence;");
                         } else {
                             cfw.addALoad(contextLocal);
                             addScriptRuntimeInvoke("add",
@@ -3134,11 +3248,11 @@ class BodyCodegen
 
     private void addGotoWithReturn(Node target) {
         FinallyReturnPoint ret = finallys.get(target);
-        cfw.addLoadConstant(ret.jsrPoints.size());
+        cfw.addLoadConstant(ret.jsrPointsTop);
         addGoto(target, ByteCode.GOTO);
         int retLabel = cfw.acquireLabel();
         cfw.markLabel(retLabel);
-        ret.jsrPoints.add(Integer.valueOf(retLabel));
+        ret.addJsrPoint(retLabel);
     }
 
     private void visitArrayLiteral(Node node, Node child)
@@ -3302,9 +3416,13 @@ class BodyCodegen
 
         String methodName;
         String signature;
+        boolean useCache = false;
+
+        // Variables of enclosing functions use the generic calls
+        boolean nameCall = childType == Token.NAME && !isOuterVar(child);
 
         if (firstArgChild == null) {
-            if (childType == Token.NAME) {
+            if (nameCall) {
                 // name() call
                 String name = child.getString();
                 cfw.addPush(name);
@@ -3321,10 +3439,13 @@ class BodyCodegen
                 String property = id.getString();
                 cfw.addPush(property);
                 methodName = "callProp0";
+                useCache = compilerEnv.isGeneratePropertyCaches();
                 signature = "(Ljava/lang/Object;"
                             +"Ljava/lang/String;"
                             +"Lorg/mozilla/javascript/Context;"
                             +"Lorg/mozilla/javascript/Scriptable;"
+                            +(useCache
+                              ? "Lorg/mozilla/javascript/PropertyCache;" : "")
                             +")Ljava/lang/Object;";
             } else if (childType == Token.GETPROPNOWARN) {
                 throw Kit.codeBug();
@@ -3338,7 +3459,7 @@ class BodyCodegen
                             +")Ljava/lang/Object;";
             }
 
-        } else if (childType == Token.NAME) {
+        } else if (nameCall) {
             // XXX: this optimization is only possible if name
             // resolution
             // is not affected by arguments evaluation and currently
@@ -3393,6 +3514,9 @@ class BodyCodegen
 
         cfw.addALoad(contextLocal);
         cfw.addALoad(variableObjectLocal);
+        if (useCache) {
+            codegen.pushPropertyCache(cfw);
+        }
         addOptRuntimeInvoke(methodName, signature);
     }
 
@@ -3638,13 +3762,25 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 cfw.addPush(property);
                 cfw.addALoad(contextLocal);
                 cfw.addALoad(variableObjectLocal);
-                addScriptRuntimeInvoke(
-                    "getPropFunctionAndThis",
-                    "(Ljava/lang/Object;"
-                    +"Ljava/lang/String;"
-                    +"Lorg/mozilla/javascript/Context;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +")Lorg/mozilla/javascript/Callable;");
+                if (compilerEnv.isGeneratePropertyCaches()) {
+                    codegen.pushPropertyCache(cfw);
+                    addOptRuntimeInvoke(
+                        "getPropFunctionAndThis",
+                        "(Ljava/lang/Object;"
+                        +"Ljava/lang/String;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +"Lorg/mozilla/javascript/PropertyCache;"
+                        +")Lorg/mozilla/javascript/Callable;");
+                } else {
+                    addScriptRuntimeInvoke(
+                        "getPropFunctionAndThis",
+                        "(Ljava/lang/Object;"
+                        +"Ljava/lang/String;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +")Lorg/mozilla/javascript/Callable;");
+                }
             } else {
                 // Optimizer do not optimize this case for now
                 if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1)
@@ -3662,6 +3798,16 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
           }
 
           case Token.NAME: {
+            if (isOuterVar(node)) {
+                addOuterVarInvoke("getOuterVarFunctionAndThis", node,
+                    "(Lorg/mozilla/javascript/Scriptable;"
+                    +"I"
+                    +"I"
+                    +"Ljava/lang/String;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +")Lorg/mozilla/javascript/Callable;");
+                break;
+            }
             String name = node.getString();
             cfw.addPush(name);
             cfw.addALoad(contextLocal);
@@ -4464,7 +4610,20 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
 
     private void visitSetName(Node node, Node child)
     {
-        String name = node.getFirstChild().getString();
+        Node nameNode = node.getFirstChild();
+        if (isOuterVar(nameNode)) {
+            generateExpression(child.getNext(), node);
+            addOuterVarInvoke("setOuterVar", nameNode,
+                "(Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +"I"
+                +"I"
+                +"Ljava/lang/String;"
+                +"Lorg/mozilla/javascript/Context;"
+                +")Ljava/lang/Object;");
+            return;
+        }
+        String name = nameNode.getString();
         while (child != null) {
             generateExpression(child, node);
             child = child.getNext();
@@ -4482,6 +4641,34 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             +")Ljava/lang/Object;");
     }
 
+    /**
+     * Check if nameNode refers to a variable of an enclosing function
+     * that can be accessed by depth and index, see
+     * {@link Node#OUTER_VAR_PROP}.
+     */
+    private boolean isOuterVar(Node nameNode)
+    {
+        return !compilerEnv.isUseDynamicScope()
+            && nameNode.getIntProp(Node.OUTER_VAR_PROP, -1) != -1;
+    }
+
+    /**
+     * Call the ScriptRuntime method accessing the variable of an enclosing
+     * function nameNode refers to. The value to set, if any, must already
+     * be on the stack.
+     */
+    private void addOuterVarInvoke(String methodName, Node nameNode,
+                                   String signature)
+    {
+        int depthAndIndex = nameNode.getExistingIntProp(Node.OUTER_VAR_PROP);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addPush(depthAndIndex >>> 16);
+        cfw.addPush(depthAndIndex & 0xFFFF);
+        cfw.addPush(nameNode.getString());
+        cfw.addALoad(contextLocal);
+        addScriptRuntimeInvoke(methodName, signature);
+    }
+
     private void visitSetConst(Node node, Node child)
     {
         String name = node.getFirstChild().getString();
@@ -4641,6 +4828,20 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 +")Ljava/lang/Object;");
             return;
         }
+        if (compilerEnv.isGeneratePropertyCaches()) {
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            codegen.pushPropertyCache(cfw);
+            addOptRuntimeInvoke(
+                "getObjectProp",
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/String;"
+                +"Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +"Lorg/mozilla/javascript/PropertyCache;"
+                +")Ljava/lang/Object;");
+            return;
+        }
         /*
             for 'this.foo' we call getObjectProp(Scriptable...) which can
             skip some casting overhead.
@@ -4669,6 +4870,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
 
     private void visitSetProp(int type, Node node, Node child)
     {
+        boolean useCache = compilerEnv.isGeneratePropertyCaches();
         Node objectChild = child;
         generateExpression(child, node);
         child = child.getNext();
@@ -4681,11 +4883,23 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         if (type == Token.SETPROP_OP) {
             // stack: ... object object name -> ... object name object name
             cfw.add(ByteCode.DUP_X1);
-            //for 'this.foo += ...' we call thisGet which can skip some
-            //casting overhead.
-            if (objectChild.getType() == Token.THIS
-                && nameChild.getType() == Token.STRING)
+            if (useCache) {
+                cfw.addALoad(contextLocal);
+                cfw.addALoad(variableObjectLocal);
+                codegen.pushPropertyCache(cfw);
+                addOptRuntimeInvoke(
+                    "getObjectProp",
+                    "(Ljava/lang/Object;"
+                    +"Ljava/lang/String;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +"Lorg/mozilla/javascript/PropertyCache;"
+                    +")Ljava/lang/Object;");
+            } else if (objectChild.getType() == Token.THIS
+                       && nameChild.getType() == Token.STRING)
             {
+                //for 'this.foo += ...' we call thisGet which can skip some
+                //casting overhead.
                 cfw.addALoad(contextLocal);
                 addScriptRuntimeInvoke(
                     "getObjectProp",
@@ -4705,13 +4919,25 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
         generateExpression(child, node);
         cfw.addALoad(contextLocal);
-        addScriptRuntimeInvoke(
-            "setObjectProp",
-            "(Ljava/lang/Object;"
-            +"Ljava/lang/String;"
-            +"Ljava/lang/Object;"
-            +"Lorg/mozilla/javascript/Context;"
-            +")Ljava/lang/Object;");
+        if (useCache) {
+            codegen.pushPropertyCache(cfw);
+            addOptRuntimeInvoke(
+                "setObjectProp",
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/String;"
+                +"Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/PropertyCache;"
+                +")Ljava/lang/Object;");
+        } else {
+            addScriptRuntimeInvoke(
+                "setObjectProp",
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/String;"
+                +"Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +")Ljava/lang/Object;");
+        }
     }
 
     private void visitSetElem(int type, Node node, Node child)
@@ -5075,7 +5301,17 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private Map<Node,FinallyReturnPoint> finallys;
 
     static class FinallyReturnPoint {
-        public List<Integer> jsrPoints  = new ArrayList<Integer>();
-        public int tableLabel = 0;        
+        public int[] jsrPoints = new int[4];
+        public int jsrPointsTop = 0;
+        public int tableLabel = 0;
+
+        void addJsrPoint(int label) {
+            if (jsrPointsTop == jsrPoints.length) {
+                int[] tmp = new int[jsrPoints.length * 2];
+                System.arraycopy(jsrPoints, 0, tmp, 0, jsrPointsTop);
+                jsrPoints = tmp;
+            }
+            jsrPoints[jsrPointsTop++] = label;
+        }
     }
 }
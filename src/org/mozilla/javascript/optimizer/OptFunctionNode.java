@@ -100,10 +100,25 @@ final class OptFunctionNode
         return varIndex < fnode.getParamCount();
     }
 
+    /**
+     * Return true if the parameter is known to be a number on entry. This
+     * comes from the types the interpreter observed before the function
+     * was compiled, and the caller of the compiled function checks it.
+     */
+    boolean isNumberParameter(int varIndex)
+    {
+        if (!isParameter(varIndex) || varIndex >= 32
+            || isTargetOfDirectCall())
+        {
+            return false;
+        }
+        int numberParams = fnode.getIntProp(Node.NUMBER_PARAMS_PROP, 0);
+        return (numberParams & (1 << varIndex)) != 0;
+    }
+
     boolean isNumberVar(int varIndex)
     {
-        varIndex -= fnode.getParamCount();
-        if (varIndex >= 0 && numberVarFlags != null) {
+        if (numberVarFlags != null) {
             return numberVarFlags[varIndex];
         }
         return false;
@@ -111,12 +126,13 @@ final class OptFunctionNode
 
     void setIsNumberVar(int varIndex)
     {
-        varIndex -= fnode.getParamCount();
-        // Can only be used with non-parameters
-        if (varIndex < 0) Kit.codeBug();
+        // Can only be used with non-parameters or parameters known to be
+        // numbers on entry
+        if (isParameter(varIndex) && !isNumberParameter(varIndex)) {
+            Kit.codeBug();
+        }
         if (numberVarFlags == null) {
-            int size = fnode.getParamAndVarCount() - fnode.getParamCount();
-            numberVarFlags = new boolean[size];
+            numberVarFlags = new boolean[fnode.getParamAndVarCount()];
         }
         numberVarFlags[varIndex] = true;
     }
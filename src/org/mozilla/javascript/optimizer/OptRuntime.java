@@ -44,9 +44,9 @@ import org.mozilla.javascript.*;
 public final class OptRuntime extends ScriptRuntime
 {
 
-    public static final Double zeroObj = new Double(0.0);
-    public static final Double oneObj = new Double(1.0);
-    public static final Double minusOneObj = new Double(-1.0);
+    public static final Double zeroObj = wrapDouble(0.0);
+    public static final Double oneObj = wrapDouble(1.0);
+    public static final Double minusOneObj = wrapDouble(-1.0);
 
     /**
      * Implement ....() call shrinking optimizer code.
@@ -119,28 +119,73 @@ public final class OptRuntime extends ScriptRuntime
         return f.call(cx, scope, thisObj, ScriptRuntime.emptyArgs);
     }
 
+    public static Object callProp0(Object value, String property,
+                                   Context cx, Scriptable scope,
+                                   PropertyCache cache)
+    {
+        Callable f = cache.getPropFunctionAndThis(value, property, cx, scope);
+        Scriptable thisObj = lastStoredScriptable(cx);
+        return f.call(cx, scope, thisObj, ScriptRuntime.emptyArgs);
+    }
+
+    public static Object getObjectProp(Object obj, String property,
+                                       Context cx, Scriptable scope,
+                                       PropertyCache cache)
+    {
+        return cache.getObjectProp(obj, property, cx, scope);
+    }
+
+    public static Object setObjectProp(Object obj, String property,
+                                       Object value, Context cx,
+                                       PropertyCache cache)
+    {
+        return cache.setObjectProp(obj, property, value, cx);
+    }
+
+    public static Callable getPropFunctionAndThis(Object obj,
+                                                  String property,
+                                                  Context cx,
+                                                  Scriptable scope,
+                                                  PropertyCache cache)
+    {
+        return cache.getPropFunctionAndThis(obj, property, cx, scope);
+    }
+
+    /**
+     * Create the property access caches of a compiled class, one for each
+     * property access site.
+     */
+    public static PropertyCache[] newPropertyCaches(int count)
+    {
+        PropertyCache[] caches = new PropertyCache[count];
+        for (int i = 0; i != count; ++i) {
+            caches[i] = new PropertyCache();
+        }
+        return caches;
+    }
+
     public static Object add(Object val1, double val2)
     {
         if (val1 instanceof Scriptable)
             val1 = ((Scriptable) val1).getDefaultValue(null);
-        if (!(val1 instanceof String))
+        if (!(val1 instanceof CharSequence))
             return wrapDouble(toNumber(val1) + val2);
-        return ((String)val1).concat(toString(val2));
+        return concat((CharSequence)val1, toString(val2));
     }
 
     public static Object add(double val1, Object val2)
     {
         if (val2 instanceof Scriptable)
             val2 = ((Scriptable) val2).getDefaultValue(null);
-        if (!(val2 instanceof String))
+        if (!(val2 instanceof CharSequence))
             return wrapDouble(toNumber(val2) + val1);
-        return toString(val1).concat((String)val2);
+        return concat(toString(val1), (CharSequence)val2);
     }
 
     public static Object elemIncrDecr(Object obj, double index,
                                       Context cx, int incrDecrMask)
     {
-        return ScriptRuntime.elemIncrDecr(obj, new Double(index), cx,
+        return ScriptRuntime.elemIncrDecr(obj, wrapDouble(index), cx,
                                           incrDecrMask);
     }
 
@@ -176,19 +221,8 @@ public final class OptRuntime extends ScriptRuntime
 
     public static Double wrapDouble(double num)
     {
-        if (num == 0.0) {
-            if (1 / num > 0) {
-                // +0.0
-                return zeroObj;
-            }
-        } else if (num == 1.0) {
-            return oneObj;
-        } else if (num == -1.0) {
-            return minusOneObj;
-        } else if (num != num) {
-            return NaNobj;
-        }
-        return new Double(num);
+        // Shares boxed small integers with the interpreter
+        return (Double)ScriptRuntime.wrapNumber(num);
     }
 
     static String encodeIntArray(int[] array)
@@ -63,7 +63,10 @@ class Optimizer
 
     private void optimizeFunction(OptFunctionNode theFunction)
     {
-        if (theFunction.fnode.requiresActivation()) return;
+        // Only variables kept in registers are analyzed
+        boolean varsInRegisters = !theFunction.fnode.requiresActivation()
+            || theFunction.fnode.getParamAndVarInRegister() != null;
+        if (!varsInRegisters) return;
 
         inDirectCallFunction = theFunction.isTargetOfDirectCall();
         this.theFunction = theFunction;
@@ -75,7 +78,7 @@ class Optimizer
 
         Block.runFlowAnalyzes(theFunction, theStatementNodes);
 
-        if (!theFunction.fnode.requiresActivation()) {
+        if (varsInRegisters) {
             /*
              * Now that we know which local vars are in fact always
              * Numbers, we re-write the tree to take advantage of
@@ -42,6 +42,8 @@
 package org.mozilla.javascript.regexp;
 
 import java.io.Serializable;
+import java.util.Arrays;
+
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -140,6 +142,44 @@ public class NativeRegExp extends IdScriptableObject implements Function
     private static final byte REOP_REPEAT        = 51; /* directs execution of greedy quantifier */
     private static final byte REOP_MINIMALREPEAT = 52; /* directs execution of non-greedy quantifier */
     private static final byte REOP_END           = 53;
+
+    /*
+     * Instructions of the program run by matchNfa. Consuming instructions
+     * test the character at the current position; the others are followed
+     * while the threads for a position are collected.
+     */
+    private static final int NFA_CHAR      = 0;  /* char arg */
+    private static final int NFA_CHARi     = 1;  /* char arg, upper case */
+    private static final int NFA_DOT       = 2;
+    private static final int NFA_DIGIT     = 3;
+    private static final int NFA_NONDIGIT  = 4;
+    private static final int NFA_ALNUM     = 5;
+    private static final int NFA_NONALNUM  = 6;
+    private static final int NFA_SPACE     = 7;
+    private static final int NFA_NONSPACE  = 8;
+    private static final int NFA_CLASS     = 9;  /* index of class in arg */
+    private static final int NFA_MATCH     = 10;
+    private static final int NFA_BOL       = 11;
+    private static final int NFA_EOL       = 12;
+    private static final int NFA_WBDRY     = 13;
+    private static final int NFA_WNONBDRY  = 14;
+    private static final int NFA_JUMP      = 15; /* to arg */
+    private static final int NFA_SPLIT     = 16; /* to arg, then to arg2 */
+    private static final int NFA_SAVE      = 17; /* position to slot arg */
+    private static final int NFA_CLEAR     = 18; /* slots arg to arg2 - 1 */
+    private static final int NFA_FAIL      = 19; /* thread ends */
+
+    /* Regexps that need more instructions only use executeREBytecode */
+    private static final int MAX_NFA_LENGTH = 10000;
+
+    /*
+     * Backtracking is fastest for most matches, but can take time
+     * exponential in the input length. Once executeREBytecode backtracked
+     * this often, a regexp with an NFA program is matched with matchNfa,
+     * which takes linear time. For other regexps it can only go on until
+     * Context.getMaximumRegExpBacktracks() is reached.
+     */
+    private static final int MAX_BACKTRACKS_BEFORE_NFA = 20000;
      
 
 
@@ -340,31 +380,557 @@ System.out.println();
 }
         regexp.parenCount = state.parenCount;
 
-        // If re starts with literal, init anchorCh accordingly
-        switch (regexp.program[0]) {
-        case REOP_UCFLAT1:
-        case REOP_UCFLAT1i:
-            regexp.anchorCh = (char)getIndex(regexp.program, 1);
-            break;
-        case REOP_FLAT1:
-        case REOP_FLAT1i:
-            regexp.anchorCh = (char)(regexp.program[1] & 0xFF);
-            break;
-        case REOP_FLAT:
-        case REOP_FLATi:
-            int k = getIndex(regexp.program, 1);
-            regexp.anchorCh = regexp.source[k];
-            break;
-        }
+        analyzeMatchStart(regexp, state.result);
+        regexp.nfa = compileNfa(regexp, state.result);
 
 if (debug) {
-if (regexp.anchorCh >= 0) {
-    System.out.println("Anchor ch = '" + (char)regexp.anchorCh + "'");
+if (regexp.prefix != null) {
+    System.out.println("Prefix = \"" + regexp.prefix + "\"");
+}
+if (regexp.required != null) {
+    System.out.println("Required = \"" + regexp.required + "\"");
 }
 }
         return regexp;
     }
 
+    /*
+     * Results of firstChars: the nodes can not start a match, they can
+     * match the empty string or they start with one of the collected
+     * characters.
+     */
+    private static final int START_UNKNOWN = 0;
+    private static final int START_EMPTY   = 1;
+    private static final int START_CHARS   = 2;
+
+    /*
+     * Finds what every match of the compiled tree must start with or
+     * contain so that matchRegExp can skip start positions where no match
+     * is possible: the literal text the pattern starts with, a literal
+     * that is required somewhere in a match, or the set of characters a
+     * match can start with.
+     */
+    private static void analyzeMatchStart(RECompiled re, RENode t)
+    {
+        if ((re.flags & JSREG_FOLD) == 0) {
+            StringBuilder prefix = new StringBuilder();
+            literalPrefix(re, (t != null && t.op == REOP_BOL) ? t.next : t,
+                          prefix);
+            if (prefix.length() != 0) {
+                re.prefix = prefix.toString();
+            }
+            String required = requiredLiteral(re, t);
+            if (required.length() > 1
+                && required.length() > prefix.length())
+            {
+                re.required = required;
+            }
+        }
+        if (re.prefix == null) {
+            // index 256 stands for all characters above '\u00FF'
+            boolean[] chars = new boolean[257];
+            REGlobalData gData = null;
+            if (re.classCount != 0) {
+                gData = new REGlobalData();
+                gData.regexp = re;
+            }
+            if (firstChars(gData, re, t, chars) == START_CHARS) {
+                re.firstChars = chars;
+            }
+        }
+    }
+
+    private static void appendFlat(RECompiled re, RENode t, StringBuilder sb)
+    {
+        if (t.flatIndex != -1) {
+            sb.append(re.source, t.flatIndex, t.length);
+        } else {
+            sb.append(t.chr);
+        }
+    }
+
+    /*
+     * Appends the literal text the nodes start with to sb and returns
+     * true if they consist of nothing else.
+     */
+    private static boolean literalPrefix(RECompiled re, RENode t,
+                                         StringBuilder sb)
+    {
+        for (; t != null; t = t.next) {
+            if (t.op == REOP_FLAT) {
+                appendFlat(re, t, sb);
+            } else if (t.op != REOP_LPAREN || !literalPrefix(re, t.kid, sb)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the longest literal text that every match of the nodes
+     * contains, looking into groups and into quantifiers with a minimum.
+     */
+    private static String requiredLiteral(RECompiled re, RENode t)
+    {
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        for (; t != null; t = t.next) {
+            if (t.op == REOP_FLAT) {
+                appendFlat(re, t, run);
+                continue;
+            }
+            if (run.length() > longest.length()) {
+                longest = run.toString();
+            }
+            run.setLength(0);
+            if (t.op == REOP_LPAREN || (t.op == REOP_QUANT && t.min > 0)) {
+                String kid = requiredLiteral(re, t.kid);
+                if (kid.length() > longest.length()) {
+                    longest = kid;
+                }
+            }
+        }
+        return run.length() > longest.length() ? run.toString() : longest;
+    }
+
+    /*
+     * Marks in chars the characters a match of the nodes can start with.
+     */
+    private static int firstChars(REGlobalData gData, RECompiled re,
+                                  RENode t, boolean[] chars)
+    {
+        for (; t != null; t = t.next) {
+            int result;
+            switch (t.op) {
+              case REOP_EMPTY:
+              case REOP_BOL:
+              case REOP_EOL:
+              case REOP_WBDRY:
+              case REOP_WNONBDRY:
+              case REOP_ASSERT:
+              case REOP_ASSERT_NOT:
+                // zero width, the next node starts the match
+                break;
+              case REOP_FLAT:
+                addFirstChar(re, t.flatIndex != -1 ? re.source[t.flatIndex]
+                                                   : t.chr, chars);
+                return START_CHARS;
+              case REOP_DIGIT:
+                for (char c = '0'; c <= '9'; c++) {
+                    chars[c] = true;
+                }
+                return START_CHARS;
+              case REOP_ALNUM:
+                for (char c = 0; c < 256; c++) {
+                    if (isWord(c)) chars[c] = true;
+                }
+                chars[256] = true;
+                return START_CHARS;
+              case REOP_SPACE:
+                for (char c = 0; c < 256; c++) {
+                    if (isREWhiteSpace(c)) chars[c] = true;
+                }
+                chars[256] = true;
+                return START_CHARS;
+              case REOP_CLASS: {
+                RECharSet charSet = re.classList[t.index];
+                for (char c = 0; c < 256; c++) {
+                    if (classMatcher(gData, charSet, c)) chars[c] = true;
+                }
+                if (!charSet.sense || charSet.length >= 256) {
+                    chars[256] = true;
+                }
+                return START_CHARS;
+              }
+              case REOP_LPAREN:
+                result = firstChars(gData, re, t.kid, chars);
+                if (result != START_EMPTY) {
+                    return result;
+                }
+                break;
+              case REOP_ALT: {
+                result = firstChars(gData, re, t.kid, chars);
+                if (result == START_UNKNOWN) {
+                    return result;
+                }
+                int result2 = firstChars(gData, re, t.kid2, chars);
+                if (result2 == START_UNKNOWN) {
+                    return result2;
+                }
+                if (result == START_CHARS && result2 == START_CHARS) {
+                    return START_CHARS;
+                }
+                break;
+              }
+              case REOP_QUANT:
+                result = firstChars(gData, re, t.kid, chars);
+                if (result == START_UNKNOWN
+                    || (result == START_CHARS && t.min > 0))
+                {
+                    return result;
+                }
+                break;
+              default:
+                // '.', negated escapes and back references
+                return START_UNKNOWN;
+            }
+        }
+        return START_EMPTY;
+    }
+
+    private static void addFirstChar(RECompiled re, char c, boolean[] chars)
+    {
+        if ((re.flags & JSREG_FOLD) == 0) {
+            chars[c < 256 ? c : 256] = true;
+        } else if (c < 128) {
+            chars[upcase(c)] = true;
+            chars[downcase(c)] = true;
+        } else {
+            // case variants of non-ASCII characters are never ASCII
+            for (int i = 128; i <= 256; i++) {
+                chars[i] = true;
+            }
+        }
+    }
+
+    /*
+     * Compiles the tree to a program for matchNfa, or returns null if the
+     * regexp has back references or lookahead, which only the backtracking
+     * matcher supports, or if the program would be too large.
+     */
+    private static RENfa compileNfa(RECompiled re, RENode t)
+    {
+        RENfa nfa = new RENfa();
+        if (!emitNfa(re, nfa, t, false)) {
+            return null;
+        }
+        nfa.emit(NFA_MATCH, 0, 0);
+        nfa.trim();
+        // Each instruction is followed once: it pushes at most two targets
+        // and the old values of the slots it changes
+        nfa.stackSize = 1 + 2 * nfa.length;
+        for (int pc = 0; pc < nfa.length; pc++) {
+            if (nfa.ops[pc] == NFA_SAVE) {
+                nfa.stackSize += 2;
+            } else if (nfa.ops[pc] == NFA_CLEAR) {
+                nfa.stackSize += 2 * (nfa.args2[pc] - nfa.args[pc]);
+            }
+        }
+        return nfa;
+    }
+
+    private static boolean emitNfa(RECompiled re, RENfa nfa, RENode t,
+                                   boolean inQuant)
+    {
+        for (; t != null; t = t.next) {
+            if (nfa.length > MAX_NFA_LENGTH) {
+                return false;
+            }
+            switch (t.op) {
+              case REOP_EMPTY:
+                break;
+              case REOP_ALT: {
+                if (inQuant && !(setsResult(t.kid) && setsResult(t.kid2))) {
+                    return false;
+                }
+                int split = nfa.emit(NFA_SPLIT, 0, 0);
+                nfa.args[split] = nfa.length;
+                if (!emitNfa(re, nfa, t.kid, inQuant)) {
+                    return false;
+                }
+                int jump = nfa.emit(NFA_JUMP, 0, 0);
+                nfa.args2[split] = nfa.length;
+                if (!emitNfa(re, nfa, t.kid2, inQuant)) {
+                    return false;
+                }
+                nfa.args[jump] = nfa.length;
+                break;
+              }
+              case REOP_BOL:
+                nfa.emit(NFA_BOL, 0, 0);
+                break;
+              case REOP_EOL:
+                nfa.emit(NFA_EOL, 0, 0);
+                break;
+              case REOP_WBDRY:
+                nfa.emit(NFA_WBDRY, 0, 0);
+                break;
+              case REOP_WNONBDRY:
+                nfa.emit(NFA_WNONBDRY, 0, 0);
+                break;
+              case REOP_DOT:
+                emitNfaConsumer(nfa, NFA_DOT, 0);
+                break;
+              case REOP_DIGIT:
+                emitNfaConsumer(nfa, NFA_DIGIT, 0);
+                break;
+              case REOP_NONDIGIT:
+                emitNfaConsumer(nfa, NFA_NONDIGIT, 0);
+                break;
+              case REOP_ALNUM:
+                emitNfaConsumer(nfa, NFA_ALNUM, 0);
+                break;
+              case REOP_NONALNUM:
+                emitNfaConsumer(nfa, NFA_NONALNUM, 0);
+                break;
+              case REOP_SPACE:
+                emitNfaConsumer(nfa, NFA_SPACE, 0);
+                break;
+              case REOP_NONSPACE:
+                emitNfaConsumer(nfa, NFA_NONSPACE, 0);
+                break;
+              case REOP_CLASS:
+                emitNfaConsumer(nfa, NFA_CLASS, t.index);
+                break;
+              case REOP_FLAT:
+                if (t.flatIndex == -1) {
+                    emitNfaChar(re, nfa, t.chr);
+                } else {
+                    for (int i = 0; i < t.length; i++) {
+                        emitNfaChar(re, nfa, re.source[t.flatIndex + i]);
+                    }
+                }
+                break;
+              case REOP_LPAREN:
+                nfa.emit(NFA_SAVE, 2 * t.parenIndex + 2, 0);
+                if (!emitNfa(re, nfa, t.kid, inQuant)) {
+                    return false;
+                }
+                nfa.emit(NFA_SAVE, 2 * t.parenIndex + 3, 0);
+                break;
+              case REOP_QUANT:
+                if (!emitNfaQuant(re, nfa, t)) {
+                    return false;
+                }
+                break;
+              default:
+                // back references and lookahead
+                return false;
+            }
+        }
+        return nfa.length <= MAX_NFA_LENGTH;
+    }
+
+    /*
+     * Returns true if every way through the nodes passes a term that sets
+     * the result flag of executeREBytecode. When a quantified term ends,
+     * that flag tells whether the iteration matched, so it is still false
+     * after backtracking into an empty alternative or the empty body of a
+     * lazy quantifier: executeREBytecode then treats the iteration as
+     * failed, where matchNfa would let it match. Only regexps where that
+     * can not happen get an NFA program.
+     */
+    private static boolean setsResult(RENode t)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+              case REOP_EMPTY:
+              case REOP_BACKREF:
+              case REOP_ASSERT:
+              case REOP_ASSERT_NOT:
+                break;
+              case REOP_LPAREN:
+                if (setsResult(t.kid)) {
+                    return true;
+                }
+                break;
+              case REOP_ALT:
+                if (setsResult(t.kid) && setsResult(t.kid2)) {
+                    return true;
+                }
+                break;
+              case REOP_QUANT:
+                // a greedy loop is left with a successful REOP_REPEAT,
+                // a lazy one after its body matched at least once
+                if (t.greedy || (t.min != 0 && setsResult(t.kid))) {
+                    return true;
+                }
+                break;
+              default:
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void emitNfaChar(RECompiled re, RENfa nfa, char c)
+    {
+        if ((re.flags & JSREG_FOLD) != 0) {
+            emitNfaConsumer(nfa, NFA_CHARi, upcase(c));
+        } else {
+            emitNfaConsumer(nfa, NFA_CHAR, c);
+        }
+    }
+
+    /*
+     * Emits an instruction that consumes a character. Inside the copy of
+     * an iteration that has not consumed anything yet, see
+     * emitNfaIteration, it is followed by a jump to the same place in the
+     * copy for an iteration that has.
+     */
+    private static void emitNfaConsumer(RENfa nfa, int op, int arg)
+    {
+        int pc = nfa.emit(op, arg, 0);
+        int index = nfa.addConsumer(pc);
+        if (nfa.freshDepth != 0) {
+            // Target set by emitNfaIteration
+            nfa.emit(NFA_JUMP, -1, index);
+        }
+    }
+
+    /*
+     * Returns true if the nodes can match the empty string.
+     */
+    private static boolean matchesEmpty(RENode t)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+              case REOP_EMPTY:
+              case REOP_BOL:
+              case REOP_EOL:
+              case REOP_WBDRY:
+              case REOP_WNONBDRY:
+              case REOP_BACKREF:
+              case REOP_ASSERT:
+              case REOP_ASSERT_NOT:
+                break;
+              case REOP_LPAREN:
+                if (!matchesEmpty(t.kid)) {
+                    return false;
+                }
+                break;
+              case REOP_ALT:
+                if (!matchesEmpty(t.kid) && !matchesEmpty(t.kid2)) {
+                    return false;
+                }
+                break;
+              case REOP_QUANT:
+                if (t.min != 0 && !matchesEmpty(t.kid)) {
+                    return false;
+                }
+                break;
+              default:
+                // consumes a character
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Emits min copies of the quantified term followed by a loop or by
+     * max - min nested optional copies. Like executeREBytecode, every
+     * iteration first clears the captures inside the term, and iterations
+     * beyond min that match the empty string fail, see emitNfaIteration.
+     */
+    private static boolean emitNfaQuant(RECompiled re, RENfa nfa, RENode t)
+    {
+        if (t.max == 0 || !setsResult(t.kid)) {
+            // executeREBytecode repeats x{0} like x*, leave that to it too
+            return false;
+        }
+        int firstSlot = 2 * t.parenIndex + 2;
+        int lastSlot = firstSlot + 2 * t.parenCount;
+        for (int i = 0; i < t.min; i++) {
+            if (t.parenCount != 0) {
+                nfa.emit(NFA_CLEAR, firstSlot, lastSlot);
+            }
+            if (!emitNfa(re, nfa, t.kid, true)) {
+                return false;
+            }
+        }
+        if (t.max == -1) {
+            int split = nfa.emit(NFA_SPLIT, 0, 0);
+            if (t.parenCount != 0) {
+                nfa.emit(NFA_CLEAR, firstSlot, lastSlot);
+            }
+            if (!emitNfaIteration(re, nfa, t.kid)) {
+                return false;
+            }
+            nfa.emit(NFA_JUMP, split, 0);
+            setNfaSplit(nfa, split, t.greedy);
+            return true;
+        }
+        int[] splits = new int[t.max - t.min];
+        for (int i = 0; i < splits.length; i++) {
+            if (nfa.length > MAX_NFA_LENGTH) {
+                return false;
+            }
+            splits[i] = nfa.emit(NFA_SPLIT, 0, 0);
+            if (t.parenCount != 0) {
+                nfa.emit(NFA_CLEAR, firstSlot, lastSlot);
+            }
+            if (!emitNfaIteration(re, nfa, t.kid)) {
+                return false;
+            }
+        }
+        for (int split : splits) {
+            setNfaSplit(nfa, split, t.greedy);
+        }
+        return true;
+    }
+
+    /*
+     * Emits an iteration beyond min of a quantified term. If the term can
+     * match the empty string it is emitted twice: threads start in a copy
+     * for an iteration that has not consumed anything yet, which fails at
+     * its end, and move to the same place in the second copy once they
+     * consume a character. With a single copy, a thread that just started
+     * the iteration would be dropped when it reaches an instruction that
+     * a thread further into the iteration reached before at the same
+     * position, although only the former fails at the end.
+     */
+    private static boolean emitNfaIteration(RECompiled re, RENfa nfa,
+                                            RENode t)
+    {
+        if (!matchesEmpty(t)) {
+            return emitNfa(re, nfa, t, true);
+        }
+        int freshStart = nfa.length;
+        int freshConsumer = nfa.consumerCount;
+        ++nfa.freshDepth;
+        boolean ok = emitNfa(re, nfa, t, true);
+        --nfa.freshDepth;
+        if (!ok) {
+            return false;
+        }
+        nfa.emit(NFA_FAIL, 0, 0);
+        int consumedStart = nfa.length;
+        int consumedConsumer = nfa.consumerCount;
+        if (!emitNfa(re, nfa, t, true)) {
+            return false;
+        }
+        if (nfa.freshDepth == 0) {
+            // Both copies consume in the same order. The jumps in nested
+            // first copies go to this second copy as well.
+            for (int pc = freshStart; pc != consumedStart; pc++) {
+                if (nfa.ops[pc] == NFA_JUMP && nfa.args[pc] == -1) {
+                    int index = nfa.args2[pc] - freshConsumer
+                                + consumedConsumer;
+                    nfa.args[pc] = nfa.consumers[index] + 1;
+                    nfa.args2[pc] = 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Lets the split at pc either continue with the next instruction or
+     * skip to the end of the program so far, preferring the former if
+     * greedy.
+     */
+    private static void setNfaSplit(RENfa nfa, int pc, boolean greedy)
+    {
+        if (greedy) {
+            nfa.args[pc] = pc + 1;
+            nfa.args2[pc] = nfa.length;
+        } else {
+            nfa.args[pc] = nfa.length;
+            nfa.args2[pc] = pc + 1;
+        }
+    }
+
     static boolean isDigit(char c)
     {
         return '0' <= c && c <= '9';
@@ -1306,27 +1872,54 @@ if (regexp.anchorCh >= 0) {
 
     private static void
     pushProgState(REGlobalData gData, int min, int max,
-                  REBackTrackData backTrackLastToSave,
+                  int backTrackLastToSave,
                   int continuation_pc, int continuation_op)
     {
-        gData.stateStackTop = new REProgState(gData.stateStackTop, min, max,
-                                              gData.cp, backTrackLastToSave,
-                                              continuation_pc,
-                                              continuation_op);
+        int state = gData.stateDataTop;
+        int[] data = gData.stateData;
+        if (state + REGlobalData.STATE_SIZE > data.length) {
+            data = gData.growStateData();
+        }
+        data[state + REGlobalData.STATE_PREVIOUS] = gData.stateStackTop;
+        data[state + REGlobalData.STATE_MIN] = min;
+        data[state + REGlobalData.STATE_MAX] = max;
+        data[state + REGlobalData.STATE_INDEX] = gData.cp;
+        data[state + REGlobalData.STATE_CONTINUATION_OP] = continuation_op;
+        data[state + REGlobalData.STATE_CONTINUATION_PC] = continuation_pc;
+        data[state + REGlobalData.STATE_BACKTRACK] = backTrackLastToSave;
+        gData.stateStackTop = state;
+        gData.stateDataTop = state + REGlobalData.STATE_SIZE;
     }
 
-    private static REProgState
+    /*
+     * Returns the offset of the popped state in gData.stateData. The state
+     * itself is only freed when backtracking.
+     */
+    private static int
     popProgState(REGlobalData gData)
     {
-        REProgState state = gData.stateStackTop;
-        gData.stateStackTop = state.previous;
+        int state = gData.stateStackTop;
+        gData.stateStackTop
+            = gData.stateData[state + REGlobalData.STATE_PREVIOUS];
         return state;
     }
 
     private static void
     pushBackTrackState(REGlobalData gData, byte op, int target)
     {
-        gData.backTrackStackTop = new REBackTrackData(gData, op, target);
+        int top = gData.backTrackStackTop;
+        int[] data = gData.backTrackData;
+        if (top + REGlobalData.BACKTRACK_SIZE > data.length) {
+            data = gData.growBackTrackData();
+        }
+        data[top + REGlobalData.BACKTRACK_OP] = op;
+        data[top + REGlobalData.BACKTRACK_PC] = target;
+        data[top + REGlobalData.BACKTRACK_CP] = gData.cp;
+        data[top + REGlobalData.BACKTRACK_LAST_PAREN] = gData.lastParen;
+        data[top + REGlobalData.BACKTRACK_STATE] = gData.stateStackTop;
+        data[top + REGlobalData.BACKTRACK_STATE_DATA_TOP] = gData.stateDataTop;
+        data[top + REGlobalData.BACKTRACK_PARENS_UNDO] = gData.parensUndoTop;
+        gData.backTrackStackTop = top + REGlobalData.BACKTRACK_SIZE;
     }
 
     /*
@@ -1334,12 +1927,12 @@ if (regexp.anchorCh >= 0) {
      */
     private static boolean
     flatNMatcher(REGlobalData gData, int matchChars,
-                 int length, char[] chars, int end)
+                 int length, String input, int end)
     {
         if ((gData.cp + length) > end)
             return false;
         for (int i = 0; i < length; i++) {
-            if (gData.regexp.source[matchChars + i] != chars[gData.cp + i]) {
+            if (gData.regexp.source[matchChars + i] != input.charAt(gData.cp + i)) {
                 return false;
             }
         }
@@ -1349,13 +1942,13 @@ if (regexp.anchorCh >= 0) {
 
     private static boolean
     flatNIMatcher(REGlobalData gData, int matchChars,
-                  int length, char[] chars, int end)
+                  int length, String input, int end)
     {
         if ((gData.cp + length) > end)
             return false;
         for (int i = 0; i < length; i++) {
             if (upcase(gData.regexp.source[matchChars + i])
-                != upcase(chars[gData.cp + i]))
+                != upcase(input.charAt(gData.cp + i)))
             {
                 return false;
             }
@@ -1389,7 +1982,7 @@ if (regexp.anchorCh >= 0) {
     */
     private static boolean
     backrefMatcher(REGlobalData gData, int parenIndex,
-                   char[] chars, int end)
+                   String input, int end)
     {
         int len;
         int i;
@@ -1403,13 +1996,13 @@ if (regexp.anchorCh >= 0) {
 
         if ((gData.regexp.flags & JSREG_FOLD) != 0) {
             for (i = 0; i < len; i++) {
-                if (upcase(chars[parenContent + i]) != upcase(chars[gData.cp + i]))
+                if (upcase(input.charAt(parenContent + i)) != upcase(input.charAt(gData.cp + i)))
                     return false;
             }
         }
         else {
             for (i = 0; i < len; i++) {
-                if (chars[parenContent + i] != chars[gData.cp + i])
+                if (input.charAt(parenContent + i) != input.charAt(gData.cp + i))
                     return false;
             }
         }
@@ -1678,7 +2271,7 @@ if (regexp.anchorCh >= 0) {
     }
 
     private static boolean
-    executeREBytecode(REGlobalData gData, char[] chars, int end)
+    executeREBytecode(REGlobalData gData, String input, int end)
     {
         int pc = 0;
         byte program[] = gData.regexp.program;
@@ -1689,7 +2282,7 @@ if (regexp.anchorCh >= 0) {
         currentContinuation_pc = 0;
         currentContinuation_op = REOP_END;
 if (debug) {
-System.out.println("Input = \"" + new String(chars) + "\", start at " + gData.cp);
+System.out.println("Input = \"" + input + "\", start at " + gData.cp);
 }
         int op = program[pc++];
         for (;;) {
@@ -1704,7 +2297,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 if (gData.cp != 0) {
                     if (gData.multiline ||
                             ((gData.regexp.flags & JSREG_MULTILINE) != 0)) {
-                        if (!isLineTerm(chars[gData.cp - 1])) {
+                        if (!isLineTerm(input.charAt(gData.cp - 1))) {
                             result = false;
                             break;
                         }
@@ -1720,7 +2313,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 if (gData.cp != end) {
                     if (gData.multiline ||
                             ((gData.regexp.flags & JSREG_MULTILINE) != 0)) {
-                        if (!isLineTerm(chars[gData.cp])) {
+                        if (!isLineTerm(input.charAt(gData.cp))) {
                             result = false;
                             break;
                         }
@@ -1733,51 +2326,51 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 result = true;
                 break;
             case REOP_WBDRY:
-                result = ((gData.cp == 0 || !isWord(chars[gData.cp - 1]))
-                          ^ !((gData.cp < end) && isWord(chars[gData.cp])));
+                result = ((gData.cp == 0 || !isWord(input.charAt(gData.cp - 1)))
+                          ^ !((gData.cp < end) && isWord(input.charAt(gData.cp))));
                 break;
             case REOP_WNONBDRY:
-                result = ((gData.cp == 0 || !isWord(chars[gData.cp - 1]))
-                          ^ ((gData.cp < end) && isWord(chars[gData.cp])));
+                result = ((gData.cp == 0 || !isWord(input.charAt(gData.cp - 1)))
+                          ^ ((gData.cp < end) && isWord(input.charAt(gData.cp))));
                 break;
             case REOP_DOT:
-                result = (gData.cp != end && !isLineTerm(chars[gData.cp]));
+                result = (gData.cp != end && !isLineTerm(input.charAt(gData.cp)));
                 if (result) {
                     gData.cp++;
                 }
                 break;
             case REOP_DIGIT:
-                result = (gData.cp != end && isDigit(chars[gData.cp]));
+                result = (gData.cp != end && isDigit(input.charAt(gData.cp)));
                 if (result) {
                     gData.cp++;
                 }
                 break;
             case REOP_NONDIGIT:
-                result = (gData.cp != end && !isDigit(chars[gData.cp]));
+                result = (gData.cp != end && !isDigit(input.charAt(gData.cp)));
                 if (result) {
                     gData.cp++;
                 }
                 break;
             case REOP_SPACE:
-                result = (gData.cp != end && isREWhiteSpace(chars[gData.cp]));
+                result = (gData.cp != end && isREWhiteSpace(input.charAt(gData.cp)));
                 if (result) {
                     gData.cp++;
                 }
                 break;
             case REOP_NONSPACE:
-                result = (gData.cp != end && !isREWhiteSpace(chars[gData.cp]));
+                result = (gData.cp != end && !isREWhiteSpace(input.charAt(gData.cp)));
                 if (result) {
                     gData.cp++;
                 }
                 break;
             case REOP_ALNUM:
-                result = (gData.cp != end && isWord(chars[gData.cp]));
+                result = (gData.cp != end && isWord(input.charAt(gData.cp)));
                 if (result) {
                     gData.cp++;
                 }
                 break;
             case REOP_NONALNUM:
-                result = (gData.cp != end && !isWord(chars[gData.cp]));
+                result = (gData.cp != end && !isWord(input.charAt(gData.cp)));
                 if (result) {
                     gData.cp++;
                 }
@@ -1788,7 +2381,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                     pc += INDEX_LEN;
                     int length = getIndex(program, pc);
                     pc += INDEX_LEN;
-                    result = flatNMatcher(gData, offset, length, chars, end);
+                    result = flatNMatcher(gData, offset, length, input, end);
                 }
                 break;
             case REOP_FLATi:
@@ -1797,13 +2390,13 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                     pc += INDEX_LEN;
                     int length = getIndex(program, pc);
                     pc += INDEX_LEN;
-                    result = flatNIMatcher(gData, offset, length, chars, end);
+                    result = flatNIMatcher(gData, offset, length, input, end);
                 }
                 break;
             case REOP_FLAT1:
                 {
                     char matchCh = (char)(program[pc++] & 0xFF);
-                    result = (gData.cp != end && chars[gData.cp] == matchCh);
+                    result = (gData.cp != end && input.charAt(gData.cp) == matchCh);
                     if (result) {
                         gData.cp++;
                     }
@@ -1813,7 +2406,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 {
                     char matchCh = (char)(program[pc++] & 0xFF);
                     result = (gData.cp != end
-                              && upcase(chars[gData.cp]) == upcase(matchCh));
+                              && upcase(input.charAt(gData.cp)) == upcase(matchCh));
                     if (result) {
                         gData.cp++;
                     }
@@ -1823,7 +2416,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 {
                     char matchCh = (char)getIndex(program, pc);
                     pc += INDEX_LEN;
-                    result = (gData.cp != end && chars[gData.cp] == matchCh);
+                    result = (gData.cp != end && input.charAt(gData.cp) == matchCh);
                     if (result) {
                         gData.cp++;
                     }
@@ -1834,7 +2427,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                     char matchCh = (char)getIndex(program, pc);
                     pc += INDEX_LEN;
                     result = (gData.cp != end
-                              && upcase(chars[gData.cp]) == upcase(matchCh));
+                              && upcase(input.charAt(gData.cp)) == upcase(matchCh));
                     if (result) {
                         gData.cp++;
                     }
@@ -1844,7 +2437,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 {
                     int nextpc;
                     byte nextop;
-                    pushProgState(gData, 0, 0, null,
+                    pushProgState(gData, 0, 0, 0,
                                   currentContinuation_pc,
                                   currentContinuation_op);
                     nextpc = pc + getOffset(program, pc);
@@ -1858,9 +2451,12 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
             case REOP_JUMP:
                 {
                     int offset;
-                    REProgState state = popProgState(gData);
-                    currentContinuation_pc = state.continuation_pc;
-                    currentContinuation_op = state.continuation_op;
+                    int state = popProgState(gData);
+                    int[] stateData = gData.stateData;
+                    currentContinuation_pc = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_PC];
+                    currentContinuation_op = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_OP];
                     offset = getOffset(program, pc);
                     pc += offset;
                     op = program[pc++];
@@ -1893,7 +2489,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 {
                     int parenIndex = getIndex(program, pc);
                     pc += INDEX_LEN;
-                    result = backrefMatcher(gData, parenIndex, chars, end);
+                    result = backrefMatcher(gData, parenIndex, input, end);
                 }
                 break;
 
@@ -1903,7 +2499,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                     pc += INDEX_LEN;
                     if (gData.cp != end) {
                         if (classMatcher(gData, gData.regexp.classList[index],
-                                         chars[gData.cp]))
+                                         input.charAt(gData.cp)))
                         {
                             gData.cp++;
                             result = true;
@@ -1936,11 +2532,16 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
             case REOP_ASSERTTEST:
             case REOP_ASSERTNOTTEST:
                 {
-                    REProgState state = popProgState(gData);
-                    gData.cp = state.index;
-                    gData.backTrackStackTop = state.backTrack;
-                    currentContinuation_pc = state.continuation_pc;
-                    currentContinuation_op = state.continuation_op;
+                    int state = popProgState(gData);
+                    int[] stateData = gData.stateData;
+                    gData.cp = stateData[state + REGlobalData.STATE_INDEX];
+                    // Drop the backtrack points of the assertion
+                    gData.backTrackStackTop
+                        = stateData[state + REGlobalData.STATE_BACKTRACK];
+                    currentContinuation_pc = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_PC];
+                    currentContinuation_op = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_OP];
                     if (result) {
                         if (op == REOP_ASSERTTEST) {
                             result = true;
@@ -2003,7 +2604,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                       default:
                         throw Kit.codeBug();
                     }
-                    pushProgState(gData, min, max, null,
+                    pushProgState(gData, min, max, 0,
                                   currentContinuation_pc,
                                   currentContinuation_op);
                     if (greedy) {
@@ -2039,44 +2640,53 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
 
             case REOP_REPEAT:
                 {
-                    REProgState state = popProgState(gData);
+                    int state = popProgState(gData);
+                    int[] stateData = gData.stateData;
+                    int state_min = stateData[state + REGlobalData.STATE_MIN];
+                    int state_max = stateData[state + REGlobalData.STATE_MAX];
+                    int state_index
+                        = stateData[state + REGlobalData.STATE_INDEX];
+                    int state_continuation_op = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_OP];
+                    int state_continuation_pc = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_PC];
                     if (!result) {
                         //
                         // There's been a failure, see if we have enough
                         // children.
                         //
-                        if (state.min == 0)
+                        if (state_min == 0)
                             result = true;
-                        currentContinuation_pc = state.continuation_pc;
-                        currentContinuation_op = state.continuation_op;
+                        currentContinuation_pc = state_continuation_pc;
+                        currentContinuation_op = state_continuation_op;
                         pc += 2 * INDEX_LEN;  /* <parencount> & <parenindex> */
                         pc = pc + getOffset(program, pc);
                         break;
                     }
                     else {
-                        if (state.min == 0 && gData.cp == state.index) {
+                        if (state_min == 0 && gData.cp == state_index) {
                             // matched an empty string, that'll get us nowhere
                             result = false;
-                            currentContinuation_pc = state.continuation_pc;
-                            currentContinuation_op = state.continuation_op;
+                            currentContinuation_pc = state_continuation_pc;
+                            currentContinuation_op = state_continuation_op;
                             pc += 2 * INDEX_LEN;
                             pc = pc + getOffset(program, pc);
                             break;
                         }
-                        int new_min = state.min, new_max = state.max;
+                        int new_min = state_min, new_max = state_max;
                         if (new_min != 0) new_min--;
                         if (new_max != -1) new_max--;
                         if (new_max == 0) {
                             result = true;
-                            currentContinuation_pc = state.continuation_pc;
-                            currentContinuation_op = state.continuation_op;
+                            currentContinuation_pc = state_continuation_pc;
+                            currentContinuation_op = state_continuation_op;
                             pc += 2 * INDEX_LEN;
                             pc = pc + getOffset(program, pc);
                             break;
                         }
-                        pushProgState(gData, new_min, new_max, null,
-                                      state.continuation_pc,
-                                      state.continuation_op);
+                        pushProgState(gData, new_min, new_max, 0,
+                                      state_continuation_pc,
+                                      state_continuation_op);
                         currentContinuation_op = REOP_REPEAT;
                         currentContinuation_pc = pc;
                         pushBackTrackState(gData, REOP_REPEAT, pc);
@@ -2094,15 +2704,24 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
 
             case REOP_MINIMALREPEAT:
                 {
-                    REProgState state = popProgState(gData);
+                    int state = popProgState(gData);
+                    int[] stateData = gData.stateData;
+                    int state_min = stateData[state + REGlobalData.STATE_MIN];
+                    int state_max = stateData[state + REGlobalData.STATE_MAX];
+                    int state_index
+                        = stateData[state + REGlobalData.STATE_INDEX];
+                    int state_continuation_op = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_OP];
+                    int state_continuation_pc = stateData[state
+                        + REGlobalData.STATE_CONTINUATION_PC];
                     if (!result) {
                         //
                         // Non-greedy failure - try to consume another child.
                         //
-                        if (state.max == -1 || state.max > 0) {
-                            pushProgState(gData, state.min, state.max, null,
-                                          state.continuation_pc,
-                                          state.continuation_op);
+                        if (state_max == -1 || state_max > 0) {
+                            pushProgState(gData, state_min, state_max, 0,
+                                          state_continuation_pc,
+                                          state_continuation_op);
                             currentContinuation_op = REOP_MINIMALREPEAT;
                             currentContinuation_pc = pc;
                             int parenCount = getIndex(program, pc);
@@ -2116,24 +2735,24 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                             continue;
                         } else {
                             // Don't need to adjust pc since we're going to pop.
-                            currentContinuation_pc = state.continuation_pc;
-                            currentContinuation_op = state.continuation_op;
+                            currentContinuation_pc = state_continuation_pc;
+                            currentContinuation_op = state_continuation_op;
                             break;
                         }
                     } else {
-                        if (state.min == 0 && gData.cp == state.index) {
+                        if (state_min == 0 && gData.cp == state_index) {
                             // Matched an empty string, that'll get us nowhere.
                             result = false;
-                            currentContinuation_pc = state.continuation_pc;
-                            currentContinuation_op = state.continuation_op;
+                            currentContinuation_pc = state_continuation_pc;
+                            currentContinuation_op = state_continuation_op;
                             break;
                         }
-                        int new_min = state.min, new_max = state.max;
+                        int new_min = state_min, new_max = state_max;
                         if (new_min != 0) new_min--;
                         if (new_max != -1) new_max--;
-                        pushProgState(gData, new_min, new_max, null,
-                                      state.continuation_pc,
-                                      state.continuation_op);
+                        pushProgState(gData, new_min, new_max, 0,
+                                      state_continuation_pc,
+                                      state_continuation_op);
                         if (new_min != 0) {
                             currentContinuation_op = REOP_MINIMALREPEAT;
                             currentContinuation_pc = pc;
@@ -2146,8 +2765,8 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                             }
                             op = program[pc++];
                         } else {
-                            currentContinuation_pc = state.continuation_pc;
-                            currentContinuation_op = state.continuation_op;
+                            currentContinuation_pc = state_continuation_pc;
+                            currentContinuation_op = state_continuation_op;
                             pushBackTrackState(gData, REOP_MINIMALREPEAT, pc);
                             popProgState(gData);
                             pc += 2 * INDEX_LEN;
@@ -2170,28 +2789,35 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
              *  Otherwise this is a complete and utter failure.
              */
             if (!result) {
-                REBackTrackData backTrackData = gData.backTrackStackTop;
-                if (backTrackData != null) {
-                    gData.backTrackStackTop = backTrackData.previous;
-
-                    gData.lastParen = backTrackData.lastParen;
-
-                    // XXX: If backTrackData will no longer be used, then
-                    // there is no need to clone backTrackData.parens
-                    if (backTrackData.parens != null) {
-                        gData.parens = backTrackData.parens.clone();
+                int top = gData.backTrackStackTop;
+                if (top != 0) {
+                    if (++gData.backtracks > gData.backtrackLimit) {
+                        // matchRegExp decides how to go on
+                        return false;
                     }
-
-                    gData.cp = backTrackData.cp;
-
-                    gData.stateStackTop = backTrackData.stateStackTop;
-
-                    currentContinuation_op
-                        = gData.stateStackTop.continuation_op;
-                    currentContinuation_pc
-                        = gData.stateStackTop.continuation_pc;
-                    pc = backTrackData.continuation_pc;
-                    op = backTrackData.continuation_op;
+                    top -= REGlobalData.BACKTRACK_SIZE;
+                    gData.backTrackStackTop = top;
+                    int[] backTrackData = gData.backTrackData;
+
+                    gData.lastParen = backTrackData[top
+                        + REGlobalData.BACKTRACK_LAST_PAREN];
+                    gData.undoParens(backTrackData[top
+                        + REGlobalData.BACKTRACK_PARENS_UNDO]);
+
+                    gData.cp = backTrackData[top + REGlobalData.BACKTRACK_CP];
+
+                    int state = backTrackData[top
+                        + REGlobalData.BACKTRACK_STATE];
+                    gData.stateStackTop = state;
+                    gData.stateDataTop = backTrackData[top
+                        + REGlobalData.BACKTRACK_STATE_DATA_TOP];
+
+                    currentContinuation_op = gData.stateData[state
+                        + REGlobalData.STATE_CONTINUATION_OP];
+                    currentContinuation_pc = gData.stateData[state
+                        + REGlobalData.STATE_CONTINUATION_PC];
+                    pc = backTrackData[top + REGlobalData.BACKTRACK_PC];
+                    op = backTrackData[top + REGlobalData.BACKTRACK_OP];
                     continue;
                 }
                 else
@@ -2205,82 +2831,346 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
 
     private static boolean
     matchRegExp(REGlobalData gData, RECompiled re,
-                char[] chars, int start, int end, boolean multiline)
+                String input, int start, int end, boolean multiline)
     {
         if (re.parenCount != 0) {
-            gData.parens = new long[re.parenCount];
-        } else {
-            gData.parens = null;
+            if (gData.parens == null || gData.parens.length < re.parenCount) {
+                gData.parens = new long[re.parenCount];
+            }
         }
 
-        gData.backTrackStackTop = null;
-
-        gData.stateStackTop = null;
+        gData.reset();
 
         gData.multiline = multiline;
         gData.regexp = re;
         gData.lastParen = 0;
 
-        int anchorCh = gData.regexp.anchorCh;
+        // Without the multiline flag a leading '^' only matches at 0
+        boolean anchored = re.program[0] == REOP_BOL && !multiline
+                           && (re.flags & JSREG_MULTILINE) == 0;
+        if (anchored && start != 0) {
+            return false;
+        }
+        if (re.required != null && input.indexOf(re.required, start) < 0) {
+            return false;
+        }
+        gData.backtracks = 0;
         //
         // have to include the position beyond the last character
         //  in order to detect end-of-input/line condition
         //
         for (int i = start; i <= end; ++i) {
             //
-            // If the first node is a literal match, step the index into
-            // the string until that match is made, or fail if it can't be
-            // found at all.
+            // Step the index into the string to the next position where
+            // the match can start, or fail if there is none.
             //
-            if (anchorCh >= 0) {
-                for (;;) {
-                    if (i == end) {
-                        return false;
-                    }
-                    char matchCh = chars[i];
-                    if (matchCh == anchorCh ||
-                            ((gData.regexp.flags & JSREG_FOLD) != 0
-                             && upcase(matchCh) == upcase((char)anchorCh)))
-                    {
-                        break;
-                    }
-                    ++i;
-                }
+            i = nextMatchStart(re, input, i, end);
+            if (i < 0) {
+                return false;
             }
             gData.cp = i;
             for (int j = 0; j < re.parenCount; j++) {
                 gData.set_parens(j, -1, 0);
             }
-            boolean result = executeREBytecode(gData, chars, end);
+            boolean result = executeREBytecode(gData, input, end);
 
-            gData.backTrackStackTop = null;
-            gData.stateStackTop = null;
+            gData.reset();
             if (result) {
                 gData.skipped = i - start;
                 return true;
             }
+            if (gData.backtracks > gData.backtrackLimit) {
+                if (re.nfa == null) {
+                    throw Context.reportRuntimeError(ScriptRuntime.getMessage1(
+                        "msg.re.backtrack.limit",
+                        String.valueOf(gData.backtrackLimit)));
+                }
+                return matchNfa(gData, re, input, start, end, anchored);
+            }
+            if (anchored) {
+                break;
+            }
         }
         return false;
     }
 
+    /*
+     * Returns the first position from i on where a match can start, or -1
+     * if there is none.
+     */
+    private static int nextMatchStart(RECompiled re, String input, int i,
+                                      int end)
+    {
+        if (re.prefix != null) {
+            return input.indexOf(re.prefix, i);
+        }
+        boolean[] firstChars = re.firstChars;
+        if (firstChars != null) {
+            for (; i != end; ++i) {
+                char matchCh = input.charAt(i);
+                if (firstChars[matchCh < 256 ? matchCh : 256]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        return i;
+    }
+
+    /*
+     * Finds the same match as the loop in matchRegExp over
+     * executeREBytecode, but in time linear in the input: the threads of
+     * a Pike VM run the compiled NFA over the input in step, each with its
+     * own captures, in the order the backtracking matcher would try them.
+     * A thread that reaches an instruction another thread reached before
+     * at the same position is dropped, as it can not find a different
+     * match, and once a thread matches all threads after it are dropped.
+     */
+    private static boolean
+    matchNfa(REGlobalData gData, RECompiled re, String input, int start,
+             int end, boolean anchored)
+    {
+        RENfa nfa = re.nfa;
+        int slots = 2 * re.parenCount + 2;
+        gData.prepareNfa(nfa, slots);
+        int[] threads = gData.nfaThreads;
+        int[] threadSlots = gData.nfaThreadSlots;
+        int[] nextThreads = gData.nfaNextThreads;
+        int[] nextThreadSlots = gData.nfaNextThreadSlots;
+        int[] caps = gData.nfaCaps;
+        int[] ops = nfa.ops;
+        int count = 0;
+        int gen = 1;
+        int matchEnd = -1;
+
+        for (int cp = start; ; ++cp) {
+            if (matchEnd < 0 && (!anchored || cp == start)) {
+                if (count == 0) {
+                    cp = nextMatchStart(re, input, cp, end);
+                    if (cp < 0 || (anchored && cp != start)) {
+                        break;
+                    }
+                    // Forget the instructions seen before skipping ahead
+                    ++gen;
+                }
+                // A match starting here is tried after all earlier ones
+                for (int k = 1; k < slots; k++) {
+                    caps[k] = -1;
+                }
+                caps[0] = cp;
+                count = addNfaThread(gData, nfa, threads, threadSlots, count,
+                                     0, cp, gen, input, end);
+            }
+            if (count == 0) {
+                if (matchEnd >= 0 || anchored || cp == end) {
+                    break;
+                }
+                continue;
+            }
+            ++gen;
+            int nextCount = 0;
+            char c = cp != end ? input.charAt(cp) : 0;
+            for (int t = 0; t < count; t++) {
+                int pc = threads[t];
+                boolean result;
+                switch (ops[pc]) {
+                  case NFA_MATCH:
+                    System.arraycopy(threadSlots, t * slots,
+                                     gData.nfaMatch, 0, slots);
+                    matchEnd = cp;
+                    // Drop the threads that come after this one
+                    count = t;
+                    continue;
+                  case NFA_CHAR:
+                    result = c == nfa.args[pc];
+                    break;
+                  case NFA_CHARi:
+                    result = upcase(c) == nfa.args[pc];
+                    break;
+                  case NFA_DOT:
+                    result = !isLineTerm(c);
+                    break;
+                  case NFA_DIGIT:
+                    result = isDigit(c);
+                    break;
+                  case NFA_NONDIGIT:
+                    result = !isDigit(c);
+                    break;
+                  case NFA_ALNUM:
+                    result = isWord(c);
+                    break;
+                  case NFA_NONALNUM:
+                    result = !isWord(c);
+                    break;
+                  case NFA_SPACE:
+                    result = isREWhiteSpace(c);
+                    break;
+                  case NFA_NONSPACE:
+                    result = !isREWhiteSpace(c);
+                    break;
+                  case NFA_CLASS:
+                    result = classMatcher(gData,
+                                          re.classList[nfa.args[pc]], c);
+                    break;
+                  default:
+                    throw Kit.codeBug();
+                }
+                if (result && cp != end) {
+                    System.arraycopy(threadSlots, t * slots, caps, 0, slots);
+                    nextCount = addNfaThread(gData, nfa, nextThreads,
+                                             nextThreadSlots, nextCount,
+                                             pc + 1, cp + 1, gen, input, end);
+                }
+            }
+            if (cp == end) {
+                break;
+            }
+            int[] tmp = threads;
+            threads = nextThreads;
+            nextThreads = tmp;
+            tmp = threadSlots;
+            threadSlots = nextThreadSlots;
+            nextThreadSlots = tmp;
+            count = nextCount;
+        }
+        if (matchEnd < 0) {
+            return false;
+        }
+        int[] match = gData.nfaMatch;
+        for (int j = 0; j < re.parenCount; j++) {
+            int parenStart = match[2 * j + 2];
+            int parenEnd = match[2 * j + 3];
+            if (parenStart < 0 || parenEnd < 0) {
+                gData.set_parens(j, -1, 0);
+            } else {
+                gData.set_parens(j, parenStart, parenEnd - parenStart);
+            }
+        }
+        gData.cp = matchEnd;
+        gData.skipped = match[0] - start;
+        return true;
+    }
+
+    /*
+     * Adds the threads that follow pc at position cp with the captures in
+     * gData.nfaCaps to the list, in priority order, and returns the new
+     * length of the list. Jumps, splits, captures and zero width
+     * assertions are followed; instructions that consume a character and
+     * NFA_MATCH end up in the list. gData.nfaCaps is unchanged on return.
+     */
+    private static int
+    addNfaThread(REGlobalData gData, RENfa nfa, int[] threads,
+                 int[] threadSlots, int count, int pc, int cp, int gen,
+                 String input, int end)
+    {
+        int[] ops = nfa.ops;
+        int[] args = nfa.args;
+        int[] visited = gData.nfaVisited;
+        int[] caps = gData.nfaCaps;
+        int[] stack = gData.nfaStack;
+        int slots = gData.nfaSlots;
+        // pc to follow, or a slot as ~slot above the value to restore
+        int top = 0;
+        stack[top++] = pc;
+        while (top != 0) {
+            pc = stack[--top];
+            if (pc < 0) {
+                caps[~pc] = stack[--top];
+                continue;
+            }
+            if (visited[pc] == gen) {
+                continue;
+            }
+            visited[pc] = gen;
+            switch (ops[pc]) {
+              case NFA_JUMP:
+                stack[top++] = args[pc];
+                break;
+              case NFA_SPLIT:
+                stack[top++] = nfa.args2[pc];
+                stack[top++] = args[pc];
+                break;
+              case NFA_SAVE: {
+                int slot = args[pc];
+                stack[top++] = caps[slot];
+                stack[top++] = ~slot;
+                caps[slot] = cp;
+                stack[top++] = pc + 1;
+                break;
+              }
+              case NFA_CLEAR:
+                for (int slot = args[pc]; slot < nfa.args2[pc]; slot++) {
+                    stack[top++] = caps[slot];
+                    stack[top++] = ~slot;
+                    caps[slot] = -1;
+                }
+                stack[top++] = pc + 1;
+                break;
+              case NFA_FAIL:
+                break;
+              case NFA_BOL:
+                if (cp == 0 || ((gData.multiline
+                                 || (gData.regexp.flags & JSREG_MULTILINE) != 0)
+                                && isLineTerm(input.charAt(cp - 1))))
+                {
+                    stack[top++] = pc + 1;
+                }
+                break;
+              case NFA_EOL:
+                if (cp == end || ((gData.multiline
+                                   || (gData.regexp.flags & JSREG_MULTILINE) != 0)
+                                  && isLineTerm(input.charAt(cp))))
+                {
+                    stack[top++] = pc + 1;
+                }
+                break;
+              case NFA_WBDRY:
+              case NFA_WNONBDRY:
+                if (((cp == 0 || !isWord(input.charAt(cp - 1)))
+                     ^ ((cp < end) && isWord(input.charAt(cp))))
+                    == (ops[pc] == NFA_WNONBDRY))
+                {
+                    stack[top++] = pc + 1;
+                }
+                break;
+              default:
+                threads[count] = pc;
+                System.arraycopy(caps, 0, threadSlots, count * slots, slots);
+                count++;
+                break;
+            }
+        }
+        return count;
+    }
+
     /*
      * indexp is assumed to be an array of length 1
      */
     Object executeRegExp(Context cx, Scriptable scopeObj, RegExpImpl res,
                          String str, int indexp[], int matchType)
     {
-        REGlobalData gData = new REGlobalData();
+        // The matcher's stacks are kept for the next execution
+        REGlobalData gData = res.globalData;
+        if (gData == null) {
+            gData = new REGlobalData();
+            res.globalData = gData;
+        }
 
         int start = indexp[0];
-        char[] charArray = str.toCharArray();
-        int end = charArray.length;
+        int end = str.length();
         if (start > end)
             start = end;
+        int backtrackLimit = cx.getMaximumRegExpBacktracks();
+        if (re.nfa != null && backtrackLimit > MAX_BACKTRACKS_BEFORE_NFA) {
+            backtrackLimit = MAX_BACKTRACKS_BEFORE_NFA;
+        }
+        gData.backtrackLimit = backtrackLimit;
         //
         // Call the recursive matcher to do the real work.
         //
-        boolean matches = matchRegExp(gData, re, charArray, start, end,
+        boolean matches = matchRegExp(gData, re, str, start, end,
                                       res.multiline);
+        gData.trim();
         if (!matches) {
             if (matchType != PREFIX) return null;
             return Undefined.instance;
@@ -2313,7 +3203,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
             result = ScriptRuntime.newObject(cx, scope, "Array", null);
             obj = (Scriptable) result;
 
-            String matchstr = new String(charArray, index, matchlen);
+            String matchstr = str.substring(index, index + matchlen);
             obj.put(0, obj, matchstr);
         }
 
@@ -2329,7 +3219,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
                 String parstr;
                 if (cap_index != -1) {
                     int cap_length = gData.parens_length(num);
-                    parsub = new SubString(charArray, cap_index, cap_length);
+                    parsub = new SubString(str, cap_index, cap_length);
                     res.parens[num] = parsub;
                     if (matchType == TEST) continue;
                     parstr = parsub.toString();
@@ -2357,11 +3247,11 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
             res.leftContext = new SubString();
             res.rightContext = new SubString();
         }
-        res.lastMatch.charArray = charArray;
+        res.lastMatch.str = str;
         res.lastMatch.index = index;
         res.lastMatch.length = matchlen;
 
-        res.leftContext.charArray = charArray;
+        res.leftContext.str = str;
         if (cx.getLanguageVersion() == Context.VERSION_1_2) {
             /*
              * JS1.2 emulated Perl4.0.1.8 (patch level 36) for global regexps used
@@ -2388,7 +3278,7 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
             res.leftContext.length = start + gData.skipped;
         }
 
-        res.rightContext.charArray = charArray;
+        res.rightContext.str = str;
         res.rightContext.index = ep;
         res.rightContext.length = end - ep;
 
@@ -2610,6 +3500,194 @@ System.out.println("Testing at " + gData.cp + ", op = " + op);
     private RECompiled re;
     double lastIndex;          /* index after last match, for //g iterator */
 
+    static class REGlobalData {
+        /*
+         * The state of each quantifier, alternative and assertion being matched
+         * takes STATE_SIZE ints in stateData. States form a linked list through
+         * STATE_PREVIOUS, so a backtrack point can restore the list it saw even
+         * after the states on it were popped. The states pushed after a
+         * backtrack point are freed when it is taken.
+         */
+        static final int STATE_PREVIOUS = 0;
+        static final int STATE_MIN = 1;             /* current quantifier min */
+        static final int STATE_MAX = 2;             /* current quantifier max */
+        static final int STATE_INDEX = 3;           /* progress in text */
+        static final int STATE_CONTINUATION_OP = 4;
+        static final int STATE_CONTINUATION_PC = 5;
+        static final int STATE_BACKTRACK = 6;       /* for ASSERT_ to recover */
+        static final int STATE_SIZE = 7;
+
+        /*
+         * Each backtrack point takes BACKTRACK_SIZE ints in backTrackData.
+         */
+        static final int BACKTRACK_OP = 0;          /* where to backtrack to */
+        static final int BACKTRACK_PC = 1;
+        static final int BACKTRACK_CP = 2;          /* char buffer index */
+        static final int BACKTRACK_LAST_PAREN = 3;
+        static final int BACKTRACK_STATE = 4;       /* state of backtracked op */
+        static final int BACKTRACK_STATE_DATA_TOP = 5;
+        static final int BACKTRACK_PARENS_UNDO = 6; /* parensUndo to restore */
+        static final int BACKTRACK_SIZE = 7;
+
+        // Stacks larger than this are not kept between executions
+        private static final int MAX_RETAINED_SIZE = 4096;
+
+        boolean multiline;
+        RECompiled regexp;              /* the RE in execution */
+        int lastParen;                  /* highest paren set so far */
+        int skipped;                    /* chars skipped anchoring this r.e. */
+        int backtracks;                 /* backtracks done in this match */
+        int backtrackLimit;             /* backtracks allowed in this match */
+
+        int cp;                         /* char buffer index */
+        long[] parens;                  /* parens captures */
+
+        int[] stateData = new int[16 * STATE_SIZE];
+        int stateDataTop;
+        int stateStackTop = -1;         /* states of current ancestors */
+
+        int[] backTrackData = new int[16 * BACKTRACK_SIZE];
+        int backTrackStackTop;          /* last matched-so-far position */
+
+        /*
+         * Captures changed while a backtrack point exists, as pairs of the old
+         * value and the paren index, so backtracking can restore them.
+         */
+        long[] parensUndo = new long[32];
+        int parensUndoTop;
+
+        /*
+         * Pike VM state for matchNfa: the instructions and captures of the
+         * threads at the current and the next position, the captures of the
+         * match and of the thread being added, and the stack of addNfaThread.
+         */
+        int nfaSlots;
+        int[] nfaThreads;
+        int[] nfaThreadSlots;
+        int[] nfaNextThreads;
+        int[] nfaNextThreadSlots;
+        int[] nfaMatch;
+        int[] nfaCaps;
+        int[] nfaVisited;
+        int[] nfaStack;
+
+        /**
+         * Empty the stacks before matching at a new position.
+         */
+        void reset()
+        {
+            stateDataTop = 0;
+            stateStackTop = -1;
+            backTrackStackTop = 0;
+            parensUndoTop = 0;
+        }
+
+        /**
+         * Release stacks that grew large while matching.
+         */
+        void trim()
+        {
+            if (stateData.length > MAX_RETAINED_SIZE) {
+                stateData = new int[16 * STATE_SIZE];
+            }
+            if (backTrackData.length > MAX_RETAINED_SIZE) {
+                backTrackData = new int[16 * BACKTRACK_SIZE];
+            }
+            if (parensUndo.length > MAX_RETAINED_SIZE) {
+                parensUndo = new long[32];
+            }
+        }
+
+        /**
+         * Size the Pike VM state for the program and the number of capture
+         * slots.
+         */
+        void prepareNfa(RENfa nfa, int slots)
+        {
+            nfaSlots = slots;
+            if (nfaThreads == null || nfaThreads.length < nfa.length) {
+                nfaThreads = new int[nfa.length];
+                nfaNextThreads = new int[nfa.length];
+                nfaVisited = new int[nfa.length];
+                nfaThreadSlots = null;
+            } else {
+                Arrays.fill(nfaVisited, 0, nfa.length, 0);
+            }
+            if (nfaThreadSlots == null
+                || nfaThreadSlots.length < nfa.length * slots)
+            {
+                nfaThreadSlots = new int[nfa.length * slots];
+                nfaNextThreadSlots = new int[nfa.length * slots];
+            }
+            if (nfaMatch == null || nfaMatch.length < slots) {
+                nfaMatch = new int[slots];
+                nfaCaps = new int[slots];
+            }
+            if (nfaStack == null || nfaStack.length < nfa.stackSize) {
+                nfaStack = new int[nfa.stackSize];
+            }
+        }
+
+        int[] growStateData()
+        {
+            int[] data = new int[stateData.length * 2];
+            System.arraycopy(stateData, 0, data, 0, stateDataTop);
+            stateData = data;
+            return data;
+        }
+
+        int[] growBackTrackData()
+        {
+            int[] data = new int[backTrackData.length * 2];
+            System.arraycopy(backTrackData, 0, data, 0, backTrackStackTop);
+            backTrackData = data;
+            return data;
+        }
+
+        /**
+         * Get start of parenthesis capture contents, -1 for empty.
+         */
+        int parens_index(int i)
+        {
+            return (int)(parens[i]);
+        }
+
+        /**
+         * Get length of parenthesis capture contents.
+         */
+        int parens_length(int i)
+        {
+            return (int)(parens[i] >>> 32);
+        }
+
+        void set_parens(int i, int index, int length)
+        {
+            if (backTrackStackTop != 0) {
+                int top = parensUndoTop;
+                if (top + 2 > parensUndo.length) {
+                    long[] newUndo = new long[parensUndo.length * 2];
+                    System.arraycopy(parensUndo, 0, newUndo, 0, top);
+                    parensUndo = newUndo;
+                }
+                parensUndo[top] = parens[i];
+                parensUndo[top + 1] = i;
+                parensUndoTop = top + 2;
+            }
+            parens[i] = (index & 0xffffffffL) | ((long)length << 32);
+        }
+
+        /**
+         * Restore the captures changed since parensUndoTop was undoTop.
+         */
+        void undoParens(int undoTop)
+        {
+            for (int top = parensUndoTop; top != undoTop; top -= 2) {
+                parens[(int)parensUndo[top - 1]] = parensUndo[top - 2];
+            }
+            parensUndoTop = undoTop;
+        }
+    }
+
 }       // class NativeRegExp
 
 class RECompiled implements Serializable
@@ -2622,7 +3700,83 @@ class RECompiled implements Serializable
     byte[] program;         /* regular expression bytecode */
     int classCount;         /* count [...] bitmaps */
     RECharSet[] classList;  /* list of [...] bitmaps */
-    int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
+    String prefix;          /* literal text every match starts with */
+    String required;        /* literal text every match contains */
+    boolean[] firstChars;   /* characters a match can start with, the
+                               last entry stands for all above '\u00FF' */
+    RENfa nfa;              /* program for matchNfa, null if unsupported */
+}
+
+/*
+ * Program for the Pike VM in NativeRegExp.matchNfa, one instruction per
+ * index of the arrays.
+ */
+class RENfa implements Serializable
+{
+    static final long serialVersionUID = -2394523811578447237L;
+
+    int[] ops = new int[16];    /* NFA_ instruction */
+    int[] args = new int[16];   /* char, class, target or slot */
+    int[] args2 = new int[16];  /* second target or end slot */
+    int length;
+    int stackSize;              /* stack needed by addNfaThread */
+
+    // Only used while the program is emitted
+    transient int[] consumers;  /* pcs of consuming instructions */
+    transient int consumerCount;
+    transient int freshDepth;   /* see NativeRegExp.emitNfaIteration */
+
+    int emit(int op, int arg, int arg2)
+    {
+        if (length == ops.length) {
+            int[] tmp = new int[length * 2];
+            System.arraycopy(ops, 0, tmp, 0, length);
+            ops = tmp;
+            tmp = new int[length * 2];
+            System.arraycopy(args, 0, tmp, 0, length);
+            args = tmp;
+            tmp = new int[length * 2];
+            System.arraycopy(args2, 0, tmp, 0, length);
+            args2 = tmp;
+        }
+        ops[length] = op;
+        args[length] = arg;
+        args2[length] = arg2;
+        return length++;
+    }
+
+    /**
+     * Record the instruction at pc as consuming and return its index.
+     */
+    int addConsumer(int pc)
+    {
+        if (consumers == null) {
+            consumers = new int[16];
+        } else if (consumerCount == consumers.length) {
+            int[] tmp = new int[consumerCount * 2];
+            System.arraycopy(consumers, 0, tmp, 0, consumerCount);
+            consumers = tmp;
+        }
+        consumers[consumerCount] = pc;
+        return consumerCount++;
+    }
+
+    /**
+     * Drop unused space.
+     */
+    void trim()
+    {
+        int[] tmp = new int[length];
+        System.arraycopy(ops, 0, tmp, 0, length);
+        ops = tmp;
+        tmp = new int[length];
+        System.arraycopy(args, 0, tmp, 0, length);
+        args = tmp;
+        tmp = new int[length];
+        System.arraycopy(args2, 0, tmp, 0, length);
+        args2 = tmp;
+        consumers = null;
+    }
 }
 
 class RENode {
@@ -2685,93 +3839,6 @@ class CompilerState {
     RENode      result;
 }
 
-class REProgState
-{
-    REProgState(REProgState previous, int min, int max, int index,
-                REBackTrackData backTrack,
-                int continuation_pc, int continuation_op)
-    {
-        this.previous = previous;
-        this.min = min;
-        this.max = max;
-        this.index = index;
-        this.continuation_op = continuation_op;
-        this.continuation_pc = continuation_pc;
-        this.backTrack = backTrack;
-    }
-
-    REProgState previous; // previous state in stack
-
-    int min;                      /* current quantifier min */
-    int max;                      /* current quantifier max */
-    int index;                    /* progress in text */
-    int continuation_op;
-    int continuation_pc;
-    REBackTrackData backTrack; // used by ASSERT_  to recover state
-}
-
-class REBackTrackData {
-
-    REBackTrackData(REGlobalData gData, int op, int pc)
-    {
-        previous = gData.backTrackStackTop;
-        continuation_op = op;
-        continuation_pc = pc;
-        lastParen = gData.lastParen;
-        if (gData.parens != null) {
-            parens = gData.parens.clone();
-        }
-        cp = gData.cp;
-        stateStackTop = gData.stateStackTop;
-    }
-
-    REBackTrackData previous;
-
-    int continuation_op;                /* where to backtrack to */
-    int continuation_pc;
-    int lastParen;
-    long[] parens;                      /* parenthesis captures */
-    int cp;                             /* char buffer index */
-    REProgState stateStackTop;          /* state of op that backtracked */
-}
-
-class REGlobalData {
-    boolean multiline;
-    RECompiled regexp;              /* the RE in execution */
-    int lastParen;                  /* highest paren set so far */
-    int skipped;                    /* chars skipped anchoring this r.e. */
-
-    int cp;                         /* char buffer index */
-    long[] parens;                  /* parens captures */
-
-    REProgState stateStackTop;       /* stack of state of current ancestors */
-
-    REBackTrackData backTrackStackTop;  /* last matched-so-far position */
-
-
-    /**
-     * Get start of parenthesis capture contents, -1 for empty.
-     */
-    int parens_index(int i)
-    {
-        return (int)(parens[i]);
-    }
-
-    /**
-     * Get length of parenthesis capture contents.
-     */
-    int parens_length(int i)
-    {
-        return (int)(parens[i] >>> 32);
-    }
-
-    void set_parens(int i, int index, int length)
-    {
-        parens[i] = (index & 0xffffffffL) | ((long)length << 32);
-    }
-
-}
-
 /*
  * This struct holds a bitmap representation of a class from a regexp.
  * There's a list of these referenced by the classList field in the NativeRegExp
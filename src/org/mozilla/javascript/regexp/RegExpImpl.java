@@ -112,7 +112,7 @@ public class RegExpImpl implements RegExpProxy {
                     SubString lc = this.leftContext;
                     replace_glob(data, cx, scope, this, lc.index, lc.length);
                 }
-                data.charBuf.append(rc.charArray, rc.index, rc.length);
+                data.charBuf.append(rc.str, rc.index, rc.index + rc.length);
                 return data.charBuf.toString();
             }
 
@@ -373,7 +373,7 @@ public class RegExpImpl implements RegExpProxy {
             charBuf.ensureCapacity(rdata.charBuf.length() + growth);
         }
 
-        charBuf.append(reImpl.leftContext.charArray, leftIndex, leftlen);
+        charBuf.append(reImpl.leftContext.str, leftIndex, leftIndex + leftlen);
         if (rdata.lambda != null) {
             charBuf.append(lambdaStr);
         } else {
@@ -492,7 +492,7 @@ public class RegExpImpl implements RegExpProxy {
                 if (sub != null) {
                     len = sub.length;
                     if (len > 0) {
-                        charBuf.append(sub.charArray, sub.index, len);
+                        charBuf.append(sub.str, sub.index, sub.index + len);
                     }
                     cp += skip[0];
                     dp += skip[0];
@@ -736,6 +736,8 @@ public class RegExpImpl implements RegExpProxy {
     SubString       lastParen;     /* last paren matched (perl $+) */
     SubString       leftContext;   /* input to left of last match (perl $`) */
     SubString       rightContext;  /* input to right of last match (perl $') */
+
+    NativeRegExp.REGlobalData globalData; /* matcher state reused by each match */
 }
 
 
@@ -0,0 +1,264 @@
+package org.mozilla.javascript.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.mozilla.javascript.ObjArray;
+import org.mozilla.javascript.ObjToIntMap;
+import org.mozilla.javascript.UintMap;
+
+/**
+ * Compares the runtime's primitive-specialized collections with the
+ * <code>java.util</code> collections of boxed values that would replace
+ * them: {@link ObjToIntMap} with a map from keys to Integer, {@link UintMap}
+ * with a map from Integer keys, and {@link ObjArray} with ArrayList.
+ * <p>
+ * Each case fills a collection with {@link #SIZE} entries and reads them
+ * back. The reported time is the best of {@link #RUNS} runs in nanoseconds
+ * per entry, and the reported memory is the heap retained per entry. Run
+ * with a fixed heap, e.g. <code>-Xms256m -Xmx256m</code>, for stable
+ * numbers.
+ */
+public class CollectionsBenchmark
+{
+    static final int SIZE = 1000;
+    static final int REPEAT = 200;
+    static final int RUNS = 10;
+    static final int RETAINED = 200;
+
+    static abstract class Case
+    {
+        abstract Object fill(String[] keys);
+
+        abstract int read(Object collection, String[] keys);
+    }
+
+    public static void main(String[] args)
+    {
+        String[] keys = new String[SIZE];
+        for (int i = 0; i != SIZE; ++i) {
+            keys[i] = ("key" + i).intern();
+        }
+        System.out.println("entries per collection: " + SIZE);
+        System.out.println(pad("", -16) + pad("ns per entry", 22)
+                           + pad("bytes per entry", 22));
+        System.out.println(pad("case", -16) + pad("rhino", 11)
+                           + pad("java.util", 11) + pad("rhino", 11)
+                           + pad("java.util", 11));
+        report("Object -> int", keys, new Case() {
+            Object fill(String[] keys) {
+                ObjToIntMap map = new ObjToIntMap();
+                for (int i = 0; i != keys.length; ++i) {
+                    map.put(keys[i], i);
+                }
+                return map;
+            }
+            int read(Object collection, String[] keys) {
+                ObjToIntMap map = (ObjToIntMap)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += map.get(keys[i], -1);
+                }
+                return sum;
+            }
+        }, new Case() {
+            Object fill(String[] keys) {
+                HashMap<Object,Integer> map = new HashMap<Object,Integer>();
+                for (int i = 0; i != keys.length; ++i) {
+                    map.put(keys[i], Integer.valueOf(i));
+                }
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            int read(Object collection, String[] keys) {
+                HashMap<Object,Integer> map =
+                    (HashMap<Object,Integer>)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += map.get(keys[i]).intValue();
+                }
+                return sum;
+            }
+        });
+        report("int -> Object", keys, new Case() {
+            Object fill(String[] keys) {
+                UintMap map = new UintMap();
+                for (int i = 0; i != keys.length; ++i) {
+                    map.put(i * 7, keys[i]);
+                }
+                return map;
+            }
+            int read(Object collection, String[] keys) {
+                UintMap map = (UintMap)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += ((String)map.getObject(i * 7)).length();
+                }
+                return sum;
+            }
+        }, new Case() {
+            Object fill(String[] keys) {
+                HashMap<Integer,Object> map = new HashMap<Integer,Object>();
+                for (int i = 0; i != keys.length; ++i) {
+                    map.put(Integer.valueOf(i * 7), keys[i]);
+                }
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            int read(Object collection, String[] keys) {
+                HashMap<Integer,Object> map =
+                    (HashMap<Integer,Object>)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += ((String)map.get(Integer.valueOf(i * 7))).length();
+                }
+                return sum;
+            }
+        });
+        report("int -> int", keys, new Case() {
+            Object fill(String[] keys) {
+                UintMap map = new UintMap();
+                for (int i = 0; i != keys.length; ++i) {
+                    map.put(i * 7, i * 3);
+                }
+                return map;
+            }
+            int read(Object collection, String[] keys) {
+                UintMap map = (UintMap)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += map.getInt(i * 7, -1);
+                }
+                return sum;
+            }
+        }, new Case() {
+            Object fill(String[] keys) {
+                HashMap<Integer,Integer> map =
+                    new HashMap<Integer,Integer>();
+                for (int i = 0; i != keys.length; ++i) {
+                    map.put(Integer.valueOf(i * 7), Integer.valueOf(i * 3));
+                }
+                return map;
+            }
+            @SuppressWarnings("unchecked")
+            int read(Object collection, String[] keys) {
+                HashMap<Integer,Integer> map =
+                    (HashMap<Integer,Integer>)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += map.get(Integer.valueOf(i * 7)).intValue();
+                }
+                return sum;
+            }
+        });
+        report("Object list", keys, new Case() {
+            Object fill(String[] keys) {
+                ObjArray list = new ObjArray();
+                for (int i = 0; i != keys.length; ++i) {
+                    list.add(keys[i]);
+                }
+                return list;
+            }
+            int read(Object collection, String[] keys) {
+                ObjArray list = (ObjArray)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += ((String)list.get(i)).length();
+                }
+                return sum;
+            }
+        }, new Case() {
+            Object fill(String[] keys) {
+                ArrayList<Object> list = new ArrayList<Object>();
+                for (int i = 0; i != keys.length; ++i) {
+                    list.add(keys[i]);
+                }
+                return list;
+            }
+            @SuppressWarnings("unchecked")
+            int read(Object collection, String[] keys) {
+                ArrayList<Object> list = (ArrayList<Object>)collection;
+                int sum = 0;
+                for (int i = 0; i != keys.length; ++i) {
+                    sum += ((String)list.get(i)).length();
+                }
+                return sum;
+            }
+        });
+    }
+
+    private static void report(String name, String[] keys, Case rhino,
+                               Case javaUtil)
+    {
+        // Warm up both cases before measuring either
+        time(rhino, keys);
+        time(javaUtil, keys);
+        System.out.println(pad(name, -16)
+                           + format(time(rhino, keys), 11)
+                           + format(time(javaUtil, keys), 11)
+                           + format(bytesPerEntry(rhino, keys), 11)
+                           + format(bytesPerEntry(javaUtil, keys), 11));
+    }
+
+    /**
+     * Return the best time of {@link #RUNS} runs in nanoseconds per entry.
+     */
+    private static double time(Case c, String[] keys)
+    {
+        long best = Long.MAX_VALUE;
+        int check = 0;
+        for (int run = 0; run != RUNS; ++run) {
+            long start = System.nanoTime();
+            for (int i = 0; i != REPEAT; ++i) {
+                check += c.read(c.fill(keys), keys);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (check == 42) {
+            // Use the result so the work can not be optimized away
+            System.out.print("");
+        }
+        return (double)best / ((double)REPEAT * keys.length);
+    }
+
+    private static double bytesPerEntry(Case c, String[] keys)
+    {
+        Object[] retained = new Object[RETAINED];
+        long before = usedMemory();
+        for (int i = 0; i != RETAINED; ++i) {
+            retained[i] = c.fill(keys);
+        }
+        long after = usedMemory();
+        if (retained[RETAINED - 1] == null) throw new IllegalStateException();
+        return (double)(after - before) / ((double)RETAINED * keys.length);
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i != 4; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String format(double value, int width)
+    {
+        return pad(String.format("%.1f", value), width);
+    }
+
+    /**
+     * Pad s with spaces to the absolute value of width, on the left for a
+     * positive width and on the right for a negative one.
+     */
+    private static String pad(String s, int width)
+    {
+        StringBuilder sb = new StringBuilder();
+        if (width < 0) sb.append(s);
+        for (int i = s.length(); i < Math.abs(width); ++i) {
+            sb.append(' ');
+        }
+        if (width > 0) sb.append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package org.mozilla.javascript.benchmarks;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Reports the heap used per property of small script objects, with the slot
+ * hash table and with shaped storage, see
+ * {@link Context#FEATURE_SHAPED_OBJECTS}.
+ * <p>
+ * Each measurement retains {@link #OBJECTS} objects and subtracts the heap
+ * used by the same number of empty objects, so the reported bytes cover only
+ * the property storage. Run with a fixed heap, e.g. <code>-Xms256m
+ * -Xmx256m</code>, for stable numbers.
+ */
+public class PropertyMemoryBenchmark
+{
+    static final int OBJECTS = 20000;
+    static final int[] PROPERTY_COUNTS = { 1, 4, 8, 16, 32 };
+
+    private static final String SOURCE =
+        "function make(count, n, unshared) {\n" +
+        "  var a = [];\n" +
+        "  for (var i = 0; i < count; i++) {\n" +
+        "    var o = {};\n" +
+        "    if (unshared) o.x = 0;\n" +
+        "    for (var k = 0; k < n; k++) o['p' + k] = k;\n" +
+        "    if (unshared) delete o.x;\n" +
+        "    a.push(o);\n" +
+        "  }\n" +
+        "  return a;\n" +
+        "}\n";
+
+    static class BenchmarkFactory extends ContextFactory
+    {
+        private final boolean shaped;
+
+        BenchmarkFactory(boolean shaped)
+        {
+            this.shaped = shaped;
+        }
+
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex)
+        {
+            if (featureIndex == Context.FEATURE_SHAPED_OBJECTS) {
+                return shaped;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        System.out.println("objects per measurement: " + OBJECTS);
+        System.out.println("properties  slot table  shaped  shaped unshared"
+                           + "   (bytes per property)");
+        for (int n : PROPERTY_COUNTS) {
+            System.out.println(pad(String.valueOf(n), 10)
+                               + format(bytesPerProperty(false, n, false), 12)
+                               + format(bytesPerProperty(true, n, false), 8)
+                               + format(bytesPerProperty(true, n, true), 17));
+        }
+    }
+
+    static double bytesPerProperty(boolean shaped, int n, boolean unshared)
+    {
+        long base = measure(shaped, 0, unshared);
+        long used = measure(shaped, n, unshared);
+        return (double)(used - base) / ((double)OBJECTS * n);
+    }
+
+    /**
+     * Return the heap retained by {@link #OBJECTS} objects with the given
+     * number of properties each.
+     */
+    static long measure(boolean shaped, int n, boolean unshared)
+    {
+        Context cx = new BenchmarkFactory(shaped).enterContext();
+        try {
+            cx.setOptimizationLevel(-1);
+            Scriptable scope = cx.initStandardObjects();
+            cx.evaluateString(scope, SOURCE, "make", 1, null);
+            Function make = (Function)scope.get("make", scope);
+            Object[] args = { Integer.valueOf(OBJECTS), Integer.valueOf(n),
+                              Boolean.valueOf(unshared) };
+            // Warm up so the measured run does not include shared layouts
+            // and interpreter data created on first use
+            make.call(cx, scope, scope, args);
+            long before = usedMemory();
+            Object objects = make.call(cx, scope, scope, args);
+            long after = usedMemory();
+            if (objects == null) throw new IllegalStateException();
+            return after - before;
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i != 4; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String format(double value, int width)
+    {
+        return pad(String.format("%.1f", value), width);
+    }
+
+    private static String pad(String s, int width)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = s.length(); i < width; ++i) {
+            sb.append(' ');
+        }
+        return sb.append(s).toString();
+    }
+}
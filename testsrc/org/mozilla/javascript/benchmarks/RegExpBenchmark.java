@@ -0,0 +1,143 @@
+package org.mozilla.javascript.benchmarks;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Reports the time and the heap allocated per run of regular expression
+ * workloads: the V8 regexp benchmark in
+ * <code>testsrc/benchmarks/v8/regexp.js</code>, a global match that
+ * captures <code>key = "value"</code> pairs from a large string, a pattern
+ * that backtracks through a long alternation without matching, and a
+ * global match for a fixed token that is rare in a large log.
+ * <p>
+ * The reported time is the best of {@link #RUNS} runs. Allocation is only
+ * reported on JVMs whose thread bean can measure it. Pass the directory of
+ * the V8 benchmarks as the first argument if it is not the default.
+ */
+public class RegExpBenchmark
+{
+    static final int WARMUP = 5;
+    static final int RUNS = 10;
+
+    private static final String SOURCE =
+        "var kvParts = [];\n" +
+        "for (var i = 0; i < 20000; i++)\n" +
+        "  kvParts.push('key' + i + ' = \"value ' + i + '\"; ');\n" +
+        "var kvInput = kvParts.join('');\n" +
+        "function keyValues() {\n" +
+        "  var re = /(\\w+)\\s*=\\s*(\"[^\"]*\")/g, m, n = 0;\n" +
+        "  while ((m = re.exec(kvInput))) n += m[2].length;\n" +
+        "  return n;\n" +
+        "}\n" +
+        "var altInput = new Array(201).join('ab') + 'x';\n" +
+        "function alternation() {\n" +
+        "  var n = 0;\n" +
+        "  for (var i = 0; i < 20; i++)\n" +
+        "    if (/((?:a|b)+)c/.test(altInput.substring(i * 10))) n++;\n" +
+        "  return n;\n" +
+        "}\n" +
+        "var logLines = [];\n" +
+        "for (var i = 0; i < 50000; i++)\n" +
+        "  logLines.push('12:00:' + (i % 60) + (i % 100 ? ' INFO' : ' ERROR')\n" +
+        "                + ' Executor worker-' + i + ' handled EVENT ' + i);\n" +
+        "var logInput = logLines.join('\\n');\n" +
+        "function logErrors() {\n" +
+        "  var re = /ERROR Executor worker-(\\d+)/g, m, n = 0;\n" +
+        "  while ((m = re.exec(logInput))) n += m[1].length;\n" +
+        "  return n;\n" +
+        "}\n";
+
+    public static void main(String[] args) throws IOException
+    {
+        File dir = new File(args.length > 0 ? args[0]
+                                            : "testsrc/benchmarks/v8");
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(9);
+            Scriptable scope = cx.initStandardObjects();
+            evaluateFile(cx, scope, new File(dir, "base.js"));
+            evaluateFile(cx, scope, new File(dir, "regexp.js"));
+            cx.evaluateString(scope, SOURCE, "RegExpBenchmark", 1, null);
+
+            System.out.println(pad("case", -16) + pad("ms per run", 12)
+                               + pad("KB allocated", 16));
+            report(cx, scope, "v8 regexp", "runRegExpBenchmark");
+            report(cx, scope, "key = value", "keyValues");
+            report(cx, scope, "alternation", "alternation");
+            report(cx, scope, "log token", "logErrors");
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static void evaluateFile(Context cx, Scriptable scope, File file)
+        throws IOException
+    {
+        Reader in = new FileReader(file);
+        try {
+            cx.evaluateReader(scope, in, file.getPath(), 1, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void report(Context cx, Scriptable scope, String name,
+                               String functionName)
+    {
+        Function f = (Function)scope.get(functionName, scope);
+        Object[] noArgs = new Object[0];
+        for (int i = 0; i != WARMUP; ++i) {
+            f.call(cx, scope, scope, noArgs);
+        }
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i != RUNS; ++i) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            f.call(cx, scope, scope, noArgs);
+            best = Math.min(best, System.nanoTime() - start);
+            if (bytes >= 0) {
+                allocated = Math.min(allocated, allocatedBytes() - bytes);
+            }
+        }
+        System.out.println(pad(name, -16)
+                           + pad(String.valueOf(best / 1000000), 12)
+                           + pad(allocated == Long.MAX_VALUE
+                                 ? "n/a" : String.valueOf(allocated / 1024),
+                                 16));
+    }
+
+    private static long allocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean =
+                (com.sun.management.ThreadMXBean)bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                return sunBean.getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static String pad(String s, int width)
+    {
+        StringBuilder sb = new StringBuilder();
+        if (width < 0) sb.append(s);
+        for (int i = s.length(); i < Math.abs(width); ++i) {
+            sb.append(' ');
+        }
+        if (width > 0) sb.append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that functions containing closures keep the variables the closures
+ * do not use out of their activation object without changing behavior.
+ */
+public class ClosureVariablesTest extends TestCase {
+    private void assertEval(final String expected, final String source) {
+        final ContextAction action = new ContextAction() {
+            public Object run(Context cx) {
+                cx.setLanguageVersion(Context.VERSION_1_8);
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals("opt " + cx.getOptimizationLevel(), expected,
+                             Context.toString(result));
+                return null;
+            }
+        };
+        Utils.runWithAllOptimizationLevels(action);
+    }
+
+    public void testOnlyCapturedVariablesInActivation() {
+        assertEval("false,true,false,true,false",
+            "function f(a, b) { var c = 1, d = 2;" +
+            "  var g = function() { return b + d; }; return g.__parent__; }" +
+            "var p = f(1, 2);" +
+            "['a' in p, 'b' in p, 'c' in p, 'd' in p, 'g' in p].join()");
+    }
+
+    public void testCapturedAndRegisterVariables() {
+        assertEval("6,7,10:numberundefinednumber",
+            "function counter(start) { var unused = 10, count = start;" +
+            "  for (var i = 0; i < 3; i++) unused += i;" +
+            "  return function() { return count++; }; }" +
+            "function mk(a, b) { var t = a * 2, fns = [];" +
+            "  for (var i = 0; i < 3; i++) fns.push(function() { return b + t; });" +
+            "  return fns[1]() + ':' + typeof t + typeof zz + typeof b; }" +
+            "var c = counter(5); c();" +
+            "[c(), c(), mk(3, 4)].join()");
+    }
+
+    public void testFunctionDeclarationsAndShadowing() {
+        assertEval("14,108,1",
+            "function decl(x) { var y = x + 1;" +
+            "  function g() { return y * 2; } return g() + h();" +
+            "  function h() { return x; } }" +
+            "function shadow(x) { var s = x;" +
+            "  return (function(s) { var x = 7; return s + x; })(1) + s; }" +
+            "function named() { var x = 1;" +
+            "  var g = function self(n) { return n ? self(n - 1) : x; };" +
+            "  return g(3); }" +
+            "[decl(4), shadow(100), named()].join()");
+    }
+
+    public void testEvalInNestedFunction() {
+        assertEval("42",
+            "function ev(x) { var y = 2;" +
+            "  return (function() { return eval('x + y'); })(); }" +
+            "ev(40)");
+    }
+
+    public void testCatchAndLetScopes() {
+        assertEval("6,12",
+            "function catcher() { var e = 1; var f = function() { return e; };" +
+            "  try { throw 5; } catch (e) { return e + f(); } }" +
+            "function letblk() { var out = [];" +
+            "  for (var i = 0; i < 3; i++) { let j = i;" +
+            "    out.push(function() { return j; }); }" +
+            "  var s = 0; for (var k = 0; k < 3; k++) s = s * 10 + out[k]();" +
+            "  return s; }" +
+            "[catcher(), letblk()].join()");
+    }
+
+    public void testFunctionArgumentsProperty() {
+        assertEval("1:1",
+            "function fa(a, b) { function inner() { return b; }" +
+            "  return fa.arguments[0] + ':' + fa.arguments.length; }" +
+            "fa(1)");
+    }
+}
@@ -0,0 +1,176 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.CompiledScriptCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Tests for {@link CompiledScriptCache}.
+ */
+public class CompiledScriptCacheTest extends TestCase {
+    private CompiledScriptCache cache;
+    private ContextFactory factory;
+
+    private void init(int opt, int maxEntries, long maxWeight) {
+        final int optLevel = opt;
+        cache = new CompiledScriptCache(maxEntries, maxWeight);
+        factory = new ContextFactory() {
+            @Override
+            protected void onContextCreated(Context cx) {
+                super.onContextCreated(cx);
+                cx.setOptimizationLevel(optLevel);
+            }
+        };
+        factory.setCompiledScriptCache(cache);
+    }
+
+    // Use a new thread so the Context comes from our factory even if the
+    // caller has already entered one
+    private Object call(final ContextAction action) {
+        final Object[] result = new Object[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                result[0] = factory.call(action);
+            }
+        };
+        t.start();
+        try {
+            t.join();
+        } catch (InterruptedException ex) {
+            fail(ex.toString());
+        }
+        return result[0];
+    }
+
+    private Script compile(final String source, final int lineno) {
+        return (Script)call(new ContextAction() {
+            public Object run(Context cx) {
+                return cx.compileString(source, "test", lineno, null);
+            }
+        });
+    }
+
+    private void checkScriptsAreShared(int opt) {
+        init(opt, 10, 1000);
+        Script s1 = compile("1 + 2", 1);
+        Script s2 = compile("1 + 2", 1);
+        assertSame(s1, s2);
+        assertNotSame(s1, compile("1 + 2", 2));
+        assertNotSame(s1, compile("1 + 3", 1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.size());
+        assertEquals(15, cache.getWeight());
+        assertEquals("3", call(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                return Context.toString(
+                    cx.evaluateString(scope, "1 + 2", "test", 1, null));
+            }
+        }));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    public void testInterpretedScriptsAreShared() {
+        checkScriptsAreShared(-1);
+    }
+
+    public void testCompiledScriptsAreShared() {
+        checkScriptsAreShared(9);
+    }
+
+    private void checkFunctions(int opt) {
+        init(opt, 10, 1000);
+        final Function[] functions = new Function[2];
+        assertEquals("a,b", call(new ContextAction() {
+            public Object run(Context cx) {
+                String result = "";
+                for (int i = 0; i < 2; i++) {
+                    Scriptable scope = cx.initStandardObjects();
+                    ScriptableObject.putProperty(scope, "x",
+                                                 i == 0 ? "a" : "b");
+                    functions[i] = cx.compileFunction(scope,
+                        "function f() { return x; }", "test", 1, null);
+                    result += (i == 0 ? "" : ",") + Context.toString(
+                        functions[i].call(cx, scope, scope, new Object[0]));
+                }
+                return result;
+            }
+        }));
+        assertNotSame(functions[0], functions[1]);
+        assertSame(functions[0].getClass(), functions[1].getClass());
+        assertEquals(1, cache.getHitCount());
+        // Scripts and functions with the same source are different entries
+        compile("function f() { return x; }", 1);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testInterpretedFunctions() {
+        checkFunctions(-1);
+    }
+
+    public void testCompiledFunctions() {
+        checkFunctions(9);
+    }
+
+    public void testShapedObjectsAreInKey() {
+        init(-1, 10, 1000);
+        Script plain = compile("1 + 2", 1);
+        factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                if (featureIndex == Context.FEATURE_SHAPED_OBJECTS) {
+                    return true;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+
+            @Override
+            protected void onContextCreated(Context cx) {
+                super.onContextCreated(cx);
+                cx.setOptimizationLevel(-1);
+            }
+        };
+        factory.setCompiledScriptCache(cache);
+        Script shaped = compile("1 + 2", 1);
+        assertNotSame(plain, shaped);
+        assertSame(shaped, compile("1 + 2", 1));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        init(-1, 2, 1000);
+        Script a = compile("'a'", 1);
+        Script b = compile("'b'", 1);
+        assertSame(a, compile("'a'", 1));
+        compile("'c'", 1);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+        assertSame(a, compile("'a'", 1));
+        assertNotSame(b, compile("'b'", 1));
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    public void testWeightLimit() {
+        init(-1, 10, 10);
+        compile("'aaaa'", 1);
+        compile("'bbbb'", 1);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(6, cache.getWeight());
+        // Sources heavier than the limit are not kept
+        compile("'cccccccccc'", 1);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+}
@@ -0,0 +1,153 @@
+package org.mozilla.javascript.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.ConsString;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Tests that strings built by repeated concatenation behave like
+ * ordinary strings, see {@link Context#FEATURE_CONS_STRINGS}.
+ */
+public class ConsStringTest extends TestCase {
+    private static final String BUILD =
+        "var s = ''; for (var i = 0; i < 200; i++) s += 'abc' + i;" +
+        "var t = ''; for (var i = 0; i < 200; i++) t = t + ('abc' + i);";
+
+    static class ConsFactory extends ContextFactory {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex)
+        {
+            if (featureIndex == Context.FEATURE_CONS_STRINGS) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    }
+
+    private void assertEval(final String expected, final String source) {
+        final ContextAction action = new ContextAction() {
+            public Object run(Context cx) {
+                cx.setLanguageVersion(Context.VERSION_1_8);
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, BUILD + source,
+                                                  "test", 1, null);
+                assertEquals("opt " + cx.getOptimizationLevel(), expected,
+                             Context.toString(result));
+                return null;
+            }
+        };
+        new ConsFactory().call(new ContextAction() {
+            public Object run(Context cx) {
+                Utils.runWithAllOptimizationLevels(action);
+                return null;
+            }
+        });
+    }
+
+    public void testConcat() {
+        new ConsFactory().call(new ContextAction() {
+            public Object run(Context cx) {
+                checkConcat();
+                return null;
+            }
+        });
+    }
+
+    private void checkConcat() {
+        CharSequence a = ScriptRuntime.concat("short", "string");
+        assertTrue(a instanceof String);
+        StringBuilder expected = new StringBuilder();
+        CharSequence s = "";
+        for (int i = 0; i < 100; i++) {
+            s = ScriptRuntime.concat(s, "piece" + i);
+            expected.append("piece").append(i);
+        }
+        assertTrue(s instanceof ConsString);
+        assertEquals(expected.length(), s.length());
+        assertEquals(expected.toString(), s.toString());
+        assertEquals('c', s.charAt(3));
+        assertSame(s, ScriptRuntime.concat(s, ""));
+    }
+
+    public void testStringOperations() {
+        assertEval("string,1090,true,true,b,49,1084,9,490,201",
+            "[typeof s, s.length, s === t, s == t, s.charAt(5)," +
+            " s.charCodeAt(7), s.indexOf('abc199'), /abc19(\\d)$/.exec(s)[1]," +
+            " s.replace(/abc/g, '').length, s.split('abc').length].join()");
+    }
+
+    public void testComparisonsAndKeys() {
+        assertEval("true,true,true,1,true,ok,object",
+            "var o = {}; o[s] = 1; var sw;" +
+            "switch (s) { case t: sw = 'ok'; break; default: sw = 'bad'; }" +
+            "[s < t + 'x', s + 0 == t + 0, !!s, o[t], s in o, sw," +
+            " typeof new String(s)].join()");
+    }
+
+    public void testJsonAndJavaInterop() {
+        assertEval("1098,true,1090,java.lang.String",
+            "var l = new java.util.ArrayList(); l.add(s);" +
+            "[JSON.stringify({a: s}).length, JSON.parse(JSON.stringify(s)) === s," +
+            " new java.lang.StringBuilder(s).length(), l.get(0).getClass().getName()].join()");
+    }
+
+    public void testSerialization() throws Exception {
+        CharSequence s = (CharSequence)new ConsFactory().call(
+            new ContextAction() {
+                public Object run(Context cx) {
+                    CharSequence result = "";
+                    for (int i = 0; i < 50; i++) {
+                        result = ScriptRuntime.concat(result, "piece" + i);
+                    }
+                    return result;
+                }
+            });
+        assertTrue(s instanceof ConsString);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(s);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(s.toString(), in.readObject());
+    }
+
+    public void testOffByDefault() {
+        assertFalse(ScriptRuntime.concat(
+            new String(new char[40]), new String(new char[40]))
+            instanceof ConsString);
+        final ContextAction action = new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope,
+                    BUILD + "var o = {s: s}; function f() { return s + t; } s",
+                    "test", 1, null);
+                assertTrue(result instanceof String);
+                assertEquals(1090, ((String)result).length());
+                assertTrue(ScriptableObject.getProperty(scope, "t")
+                           instanceof String);
+                Scriptable o = (Scriptable)scope.get("o", scope);
+                assertTrue(o.get("s", o) instanceof String);
+                Function f = (Function)scope.get("f", scope);
+                assertTrue(f.call(cx, scope, scope, new Object[0])
+                           instanceof String);
+                assertTrue(Context.javaToJS(scope.get("s", scope), scope)
+                           instanceof String);
+                return null;
+            }
+        };
+        Utils.runWithAllOptimizationLevels(action);
+    }
+}
@@ -0,0 +1,93 @@
+package org.mozilla.javascript.tests;
+
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that interpreted calls reusing released call frames do not see
+ * state left by earlier calls.
+ */
+public class InterpreterFrameReuseTest extends TestCase {
+    private Context cx;
+    private Scriptable scope;
+
+    @Override
+    protected void setUp() {
+        cx = Context.enter();
+        cx.setOptimizationLevel(-1);
+        cx.setLanguageVersion(Context.VERSION_1_8);
+        scope = cx.initStandardObjects();
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private String eval(String source) {
+        return Context.toString(
+            cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    public void testRecursion() {
+        assertEquals("832040,<<xx><xx>>",
+            eval("function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }" +
+                 "function r(d) { if (d == 0) return 'x';" +
+                 "  var s = '<'; for (var i = 0; i < 2; i++) s += r(d - 1);" +
+                 "  return s + '>'; }" +
+                 "[fib(30), r(2)].join()"));
+    }
+
+    public void testConstAttributesAreReset() {
+        assertEquals("1,2",
+            eval("function a() { const c = 1; c = 2; return c; }" +
+                 "function b() { var v = 1; v = 2; return v; }" +
+                 "[a(), b()].join()"));
+    }
+
+    public void testGeneratorVariablesSurviveCalls() {
+        assertEquals("0,1,2",
+            eval("function g() { for (var i = 0; i < 3; i++) yield i; }" +
+                 "function f(x) { var y = x + 1; return y; }" +
+                 "function make() { return g(); }" +
+                 "var it = make(), out = [];" +
+                 "for (var k = 0; k < 3; k++) { f(k); out.push(it.next()); }" +
+                 "out.join()"));
+    }
+
+    public void testStackTraceAfterFramesAreReleased() {
+        JavaScriptException ex = null;
+        try {
+            eval("function inner(n) { if (n == 0) throw 'boom'; inner(n - 1); }\n" +
+                 "function outer() { inner(3); }\n" +
+                 "outer();");
+        } catch (JavaScriptException e) {
+            ex = e;
+        }
+        assertNotNull(ex);
+        eval("function other(n) { return n == 0 ? 0 : other(n - 1); }\n" +
+             "other(10); other(10);");
+        String trace = ex.getScriptStackTrace();
+        assertTrue(trace, trace.indexOf("test:1 (inner)") >= 0);
+        assertTrue(trace, trace.indexOf("test:2 (outer)") >= 0);
+        assertTrue(trace, trace.indexOf("(other)") < 0);
+    }
+
+    public void testReleasedFramesDoNotKeepClosures() {
+        Object held = cx.evaluateString(scope,
+            "(function() { var held = {};" +
+            "  function f() { return held; } f(); return f(); })()",
+            "test", 1, null);
+        WeakReference<Object> ref = new WeakReference<Object>(held);
+        held = null;
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+        }
+        assertNull(ref.get());
+    }
+}
@@ -0,0 +1,120 @@
+package org.mozilla.javascript.tests;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that Interpreter.interpretLoop stays small enough to be compiled
+ * by HotSpot, which by default does not compile methods with more than
+ * 8000 bytes of bytecode (-XX:HugeMethodLimit).
+ */
+public class InterpreterSizeTest extends TestCase {
+    private static final int HUGE_METHOD_LIMIT = 8000;
+
+    public void testInterpretLoopIsNotHuge() throws IOException {
+        int length = getCodeLength("org/mozilla/javascript/Interpreter.class",
+                                   "interpretLoop");
+        assertTrue("interpretLoop has " + length + " bytes of bytecode",
+                   0 < length && length <= HUGE_METHOD_LIMIT);
+    }
+
+    /**
+     * Returns the length of the code of the named method in the class file,
+     * or -1 if there is no such method.
+     */
+    private static int getCodeLength(String classFile, String method)
+        throws IOException
+    {
+        InputStream is = InterpreterSizeTest.class.getClassLoader()
+            .getResourceAsStream(classFile);
+        assertNotNull(classFile, is);
+        DataInputStream in = new DataInputStream(is);
+        try {
+            assertEquals(0xCAFEBABE, in.readInt());
+            in.readUnsignedShort();  // minor version
+            in.readUnsignedShort();  // major version
+            int poolCount = in.readUnsignedShort();
+            String[] utf8 = new String[poolCount];
+            for (int i = 1; i < poolCount; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                  case 1:   // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                  case 7:   // Class
+                  case 8:   // String
+                  case 16:  // MethodType
+                  case 19:  // Module
+                  case 20:  // Package
+                    in.readUnsignedShort();
+                    break;
+                  case 15:  // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                  case 3:   // Integer
+                  case 4:   // Float
+                  case 9:   // Fieldref
+                  case 10:  // Methodref
+                  case 11:  // InterfaceMethodref
+                  case 12:  // NameAndType
+                  case 17:  // Dynamic
+                  case 18:  // InvokeDynamic
+                    in.readInt();
+                    break;
+                  case 5:   // Long
+                  case 6:   // Double
+                    in.readLong();
+                    i++;
+                    break;
+                  default:
+                    fail("Unknown constant pool tag " + tag);
+                }
+            }
+            in.readUnsignedShort();  // access flags
+            in.readUnsignedShort();  // this class
+            in.readUnsignedShort();  // super class
+            skip(in, 2 * in.readUnsignedShort());  // interfaces
+            int fieldCount = in.readUnsignedShort();
+            for (int i = 0; i < fieldCount; i++) {
+                skip(in, 6);
+                skipAttributes(in);
+            }
+            int methodCount = in.readUnsignedShort();
+            for (int i = 0; i < methodCount; i++) {
+                in.readUnsignedShort();  // access flags
+                String name = utf8[in.readUnsignedShort()];
+                in.readUnsignedShort();  // descriptor
+                int attributeCount = in.readUnsignedShort();
+                for (int j = 0; j < attributeCount; j++) {
+                    String attribute = utf8[in.readUnsignedShort()];
+                    int length = in.readInt();
+                    if (name.equals(method) && attribute.equals("Code")) {
+                        in.readUnsignedShort();  // max stack
+                        in.readUnsignedShort();  // max locals
+                        return in.readInt();
+                    }
+                    skip(in, length);
+                }
+            }
+            return -1;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.readUnsignedShort();
+            skip(in, in.readInt());
+        }
+    }
+
+    private static void skip(DataInputStream in, int n) throws IOException {
+        in.readFully(new byte[n]);
+    }
+}
@@ -0,0 +1,75 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests for the fused compare-and-branch and local property icodes of the
+ * interpreter. Results must match the compiled mode.
+ */
+public class InterpreterSuperinstructionsTest extends TestCase {
+    private String eval(int opt, String source) {
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(opt);
+            Scriptable scope = cx.initStandardObjects();
+            return Context.toString(
+                cx.evaluateString(scope, source, "test", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private void check(String expected, String source) {
+        assertEquals(expected, eval(-1, source));
+        assertEquals(expected, eval(9, source));
+    }
+
+    public void testCompareAndBranch() {
+        String f =
+            "function f(a, b) {" +
+            "  var r = '';" +
+            "  if (a < b) r += 'l';" +
+            "  if (a <= b) r += 'L';" +
+            "  if (a > b) r += 'g';" +
+            "  if (a >= b) r += 'G';" +
+            "  if (!(a < b)) r += 'n';" +
+            "  return r;" +
+            "}";
+        check("lL", f + "f(1, 2)");
+        check("LGn", f + "f(2, 2)");
+        check("gGn", f + "f(3, 2)");
+        check("n", f + "f(NaN, 2)");
+        check("n", f + "f(undefined, 2)");
+        check("gGn", f + "f('9', '10')");
+        check("lL", f + "f('9', 10)");
+    }
+
+    public void testLoopConditions() {
+        check("55,11,8",
+              "var s = 0; for (var i = 10; i >= 0; i--) s += i;" +
+              "var c = 0; for (var j = 0; j <= 10; j++) c++;" +
+              "var n = 0; while (n <= 7.5) n++;" +
+              "[s, c, n].join()");
+    }
+
+    public void testConversionOrder() {
+        check("lr,rl",
+              "var seq = [];" +
+              "var a = {valueOf: function() { seq.push('l'); return 1; }};" +
+              "var b = {valueOf: function() { seq.push('r'); return 2; }};" +
+              "if (a < b) seq.push(',');" +
+              "if (a > b) seq.push('x');" +
+              "seq.join('')");
+    }
+
+    public void testLocalPropertyGet() {
+        check("15,,3",
+              "function f(o, p) { var t = 0;" +
+              "  for (var i = 0; i < 3; i++) t += o.x;" +
+              "  return [t, o.y, p.length].join(); }" +
+              "f({x: 5}, 'abc')");
+    }
+}
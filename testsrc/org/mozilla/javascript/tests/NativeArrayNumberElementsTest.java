@@ -0,0 +1,63 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Checks dense arrays that keep their elements as unboxed numbers until the
+ * first store of another value.
+ */
+public class NativeArrayNumberElementsTest extends TestCase {
+    private void assertEvaluates(final Object expected, final String source) {
+        final ContextAction action = new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals("opt " + cx.getOptimizationLevel(), expected,
+                             Context.toString(result));
+                return null;
+            }
+        };
+        Utils.runWithAllOptimizationLevels(action);
+    }
+
+    public void testNumbers() {
+        assertEvaluates("4950,1.5,-Infinity",
+            "var a = []; for (var i = 0; i < 100; i++) a[i] = i;" +
+            "var s = 0; for (var i = 0; i < a.length; i++) s += a[i];" +
+            "a[1] = 1.5; a[2] = -0; [s, a[1], 1 / a[2]].join()");
+    }
+
+    public void testFirstOtherValue() {
+        assertEvaluates("0,x,2,3,object",
+            "var a = [];  for (var i = 0; i < 3; i++) a[i] = i;" +
+            "a[1] = 'x'; a.push(3); a[4] = {}; a.slice(0, 4).concat(typeof a[4]).join()");
+    }
+
+    public void testHolesAndNaN() {
+        assertEvaluates(",NaN,,true,false,true,5",
+            "var a = new Array(5); a[1] = NaN; a[3] = 0; delete a[3];" +
+            "[a.slice(0, 3).join(), isNaN(a[1]), 3 in a, a[4] === undefined," +
+            " a.length].join()");
+    }
+
+    public void testArrayMethods() {
+        assertEvaluates("0,1,2,3|3|0|2,1|1,9,2|2,9,1|1|-1|0,1,2,9",
+            "var a = []; a.push(1, 2); a.unshift(0); a.push(3); var r = [a.join()];" +
+            "r.push(a.pop(), a.shift(), a.slice().reverse().join());" +
+            "a.splice(1, 0, 9); r.push(a.join(), a.reverse().join());" +
+            "r.push(a.indexOf(9), a.indexOf('9'));" +
+            "r.push([0].concat(a).sort().join()); r.join('|')");
+    }
+
+    public void testLength() {
+        assertEvaluates("1,,2,3,0,100001",
+            "var a = [1]; a[2] = 2; var r = [a.join(), a.length];" +
+            "a.length = 0; r.push(a.length); a[100000] = 1; r.push(a.length);" +
+            "r.join()");
+    }
+}
@@ -0,0 +1,83 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that variables of enclosing functions the compiler resolves to an
+ * activation depth and a variable index behave like the ones found by
+ * searching the scope chain.
+ */
+public class OuterVariableAccessTest extends TestCase {
+    private void assertEval(final String expected, final String source) {
+        final ContextAction action = new ContextAction() {
+            public Object run(Context cx) {
+                cx.setLanguageVersion(Context.VERSION_1_8);
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals("opt " + cx.getOptimizationLevel(), expected,
+                             Context.toString(result));
+                return null;
+            }
+        };
+        Utils.runWithAllOptimizationLevels(action);
+    }
+
+    public void testModulePattern() {
+        assertEval("1,3,3,true",
+            "var M = (function() { var count = 0;" +
+            "  function bump() { count = count + 1; return count; }" +
+            "  function self() { return this; }" +
+            "  return { bump: bump, get: function() { return count; }," +
+            "    twice: function() { bump(); return bump(); }," +
+            "    self: function() { return self(); } }; })();" +
+            "[M.bump(), M.twice(), M.get(), M.self() === this].join()");
+    }
+
+    public void testNestedDepths() {
+        assertEval("112,113,2,6",
+            "function a(x) { var y = 10;" +
+            "  function b() { var z = 100;" +
+            "    return function() { var w = 1; x = x + 1;" +
+            "      return (function() { return x + y + z; })() + w; }; }" +
+            "  var f = b(); return [f(), f(), x].join(); }" +
+            "a(0) + ',' + (function(n) { return function() { return n * 2; }; })(3)()");
+    }
+
+    public void testShadowingScopes() {
+        assertEval("inner,catch,with,eval,let,3",
+            "function s() { var v = 'outer', k = 1;" +
+            "  var r = [(function() { var v = 'inner'; return v; })()];" +
+            "  try { throw 'catch'; } catch (v) {" +
+            "    r.push((function() { return v; })()); }" +
+            "  with ({ v: 'with' }) { r.push((function() { return v; })()); }" +
+            "  r.push((function() { eval('var v = \"eval\"'); return v; })());" +
+            "  let (v = 'let') { r.push((function() { return v; })()); }" +
+            "  (function() { k = k + 2; })();" +
+            "  r.push(k); return r.join(); }" +
+            "s()");
+    }
+
+    public void testCallErrors() {
+        assertEval("TypeError,ReferenceError",
+            "function e() { var notFn = 1;" +
+            "  return (function() { var r = [];" +
+            "    try { notFn(); } catch (x) { r.push(x.name); }" +
+            "    try { missing(); } catch (x) { r.push(x.name); }" +
+            "    return r.join(); })(); }" +
+            "e()");
+    }
+
+    public void testArgumentsAliasing() {
+        assertEval("5,7",
+            "function p(a) { var g = function() { return a; };" +
+            "  arguments[0] = 5; var first = g();" +
+            "  (function() { a = 7; })();" +
+            "  return first + ',' + arguments[0]; }" +
+            "p(1)");
+    }
+}
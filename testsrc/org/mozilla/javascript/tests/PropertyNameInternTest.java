@@ -0,0 +1,36 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Tests for {@link ScriptableObject#internPropertyName(String)}.
+ */
+public class PropertyNameInternTest extends TestCase {
+    public void testCanonicalInstance() {
+        String name = new StringBuilder("host").append("Name").toString();
+        assertNotSame("hostName", name);
+        assertSame("hostName", ScriptableObject.internPropertyName(name));
+    }
+
+    public void testHostPropertiesWithInternedNames() {
+        Context cx = Context.enter();
+        try {
+            ScriptableObject scope = cx.initStandardObjects();
+            for (int i = 0; i < 3; i++) {
+                String name = ScriptableObject.internPropertyName("host" + i);
+                scope.defineProperty(name, Integer.valueOf(i),
+                                     ScriptableObject.READONLY);
+            }
+            Object result = cx.evaluateString(scope,
+                "var o = {'host0': 'a'}; o['host1'] = 'b';" +
+                "[host0, host1, host2, o.host0, o.host1].join()",
+                "test", 1, null);
+            assertEquals("0,1,2,a,b", Context.toString(result));
+        } finally {
+            Context.exit();
+        }
+    }
+}
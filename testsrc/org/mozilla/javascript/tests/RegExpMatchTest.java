@@ -0,0 +1,153 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests the results of regular expression matching and the RegExp
+ * statics that describe the last match.
+ */
+public class RegExpMatchTest extends TestCase {
+    private Context cx;
+
+    @Override
+    protected void setUp() {
+        cx = Context.enter();
+        cx.setLanguageVersion(Context.VERSION_1_8);
+    }
+
+    @Override
+    protected void tearDown() {
+        Context.exit();
+    }
+
+    private void assertEval(String expected, String source) {
+        Scriptable scope = cx.initStandardObjects();
+        Object result = cx.evaluateString(scope, source, "test", 1, null);
+        assertEquals(expected, Context.toString(result));
+    }
+
+    public void testStatics() {
+        assertEval("bc,a,d,b,c,c,abcd",
+            "/(b)(c)/.exec('abcd');" +
+            "[RegExp.lastMatch, RegExp.leftContext, RegExp.rightContext," +
+            " RegExp.$1, RegExp.$2, RegExp.lastParen, RegExp.input || 'abcd'].join()");
+    }
+
+    public void testReplace() {
+        assertEval("ab[ab|c|d]d;x-1-y-22-z;A1B2C3;(1)(22)",
+            "['abcd'.replace(/c/, \"[$`|$&|$']\")," +
+            " 'x1y22z'.replace(/(\\d+)/g, '-$1-')," +
+            " 'a1b2c3'.replace(/[a-z]/g, function(m) { return m.toUpperCase(); })," +
+            " 'x1y22z'.replace(/[a-z]*(\\d+)[a-z]*/g, '($1)')].join(';')");
+    }
+
+    public void testBacktrackingRestoresCaptures() {
+        assertEval("abcd,a,bcd,;ab,b,;aba,a;aaab,a",
+            "function show(m) { return m.map(function(x) {" +
+            "  return x === undefined ? '' : x; }).join(); }" +
+            "[show(/(a|ab)(c|bcd)(d*)/.exec('abcd'))," +
+            " show(/((a)|b)+/.exec('ab'))," +
+            " show(/(?=(a+))a*b\\1/.exec('baaabac'))," +
+            " show(/(a)+?b/.exec('aaab'))].join(';')");
+    }
+
+    public void testExecLoopAndSplit() {
+        assertEval("0:1:2;1,2,5,6;a|b||c",
+            "var s = ''; for (var i = 0; i < 1000; i++) s += 'k' + i + ';';" +
+            "var re = /k(\\d+);/g, m, seen = [];" +
+            "while ((m = re.exec(s)) && seen.length < 3) seen.push(m[1]);" +
+            "var idx = []; re = /o/g; while ((m = re.exec('foo boo'))) idx.push(m.index);" +
+            "[seen.join(':'), idx.join(), 'a1b22c'.split(/\\d/).join('|')].join(';')");
+    }
+
+    public void testSkippedStartPositions() {
+        assertEval("ERROR x;5;Err;-1;6;0;-1;cd;-1;4;5",
+            "var log = 'INFO a\\nERROR x\\n';" +
+            "[/ERROR \\w/.exec(log)[0], 'WARN ERROR'.search(/ERR(OR)/)," +
+            " /err/i.exec('xx Err')[0], 'x\\nERROR'.search(/^ERROR/)," +
+            " 'a\\nb\\nc\\nab'.search(/^ab/m), 'ab'.search(/^ab/)," +
+            " 'aab'.search(/a(bc|bd)/), /(?:ab|cd)/.exec('xcd')[0]," +
+            " 'abcd'.search(/[0-9]x/), 'a-b-1'.search(/(?:[^-a-z]|b\\d)/)," +
+            " 'xxx\u0101\u0100 \u0100b'.search(/(\\s)?\u0100B/i)].join(';')");
+    }
+
+    /**
+     * Matches every input with every pattern, first backtracking and then
+     * with the automaton as soon as a match backtracks, and compares the
+     * results.
+     */
+    private void assertAutomatonMatchesLikeBacktracking(String pats,
+                                                        String ins) {
+        String source =
+            "var pats = [" + pats + "];" +
+            "var ins = [" + ins + "];" +
+            "var out = [];" +
+            "for (var i = 0; i < pats.length; i++)" +
+            "  for (var j = 0; j < ins.length; j++)" +
+            "    out.push(uneval(ins[j].match(pats[i])));" +
+            "out.join(';')";
+        Scriptable scope = cx.initStandardObjects();
+        Object expected = cx.evaluateString(scope, source, "test", 1, null);
+        cx.setMaximumRegExpBacktracks(1);
+        scope = cx.initStandardObjects();
+        Object result = cx.evaluateString(scope, source, "test", 1, null);
+        assertEquals(Context.toString(expected), Context.toString(result));
+    }
+
+    public void testAutomatonMatchesLikeBacktracking() {
+        assertAutomatonMatchesLikeBacktracking(
+            "/(a|ab)(c|bcd)(d*)/, /((a)|b)+/, /(a*)*b/, /(a*)+?b/," +
+            " /(?:x|xy)*z/, /^(a(b)?)+$/, /((a)|(b))*?c/, /(a{1,2}?|b){2,3}c/," +
+            " /(z)((a+)?(b+)?(c))*/, /(x)?(y)?(?:z|xy)+/, /(b|a?)+c/, /(a?)?b/," +
+            " /\\b(\\w+)\\s*=\\s*([^;]*);/g, /^\\s+|\\s+$/g, /[a-c]{2,}?x/i",
+            "'abcd', 'ab', 'aaab', 'xyxyz', 'abab', 'zaacbbbcac', 'xyzxy'," +
+            " 'aab', 'k = v; j=w;', '  s  ', 'ABcx', 'b', 'bac'");
+    }
+
+    public void testAutomatonWithBoundedQuantifiersInAlternatives() {
+        assertAutomatonMatchesLikeBacktracking(
+            "/c|a*(?:b+){1,3}x/, /c|a*(?:b+){1,2}x/, /(?:b+){1,3}x|c/," +
+            " /c|(a*(b+){1,3})+?x/, /(c|(?:ab?){2,4}|b{1,2}c)+/g," +
+            " /x|(?:(a|b){1,3}c?){2}|c/g, /(?:c|a*b{2,3}?)*x/i",
+            "'bc', 'c', 'bbc', 'abx', 'bbbx', 'ababbcx', 'babcbbcx'," +
+            " new Array(40).join('b') + 'c'");
+    }
+
+    public void testAutomatonWithIterationsMatchingEmpty() {
+        assertAutomatonMatchesLikeBacktracking(
+            "/(?:c*b??)+/, /(c*b{0,1}?)+/, /(c*b?)+/, /(?:c*b{0,2}?)+/," +
+            " /.*?((c*[ab]{0,2}?)){1,}/i, /(c*[ab]{0,2}?){1,}/," +
+            " /((a*)?b??){2,3}c/, /(?:(x*)(a|b)??){1,3}?c/",
+            "'bcb', 'bbbacbb', 'bbbacbbxaabb', 'abbc', 'xaxbb', 'cbc'");
+    }
+
+    public void testAutomatonAfterManyBacktracks() {
+        assertEval("39,c",
+            "var m = /c|a*(?:b+){1,3}x/.exec(new Array(40).join('b') + 'c');" +
+            "[m.index, m[0]].join()");
+    }
+
+    public void testNestedQuantifiersTakeLinearTime() {
+        assertEval("null;20000;b",
+            "var s = new Array(20001).join('a');" +
+            "[uneval(/(a+)+b/.exec(s + 'c')), /((a|b)+)c/.exec(s + 'c')[1].length," +
+            " /^(\\w+\\s?)*$/.exec(s + '!') || 'b'].join(';')");
+    }
+
+    public void testBacktrackLimit() {
+        cx.setMaximumRegExpBacktracks(10000);
+        assertEval("InternalError;true",
+            "var r = [];" +
+            "try { /(?=a)(a*)*b/.exec(new Array(30).join('a')); }" +
+            "catch (e) { r.push(e.name); }" +
+            "r.push(/(a)(?=b)\\w+\\1/.test('abca')); r.join(';')");
+        try {
+            cx.setMaximumRegExpBacktracks(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
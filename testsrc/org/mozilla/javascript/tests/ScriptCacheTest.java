@@ -0,0 +1,176 @@
+package org.mozilla.javascript.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.FileScriptCache;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptCache;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests for {@link ScriptCache} and {@link FileScriptCache}.
+ */
+public class ScriptCacheTest extends TestCase {
+    private static final String SOURCE =
+        "function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n" +
+        "var re = /b+/g;\n" +
+        "[fib(10), 'abbc'.replace(re, 'x'), fib.toString().length > 0].join()";
+
+    private static class MapCache implements ScriptCache {
+        final Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        int hits;
+        int misses;
+
+        public byte[] get(String key) {
+            byte[] data = entries.get(key);
+            if (data != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return data;
+        }
+
+        public void put(String key, byte[] data) {
+            entries.put(key, data);
+        }
+    }
+
+    private String exec(ScriptCache cache, int opt, String source) {
+        Context cx = Context.enter();
+        try {
+            cx.setOptimizationLevel(opt);
+            cx.setScriptCache(cache);
+            Scriptable scope = cx.initStandardObjects();
+            Script script = cx.compileString(source, "test", 1, null);
+            return Context.toString(script.exec(cx, scope));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private void checkHit(int opt) {
+        MapCache cache = new MapCache();
+        assertEquals("55,axc,true", exec(cache, opt, SOURCE));
+        assertEquals(0, cache.hits);
+        assertEquals(1, cache.entries.size());
+        assertEquals("55,axc,true", exec(cache, opt, SOURCE));
+        assertEquals(1, cache.hits);
+        assertEquals("55,axc,true", exec(cache, opt, SOURCE));
+        assertEquals(2, cache.hits);
+        assertEquals(1, cache.misses);
+    }
+
+    public void testInterpretedScript() {
+        checkHit(-1);
+    }
+
+    public void testCompiledScript() {
+        checkHit(9);
+    }
+
+    public void testSettingsAreInKey() {
+        MapCache cache = new MapCache();
+        exec(cache, -1, SOURCE);
+        exec(cache, 0, SOURCE);
+        exec(cache, -1, SOURCE + ";");
+        assertEquals(3, cache.entries.size());
+        assertEquals(0, cache.hits);
+    }
+
+    private String execShaped(final ScriptCache cache, final int opt,
+                              final boolean shaped) {
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                if (featureIndex == Context.FEATURE_SHAPED_OBJECTS) {
+                    return shaped;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        return (String)factory.call(new ContextAction() {
+            public Object run(Context cx) {
+                cx.setOptimizationLevel(opt);
+                cx.setScriptCache(cache);
+                Scriptable scope = cx.initStandardObjects();
+                Script script = cx.compileString(SOURCE, "test", 1, null);
+                return Context.toString(script.exec(cx, scope));
+            }
+        });
+    }
+
+    public void testShapedObjectsAreInKey() {
+        for (int opt : new int[] { -1, 9 }) {
+            MapCache cache = new MapCache();
+            assertEquals("55,axc,true", execShaped(cache, opt, false));
+            assertEquals("55,axc,true", execShaped(cache, opt, true));
+            assertEquals(2, cache.entries.size());
+            assertEquals(0, cache.hits);
+            assertEquals("55,axc,true", execShaped(cache, opt, true));
+            assertEquals(1, cache.hits);
+        }
+    }
+
+    public void testFunction() {
+        MapCache cache = new MapCache();
+        for (int i = 0; i < 2; i++) {
+            Context cx = Context.enter();
+            try {
+                cx.setScriptCache(cache);
+                Scriptable scope = cx.initStandardObjects();
+                Function f = cx.compileFunction(scope,
+                    "function add(a, b) { return a + b; }", "test", 1, null);
+                assertEquals("3", Context.toString(
+                    f.call(cx, scope, scope, new Object[] { 1, 2 })));
+            } finally {
+                Context.exit();
+            }
+        }
+        assertEquals(1, cache.hits);
+    }
+
+    public void testUnusableEntryIsReplaced() {
+        MapCache cache = new MapCache();
+        exec(cache, 9, SOURCE);
+        String key = cache.entries.keySet().iterator().next();
+        cache.entries.put(key, new byte[] { 1, 2, 3 });
+        assertEquals("55,axc,true", exec(cache, 9, SOURCE));
+        assertTrue(cache.entries.get(key).length > 3);
+    }
+
+    public void testFileScriptCache() throws IOException {
+        File dir = File.createTempFile("rhino", "cache");
+        assertTrue(dir.delete());
+        FileScriptCache cache = new FileScriptCache(dir);
+        try {
+            assertEquals("55,axc,true", exec(cache, -1, SOURCE));
+            assertEquals("55,axc,true", exec(cache, 9, SOURCE));
+            assertEquals(2, dir.list().length);
+            // A new instance sees the stored entries
+            MapCache counting = new MapCache();
+            final FileScriptCache files = new FileScriptCache(dir);
+            for (String name : dir.list()) {
+                String key = name.substring(0, name.indexOf('.'));
+                counting.put(key, files.get(key));
+            }
+            assertEquals("55,axc,true", exec(counting, -1, SOURCE));
+            assertEquals("55,axc,true", exec(counting, 9, SOURCE));
+            assertEquals(2, counting.hits);
+            assertEquals(0, counting.misses);
+        } finally {
+            cache.clear();
+            dir.delete();
+        }
+        assertFalse(dir.exists());
+    }
+}
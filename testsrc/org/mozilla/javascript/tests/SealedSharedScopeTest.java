@@ -0,0 +1,105 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Runs scripts from several threads against a sealed shared scope, which is
+ * read without locking, see {@link ScriptableObject#sealObject()}.
+ */
+public class SealedSharedScopeTest extends TestCase {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200;
+
+    private final ContextFactory factory = new ContextFactory();
+    private ScriptableObject sharedScope;
+
+    @Override
+    protected void setUp() {
+        Context cx = factory.enterContext();
+        try {
+            sharedScope = cx.initStandardObjects(null, true);
+            cx.evaluateString(sharedScope,
+                "var base = 40; function add(a, b) { return a + b; }",
+                "shared", 1, null);
+            sharedScope.sealObject();
+        } finally {
+            Context.exit();
+        }
+    }
+
+    public void testConcurrentReads() throws Exception {
+        final Script script = compile(
+            "var r = add(base, n); r + Math.max(1, 2) + String('x').length");
+        final Throwable[] failures = new Throwable[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Context cx = factory.enterContext();
+                    try {
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            Scriptable scope = cx.newObject(sharedScope);
+                            scope.setPrototype(sharedScope);
+                            scope.setParentScope(null);
+                            scope.put("n", scope, Integer.valueOf(id));
+                            Object result = script.exec(cx, scope);
+                            assertEquals(43.0 + id,
+                                         Context.toNumber(result), 0.0);
+                        }
+                    } catch (Throwable e) {
+                        failures[id] = e;
+                    } finally {
+                        Context.exit();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < THREADS; t++) {
+            threads[t].join();
+            if (failures[t] != null) {
+                throw new AssertionError(failures[t]);
+            }
+        }
+    }
+
+    public void testSealedScopeRejectsModification() {
+        Context cx = factory.enterContext();
+        try {
+            try {
+                cx.evaluateString(sharedScope, "newVar = 1", "test", 1, null);
+                fail();
+            } catch (EvaluatorException e) {
+                // expected
+            }
+            try {
+                cx.evaluateString(sharedScope, "base = 1", "test", 1, null);
+                fail();
+            } catch (EvaluatorException e) {
+                // expected
+            }
+            assertEquals(40.0, Context.toNumber(
+                sharedScope.get("base", sharedScope)), 0.0);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private Script compile(String source) {
+        Context cx = factory.enterContext();
+        try {
+            return cx.compileString(source, "test", 1, null);
+        } finally {
+            Context.exit();
+        }
+    }
+}
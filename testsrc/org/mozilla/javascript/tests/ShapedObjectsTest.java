@@ -0,0 +1,260 @@
+package org.mozilla.javascript.tests;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Checks that objects using shaped property storage behave like objects
+ * using the slot hash table, see {@link Context#FEATURE_SHAPED_OBJECTS}.
+ */
+public class ShapedObjectsTest extends TestCase {
+    static class ShapedFactory extends ContextFactory {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex)
+        {
+            if (featureIndex == Context.FEATURE_SHAPED_OBJECTS) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    }
+
+    private void assertEvaluates(final Object expected, final String source) {
+        final ContextAction action = new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals("opt " + cx.getOptimizationLevel(), expected,
+                             Context.toString(result));
+                return null;
+            }
+        };
+        new ShapedFactory().call(new ContextAction() {
+            public Object run(Context cx) {
+                Utils.runWithAllOptimizationLevels(action);
+                return null;
+            }
+        });
+    }
+
+    public void testLiteralProperties() {
+        assertEvaluates("1,2,3",
+            "var a = {x: 1, y: 2}; var b = {x: 3, y: 4};" +
+            "[a.x, a.y, b.x].join()");
+    }
+
+    public void testInsertionOrder() {
+        assertEvaluates("z,a,m",
+            "var o = {}; o.z = 1; o.a = 2; o.m = 3;" +
+            "var ids = []; for (var k in o) ids.push(k); ids.join()");
+    }
+
+    public void testConstructedObjects() {
+        assertEvaluates("7",
+            "function P(x, y) { this.x = x; this.y = y; }" +
+            "var s = 0; for (var i = 0; i < 100; i++) {" +
+            "  var p = new P(i, 1); s = p.x + p.y; }" +
+            "s - 93");
+    }
+
+    public void testPrototypeProperty() {
+        assertEvaluates("true,false,proto,own",
+            "function P() {} P.prototype.v = 'proto';" +
+            "var a = new P(); var r = [a.v == 'proto', a.hasOwnProperty('v')];" +
+            "r.push(a.v); a.v = 'own'; r.push(a.v); r.join()");
+    }
+
+    public void testDelete() {
+        assertEvaluates("b,c,true,3",
+            "var o = {a: 1, b: 2, c: 3}; delete o.a;" +
+            "var ids = []; for (var k in o) ids.push(k);" +
+            "ids.push(o.a === undefined); ids.push(o.c); ids.join()");
+    }
+
+    public void testDeleteAndAddAgain() {
+        assertEvaluates("b,c,a,4,true,true",
+            "var o = {a: 1, b: 2, c: 3}; delete o.a; o.a = 4;" +
+            "var p = {a: 1}; delete p.a; delete p.a;" +
+            "var ids = []; for (var k in o) ids.push(k);" +
+            "ids.concat([o.a, p.a === undefined, !('a' in p)]).join()");
+    }
+
+    public void testManyLayouts() {
+        assertEvaluates("100,true",
+            "var objs = []; for (var i = 0; i < 100; i++) {" +
+            "  var o = {}; o['k' + i] = i; o.v = i; objs.push(o); }" +
+            "var s = 0; for (var i = 0; i < 100; i++) s += objs[i]['k' + i];" +
+            "[objs.length, s == 4950 && objs[99].v == 99].join()");
+    }
+
+    public void testSetAttributes() {
+        ContextFactory factory = new ShapedFactory();
+        Context cx = factory.enterContext();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            ScriptableObject o = (ScriptableObject)cx.evaluateString(scope,
+                "var o = {x: 1, y: 2}; o", "test", 1, null);
+            o.setAttributes("x", ScriptableObject.DONTENUM
+                                 | ScriptableObject.READONLY);
+            Object result = cx.evaluateString(scope,
+                "o.x = 5; var ids = []; for (var k in o) ids.push(k);" +
+                "ids.concat([o.x]).join()", "test", 1, null);
+            assertEquals("y,1", Context.toString(result));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    public void testEnumerationWhileModified() {
+        assertEvaluates("a,c|x,y,p|a,b,c",
+            "var r = [];" +
+            "var o = {a: 1, b: 2, c: 3}; var ids = [];" +
+            "for (var k in o) { ids.push(k); delete o.b; o.d = 4; }" +
+            "r.push(ids.join());" +
+            "function P() { this.x = 1; this.y = 2; } P.prototype.p = 3;" +
+            "ids = []; for (var k in new P()) ids.push(k); r.push(ids.join());" +
+            "ids = []; var q = {a: 1, b: 2, c: 3};" +
+            "for (var i = 0; i < 2; i++) { ids = []; for (var k in q) ids.push(k); }" +
+            "r.push(ids.join()); r.join('|')");
+    }
+
+    public void testAccessors() {
+        assertEvaluates("10,5",
+            "var o = {v: 1}; o.__defineGetter__('w', function() { return 10; });" +
+            "o.__defineSetter__('z', function(x) { this.v = x; });" +
+            "o.z = 5; [o.w, o.v].join()");
+    }
+
+    public void testIndexedProperties() {
+        assertEvaluates("a,b,0,1",
+            "var o = {0: 'a'}; o[1] = 'b'; var ids = [];" +
+            "for (var k in o) ids.push(k); [o[0], o[1]].concat(ids).join()");
+    }
+
+    public void testManyProperties() {
+        assertEvaluates("100,99",
+            "var o = {}; for (var i = 0; i < 100; i++) o['p' + i] = i;" +
+            "var n = 0; for (var k in o) n++; [n, o.p99].join()");
+    }
+
+    public void testAttributes() {
+        assertEvaluates("1,false,true",
+            "var o = {}; Object.defineProperty(o, 'x', {value: 1});" +
+            "o.x = 2; [o.x, o.propertyIsEnumerable('x')," +
+            " Object.getOwnPropertyDescriptor(o, 'x').writable === false].join()");
+    }
+
+    public void testFrozen() {
+        assertEvaluates("1,true",
+            "var o = {x: 1}; Object.freeze(o); o.x = 2; o.y = 3;" +
+            "[o.x, o.y === undefined].join()");
+    }
+
+    public void testPropertyCacheInvalidation() {
+        assertEvaluates("1,2,3,4,own",
+            "function P() {} P.prototype.f = function() { return 1; };" +
+            "function get(o) { return o.f(); }" +
+            "var p = new P(); var r = [get(p)];" +
+            "P.prototype.f = function() { return 2; }; r.push(get(p));" +
+            "p.__proto__ = {f: function() { return 3; }}; r.push(get(p));" +
+            "p.f = function() { return 4; }; r.push(get(p));" +
+            "var q = {f: 'own'}; function val(o) { return o.f; }" +
+            "val(q); val({g: 1, f: 'other'}); r.push(val(q)); r.join()");
+    }
+
+    public void testPolymorphicSite() {
+        assertEvaluates("15",
+            "function get(o) { return o.v; } var s = 0;" +
+            "var objs = [{v: 1}, {a: 0, v: 2}, {b: 0, v: 3}, {c: 0, v: 4}," +
+            "            {d: 0, v: 5}];" +
+            "for (var k = 0; k < 3; k++) for (var i = 0; i < objs.length; i++)" +
+            "  s += get(objs[i]);" +
+            "s / 3");
+    }
+
+    public void testCompoundAssignment() {
+        assertEvaluates("30,3",
+            "function P() { this.n = 0; this.k = 0; }" +
+            "P.prototype.inc = function() { this.n += 10; return this; };" +
+            "var p = new P(); for (var i = 0; i < 3; i++) { p.inc(); p.k++; }" +
+            "[p.n, p.k].join()");
+    }
+
+    public void testReadOnlyAssignment() {
+        assertEvaluates("1",
+            "var o = {}; Object.defineProperty(o, 'x'," +
+            "    {value: 1, enumerable: true, configurable: true});" +
+            "function set(o) { o.x = 2; } set(o); set(o); o.x");
+    }
+
+    public void testConcurrentPutAndAdd() throws Exception {
+        final int rounds = 2000;
+        final Scriptable[] objects = (Scriptable[])new ShapedFactory().call(
+            new ContextAction() {
+                public Object run(Context cx) {
+                    Scriptable scope = cx.initStandardObjects();
+                    Scriptable[] result = new Scriptable[rounds];
+                    for (int i = 0; i < rounds; i++) {
+                        result[i] = (Scriptable)cx.evaluateString(scope,
+                            "var o = new Object(); o.x = -1; o", "test", 1,
+                            null);
+                    }
+                    return result;
+                }
+            });
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger added = new AtomicInteger();
+        final Throwable[] failure = new Throwable[1];
+        // Adding properties copies the values of the object and finally
+        // moves them to the slot hash table, stores of x must not get lost
+        Thread adder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (Scriptable obj : objects) {
+                        barrier.await();
+                        for (int i = 0; i < 40; i++) {
+                            obj.put("p" + i, obj, Integer.valueOf(i));
+                        }
+                        added.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        adder.start();
+        try {
+            for (int round = 0; round < rounds; round++) {
+                Scriptable obj = objects[round];
+                barrier.await();
+                for (int i = 0; added.get() == round; i++) {
+                    Integer value = Integer.valueOf(i);
+                    obj.put("x", obj, value);
+                    assertSame(value, obj.get("x", obj));
+                }
+            }
+        } finally {
+            if (added.get() != rounds) {
+                // Do not leave the adder waiting at the barrier
+                adder.interrupt();
+            }
+            adder.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        for (Scriptable obj : objects) {
+            assertEquals(Integer.valueOf(39), obj.get("p39", obj));
+        }
+    }
+}
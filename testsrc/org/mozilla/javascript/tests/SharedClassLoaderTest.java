@@ -0,0 +1,124 @@
+package org.mozilla.javascript.tests;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptCache;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests for {@link ContextFactory#setMaxClassesPerLoader(int)}.
+ */
+public class SharedClassLoaderTest extends TestCase {
+    private static class MapCache implements ScriptCache {
+        final Map<String, byte[]> entries = new HashMap<String, byte[]>();
+
+        public byte[] get(String key) {
+            return entries.get(key);
+        }
+
+        public void put(String key, byte[] data) {
+            entries.put(key, data);
+        }
+    }
+
+    private final ScriptCache scriptCache = new MapCache();
+
+    // Run in a new thread so the Context comes from the factory even if
+    // the caller has already entered one
+    private Object call(final ContextFactory factory,
+                        final ContextAction action) {
+        final Object[] result = new Object[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                result[0] = factory.call(action);
+            }
+        };
+        t.start();
+        try {
+            t.join();
+        } catch (InterruptedException ex) {
+            fail(ex.toString());
+        }
+        return result[0];
+    }
+
+    private Set<ClassLoader> compile(ContextFactory factory, final int count,
+                                     final boolean cached) {
+        final Set<ClassLoader> loaders = new HashSet<ClassLoader>();
+        call(factory, new ContextAction() {
+            public Object run(Context cx) {
+                cx.setOptimizationLevel(0);
+                if (cached) {
+                    cx.setScriptCache(scriptCache);
+                }
+                Scriptable scope = cx.initStandardObjects();
+                for (int i = 0; i < count; i++) {
+                    Script script = cx.compileString(
+                        cached ? "6 * 7" : "6 * " + i, "test", 1, null);
+                    assertEquals(String.valueOf(cached ? 42 : 6 * i),
+                        Context.toString(script.exec(cx, scope)));
+                    loaders.add(script.getClass().getClassLoader());
+                }
+                return null;
+            }
+        });
+        return loaders;
+    }
+
+    public void testOneLoaderPerScriptByDefault() {
+        ContextFactory factory = new ContextFactory();
+        assertEquals(0, factory.getMaxClassesPerLoader());
+        assertEquals(5, compile(factory, 5, false).size());
+        assertEquals(5, factory.getGeneratedClassCount());
+        assertEquals(5, factory.getGeneratedClassLoaderCount());
+    }
+
+    public void testLoadersAreShared() {
+        ContextFactory factory = new ContextFactory();
+        factory.setMaxClassesPerLoader(3);
+        assertEquals(3, compile(factory, 7, false).size());
+        assertEquals(7, factory.getGeneratedClassCount());
+        assertEquals(3, factory.getGeneratedClassLoaderCount());
+    }
+
+    public void testCachedClassNamesDoNotClash() {
+        ContextFactory factory = new ContextFactory();
+        factory.setMaxClassesPerLoader(100);
+        // The second and third scripts reuse the class name of the first
+        assertEquals(3, compile(factory, 3, true).size());
+        assertEquals(3, factory.getGeneratedClassCount());
+    }
+
+    public void testMalformedClassIsNotHidden() {
+        final ContextFactory factory = new ContextFactory();
+        factory.setMaxClassesPerLoader(2);
+        Object result = call(factory, new ContextAction() {
+            public Object run(Context cx) {
+                try {
+                    factory.defineGeneratedClass(cx,
+                        getClass().getClassLoader(), "Malformed",
+                        new byte[] { 1, 2, 3 });
+                } catch (ClassFormatError e) {
+                    return "thrown";
+                }
+                return "defined";
+            }
+        });
+        assertEquals("thrown", result);
+        assertEquals(0, factory.getGeneratedClassCount());
+        // The failed class does not take a place in the shared loader
+        assertEquals(1, compile(factory, 2, false).size());
+        assertEquals(2, factory.getGeneratedClassCount());
+        assertEquals(1, factory.getGeneratedClassLoaderCount());
+    }
+}
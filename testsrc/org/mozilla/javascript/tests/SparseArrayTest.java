@@ -0,0 +1,69 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Checks arrays whose elements do not fit into dense storage, and arrays
+ * that return to dense storage after being sparse.
+ */
+public class SparseArrayTest extends TestCase {
+    private void assertEvaluates(final Object expected, final String source) {
+        final ContextAction action = new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope, source, "test", 1,
+                                                  null);
+                assertEquals("opt " + cx.getOptimizationLevel(), expected,
+                             Context.toString(result));
+                return null;
+            }
+        };
+        Utils.runWithAllOptimizationLevels(action);
+    }
+
+    public void testSparseElements() {
+        assertEvaluates("7,20,5000|true|true|false|true|100001|5000|7",
+            "var a = []; a[100000] = 1; a[5000] = null; a[20] = undefined;" +
+            "a[7] = 'x'; delete a[100000]; var ids = [];" +
+            "for (var k in a) ids.push(k);" +
+            "[ids.join(), a[5000] === null, 5000 in a, 100000 in a," +
+            " 20 in a, a.length, a.indexOf(null), a.lastIndexOf('x')]" +
+            ".join('|')");
+    }
+
+    public void testTruncate() {
+        assertEvaluates("500,,2,false|0,|3,4",
+            "var a = [1, 2]; a[1000] = 5; a.length = 500;" +
+            "var r = [[a.length, a[1000], a[1], 1000 in a].join()];" +
+            "a.length = 0; r.push([a.length, a[1000]].join());" +
+            "a.push(3, 4); r.push(a.join()); r.join('|')");
+    }
+
+    public void testFillAgain() {
+        assertEvaluates("20000,199990000,9,1",
+            "var a = new Array(20000); for (var i = 0; i < 20000; i++) a[i] = i;" +
+            "var s = 0; for (var i = 0; i < a.length; i++) s += a[i];" +
+            "var b = [1]; b[50] = 1; for (var i = 0; i < 50; i++) b[i] = i;" +
+            "[a.length, s, b[9], b[50]].join()");
+    }
+
+    public void testGetterAfterSparse() {
+        assertEvaluates("9,2,201,true",
+            "var a = []; a[200] = 2;" +
+            "a.__defineGetter__('3', function() { return 9; });" +
+            "[a[3], a[200], a.length, 200 in a].join()");
+    }
+
+    public void testArrayMethods() {
+        assertEvaluates("100001,,1|2,b|c,a,b",
+            "var a = []; a[100000] = 1; a.sort(); a.reverse();" +
+            "var r = [[a.length, a[0], a[100000]].join()];" +
+            "var b = ['a']; b[20] = 'b'; b.length = 21;" +
+            "b.splice(1, 19); r.push([b.length, b[1]].join());" +
+            "b.unshift('c'); b.length = 3; r.push(b.join()); r.join('|')");
+    }
+}
@@ -0,0 +1,184 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Tests for {@link Context#FEATURE_TIERED_COMPILATION}.
+ */
+public class TieredCompilationTest extends TestCase {
+    private static final String FUNCTIONS =
+        "function add(a, b) { return [a + b, isCompiled()]; }\n" +
+        "function Point(x, y) { this.x = x; this.y = y;\n" +
+        "  Point.count = (Point.count || 0) + 1; Point.compiled = isCompiled(); }\n" +
+        "Point.prototype.sum = function() { return this.x + this.y; };\n" +
+        "var fact = function self(n) {\n" +
+        "  return n > 1 ? self(n - 1) : isCompiled(); };\n" +
+        "function thrower() {\n" +
+        "  var compiled = isCompiled();\n" +
+        "  throw new Error(String(compiled));\n" +
+        "}\n" +
+        "function lineOfError() {\n" +
+        "  try { thrower(); } catch (e) { return [e.lineNumber, e.message]; } }\n" +
+        "function sum(a, b) { var s = a;\n" +
+        "  for (var i = 0; i < 3; i++) s += b; return [s, isCompiled()]; }\n";
+
+    private static class TieredFactory extends ContextFactory {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_TIERED_COMPILATION
+                || featureIndex == Context.FEATURE_LOCATION_INFORMATION_IN_ERROR)
+            {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+
+        @Override
+        protected void onContextCreated(Context cx) {
+            super.onContextCreated(cx);
+            cx.setOptimizationLevel(9);
+            cx.setTieredCompilationThreshold(5);
+        }
+    }
+
+    /**
+     * Returns true if called from a class generated by the optimizer.
+     */
+    private static class IsCompiled extends BaseFunction {
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj,
+                           Object[] args) {
+            for (StackTraceElement e : new Throwable().getStackTrace()) {
+                if (e.getClassName().startsWith("org.mozilla.javascript.gen.")) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+    }
+
+    private final ContextFactory factory = new TieredFactory();
+
+    private Object call(final ContextAction action) {
+        // Use a new thread so the Context comes from our factory even if
+        // the caller has already entered one
+        final Object[] result = new Object[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                result[0] = factory.call(action);
+            }
+        };
+        t.start();
+        try {
+            t.join();
+        } catch (InterruptedException ex) {
+            fail(ex.toString());
+        }
+        return result[0];
+    }
+
+    private static Scriptable init(Context cx) {
+        Scriptable scope = cx.initStandardObjects();
+        ScriptableObject.putProperty(scope, "isCompiled", new IsCompiled());
+        Script script = cx.compileString(FUNCTIONS, "test", 1, null);
+        if (script.getClass().getName().startsWith(
+                "org.mozilla.javascript.gen.")) {
+            throw new IllegalStateException("script compiled");
+        }
+        script.exec(cx, scope);
+        return scope;
+    }
+
+    /**
+     * Evaluate the source until its result does not end with false.
+     * Compilation runs in the background, so give it some time.
+     */
+    private static String evalUntilCompiled(Context cx, Scriptable scope,
+                                            String source) {
+        String last = null;
+        for (int i = 0; i < 500; i++) {
+            last = Context.toString(
+                cx.evaluateString(scope, source, "test", 1, null));
+            if (!last.endsWith("false")) {
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+        return last;
+    }
+
+    private Object run(final String source) {
+        return call(new ContextAction() {
+            public Object run(Context cx) {
+                return evalUntilCompiled(cx, init(cx), source);
+            }
+        });
+    }
+
+    public void testHotFunctionIsCompiled() {
+        assertEquals("3,true", run("for (var i = 0; i < 10; i++) add(1, 2);" +
+                                   "add(1, 2).join()"));
+    }
+
+    public void testConstructorKeepsIdentity() {
+        assertEquals("3,true,true,true",
+            run("var p; for (var i = 0; i < 10; i++) p = new Point(1, 2);" +
+                "[p.sum(), p.constructor === Point, Point.count >= 10," +
+                " Point.compiled].join()"));
+    }
+
+    public void testNamedFunctionExpressionStaysInterpreted() {
+        assertEquals("false,true",
+            run("for (var i = 0; i < 10; i++) { fact(5); add(1, 2); }" +
+                "[fact(5), add(1, 2)[1]].join()"));
+    }
+
+    public void testLineNumbersInCompiledCode() {
+        assertEquals("9,true",
+            run("for (var i = 0; i < 10; i++) lineOfError();" +
+                "lineOfError().join()"));
+    }
+
+    public void testNumberParametersWithOtherTypes() {
+        assertEquals("x111;7,true",
+            run("for (var i = 0; i < 10; i++) sum(1, 2);" +
+                "sum('x', 1)[0] + ';' + sum(1, 2).join()"));
+    }
+
+    public void testDeoptimizedFunctionIsRecompiled() {
+        assertEquals("7,true;x111,false;x111,true;7,true", call(
+            new ContextAction() {
+                public Object run(Context cx) {
+                    Scriptable scope = init(cx);
+                    String numbers = evalUntilCompiled(cx, scope,
+                        "for (var i = 0; i < 10; i++) sum(1, 2);" +
+                        "sum(1, 2).join()");
+                    // Fails the check for the number parameter a
+                    String deoptimized = Context.toString(
+                        cx.evaluateString(scope, "sum('x', 1).join()",
+                                          "test", 1, null));
+                    String recompiled = evalUntilCompiled(cx, scope,
+                        "for (var i = 0; i < 20; i++) sum('x', 1);" +
+                        "sum('x', 1).join()");
+                    String again = Context.toString(
+                        cx.evaluateString(scope, "sum(1, 2).join()",
+                                          "test", 1, null));
+                    return numbers + ";" + deoptimized + ";" + recompiled +
+                           ";" + again;
+                }
+            }));
+    }
+}
@@ -0,0 +1,54 @@
+package org.mozilla.javascript.tests;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.optimizer.OptRuntime;
+
+/**
+ * Tests for the shared boxed small integers returned by
+ * {@link ScriptRuntime#wrapNumber(double)}.
+ */
+public class WrapNumberTest extends TestCase {
+    public void testSmallIntegersAreShared() {
+        assertSame(ScriptRuntime.wrapNumber(5), ScriptRuntime.wrapNumber(5.0));
+        assertSame(ScriptRuntime.wrapNumber(-128),
+                   ScriptRuntime.wrapNumber(-128));
+        assertSame(OptRuntime.wrapDouble(1023), ScriptRuntime.wrapNumber(1023));
+        assertSame(OptRuntime.zeroObj, ScriptRuntime.wrapNumber(0));
+        assertSame(ScriptRuntime.NaNobj, ScriptRuntime.wrapNumber(Double.NaN));
+    }
+
+    public void testOtherNumbers() {
+        assertEquals(1024.0, ScriptRuntime.wrapNumber(1024).doubleValue(), 0);
+        assertEquals(0.5, ScriptRuntime.wrapNumber(0.5).doubleValue(), 0);
+        assertEquals(-1e300,
+                     ScriptRuntime.wrapNumber(-1e300).doubleValue(), 0);
+        double negativeZero = ScriptRuntime.wrapNumber(-0.0).doubleValue();
+        assertEquals(Double.NEGATIVE_INFINITY, 1 / negativeZero, 0);
+        assertEquals(Double.POSITIVE_INFINITY,
+                     ScriptRuntime.wrapNumber(Double.POSITIVE_INFINITY)
+                     .doubleValue(), 0);
+    }
+
+    public void testStoredValues() {
+        for (int opt = -1; opt <= 9; opt += 10) {
+            Context cx = Context.enter();
+            try {
+                cx.setOptimizationLevel(opt);
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope,
+                    "var o = {}; o.a = -0; o.b = 3 | 0; o.c = 2147483647 + 1;" +
+                    "o.d = 1 << 30; [1 / o.a, o.b, o.c, o.d].join()",
+                    "test", 1, null);
+                assertEquals("opt " + opt,
+                             "-Infinity,3,2147483648,1073741824",
+                             Context.toString(result));
+            } finally {
+                Context.exit();
+            }
+        }
+    }
+}
@@ -232,8 +232,8 @@ public final class XMLLibImpl extends XMLLib implements Serializable {
 
         if (value instanceof XMLName) {
             result = (XMLName)value;
-        } else if (value instanceof String) {
-            String str = (String)value;
+        } else if (value instanceof CharSequence) {
+            String str = value.toString();
             long test = ScriptRuntime.testUint32String(str);
             if (test >= 0) {
                 ScriptRuntime.storeUint32Result(cx, test);